@@ -0,0 +1,101 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.economy.BankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance reads and writes under contention, and the ranking and total queries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BankManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private HeadlessBank bank;
+    private BankManager bankManager;
+    private UUID[] uuids;
+
+    /**
+     * Each benchmark thread walks the accounts in its own pseudo-random order
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt();
+
+        UUID pick(UUID[] uuids) {
+            next = next * 1103515245 + 12345;
+            return uuids[(next >>> 1) % uuids.length];
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        bank = HeadlessBank.start(Collections.emptyMap());
+        bankManager = bank.bank();
+        uuids = HeadlessBank.accounts(accounts);
+        for (int i = 0; i < uuids.length; i++) {
+            bankManager.setBankBalance(uuids[i], 1000 + i % 50_000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bank.shutdown();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double getBankBalance(Cursor cursor) {
+        return bankManager.getBankBalance(cursor.pick(uuids));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addToBankBalance(Cursor cursor) {
+        bankManager.addToBankBalance(cursor.pick(uuids), 1.0);
+    }
+
+    /**
+     * Every thread hits the same account, the worst case for the per-segment locks
+     */
+    @Benchmark
+    @Threads(4)
+    public void addToSameAccount() {
+        bankManager.addToBankBalance(uuids[0], 0.01);
+    }
+
+    @Benchmark
+    public List<BankManager.BankEntry> getTopBalances() {
+        return bankManager.getTopBalances(10);
+    }
+
+    @Benchmark
+    public double getTotalBankMoney() {
+        return bankManager.getTotalBankMoney();
+    }
+}
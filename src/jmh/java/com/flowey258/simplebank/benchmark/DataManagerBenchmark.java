@@ -0,0 +1,73 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.TransactionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a change on the balance hot path, and loading every account from storage
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private HeadlessBank bank;
+    private DataManager dataManager;
+    private UUID[] uuids;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        bank = HeadlessBank.start(Collections.emptyMap());
+        dataManager = bank.data();
+        uuids = HeadlessBank.accounts(accounts);
+        for (int i = 0; i < uuids.length; i++) {
+            bank.bank().setBankBalance(uuids[i], 1000 + i % 50_000);
+        }
+        // Write everything out so loadAllBankData reads it back from the file
+        dataManager.saveData();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bank.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void saveBankData() {
+        UUID uuid = uuids[next++ % uuids.length];
+        dataManager.saveBankData(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                150_000, 100, TransactionType.DEPOSIT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<UUID, Double> loadAllBankData() {
+        return dataManager.loadAllBankData();
+    }
+}
@@ -0,0 +1,104 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.HeadlessPlugin;
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.BinaryBankStorage;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.SimpleBankEconomy;
+import com.flowey258.simplebank.economy.WalletBridge;
+import com.flowey258.simplebank.economy.WalletManager;
+import com.flowey258.simplebank.utils.BankSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Runs SimpleBank's managers outside a server, on a {@link HeadlessPlugin}
+ */
+final class HeadlessBank {
+
+    private static final Logger LOGGER = Logger.getLogger("SimpleBank-Benchmark");
+
+    static {
+        LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final HeadlessPlugin plugin;
+    private final File dataFolder;
+
+    private HeadlessBank(Map<String, Object> config) throws IOException {
+        this.dataFolder = Files.createTempDirectory("simplebank-bench").toFile();
+        this.plugin = HeadlessPlugin.create(dataFolder, LOGGER);
+
+        // Keep the background flusher out of the measurements unless a benchmark asks for it
+        plugin.getConfig().set("storage.auto-save", 1_000_000);
+        plugin.getConfig().set("storage.flush-threshold", Integer.MAX_VALUE);
+        for (Map.Entry<String, Object> entry : config.entrySet()) {
+            plugin.getConfig().set(entry.getKey(), entry.getValue());
+        }
+        plugin.settings = BankSettings.from(plugin.getConfig());
+
+        plugin.dataManager = new DataManager(plugin);
+        plugin.bankManager = new BankManager(plugin);
+        // Wallets come from SimpleBank's own economy, since there is no other economy plugin here
+        if (plugin.getConfig().getBoolean("economy.provider", false)) {
+            plugin.walletManager = new WalletManager(plugin, new DataManager(plugin,
+                    new BinaryBankStorage(new File(dataFolder, "wallets.bin"), LOGGER), "SimpleBank-Wallet-IO"));
+            plugin.economy = new SimpleBankEconomy(plugin, plugin.walletManager, plugin.bankManager);
+            plugin.walletBridge = new WalletBridge(plugin);
+        }
+    }
+
+    static HeadlessBank start(Map<String, Object> config) throws IOException {
+        return new HeadlessBank(config);
+    }
+
+    static UUID[] accounts(int count) {
+        UUID[] accounts = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new UUID(0x5EED_0000_0000_0000L + i * 0x9E3779B97F4A7C15L, i);
+        }
+        return accounts;
+    }
+
+    SimpleBank plugin() {
+        return plugin;
+    }
+
+    BankManager bank() {
+        return plugin.bankManager;
+    }
+
+    DataManager data() {
+        return plugin.dataManager;
+    }
+
+    /**
+     * @return The wallets, or null unless started with {@code economy.provider} set
+     */
+    WalletManager wallets() {
+        return plugin.walletManager;
+    }
+
+    void shutdown() throws IOException {
+        if (plugin.bankManager != null) {
+            plugin.bankManager.closeHistory();
+        }
+        plugin.dataManager.shutdown();
+        if (plugin.walletManager != null) {
+            plugin.walletManager.getDataManager().shutdown();
+        }
+        try (Stream<Path> files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.TransactionType;
+import com.flowey258.simplebank.economy.BankStatistics;
+import com.flowey258.simplebank.economy.InterestAccrual;
+import com.flowey258.simplebank.economy.LeaderboardIndex;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full interest payment over every account, including the leaderboard,
+ * statistics and save bookkeeping each credited account goes through
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class InterestBenchmark {
+
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private HeadlessBank bank;
+    private UUID[] uuids;
+    private InterestAccrual accrual;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> config = new HashMap<>();
+        config.put("interest.enabled", true);
+        config.put("interest.interval-minutes", 1);
+        bank = HeadlessBank.start(config);
+        uuids = HeadlessBank.accounts(accounts);
+    }
+
+    /**
+     * Fresh balances with exactly one period due, wired up the same way BankManager does it
+     */
+    @Setup(Level.Iteration)
+    public void fillAccounts() {
+        DataManager dataManager = bank.data();
+        LeaderboardIndex leaderboard = new LeaderboardIndex();
+        BankStatistics statistics = new BankStatistics();
+        UuidLongMap balances = new UuidLongMap(accounts, (msb, lsb, oldBalance, newBalance, type) -> {
+            leaderboard.update(msb, lsb, oldBalance, newBalance);
+            statistics.update(oldBalance, newBalance);
+            dataManager.saveBankData(msb, lsb, newBalance, newBalance - oldBalance, TRANSACTION_TYPES[type]);
+        });
+        for (int i = 0; i < uuids.length; i++) {
+            long balance = MoneyUtils.toMinor(500 + i % 50_000);
+            long msb = uuids[i].getMostSignificantBits();
+            long lsb = uuids[i].getLeastSignificantBits();
+            balances.putIfAbsent(msb, lsb, balance);
+            leaderboard.update(msb, lsb, 0, balance);
+            statistics.update(0, balance);
+        }
+        accrual = new InterestAccrual(bank.plugin(), balances,
+                System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bank.shutdown();
+    }
+
+    @Benchmark
+    public void settleAllInterest() {
+        bank.data().runBatch(accrual::settleAll);
+    }
+}
@@ -0,0 +1,51 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.utils.MessageTemplate;
+import com.flowey258.simplebank.utils.MessageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the interest message every online player gets, through a compiled template
+ * and the way it was built before: replace, String.format and colorize on every call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageBenchmark {
+
+    private static final String PREFIX = "&8[&e&lBANK&8] ";
+    private static final String RAW = "{prefix}&aYou earned &e${amount} &ain interest! New balance: &e${balance}";
+
+    private final MessageTemplate template = MessageTemplate.compile(RAW, PREFIX);
+    private double interest = 12.34;
+    private double balance = 1_234_567.89;
+
+    @Benchmark
+    public String template() {
+        return template
+                .with(MessageTemplate.Placeholder.AMOUNT, interest)
+                .with(MessageTemplate.Placeholder.BALANCE, balance)
+                .render();
+    }
+
+    @Benchmark
+    public String replaceAndFormat() {
+        return MessageUtils.colorize(RAW
+                .replace("{prefix}", PREFIX)
+                .replace("{amount}", String.format("%.2f", interest))
+                .replace("{balance}", String.format("%.2f", balance)));
+    }
+}
@@ -0,0 +1,105 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.economy.BankBatch;
+import com.flowey258.simplebank.economy.BankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers between accounts under heavy contention. Every iteration checks that no money
+ * was created or lost, so a lost update or a deadlock fails the run instead of looking fast.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransferBenchmark {
+
+    @Param({"16", "100000"})
+    public int accounts;
+
+    @Param({"YAML", "JOURNAL"})
+    public String storage;
+
+    private HeadlessBank bank;
+    private BankManager bankManager;
+    private UUID[] uuids;
+    private double total;
+
+    /**
+     * Each benchmark thread picks its own pseudo-random pairs of accounts
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt();
+
+        UUID pick(UUID[] uuids) {
+            next = next * 1103515245 + 12345;
+            return uuids[(next >>> 1) % uuids.length];
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        bank = HeadlessBank.start(Map.of("storage.type", storage));
+        bankManager = bank.bank();
+        uuids = HeadlessBank.accounts(accounts);
+        for (UUID uuid : uuids) {
+            bankManager.setBankBalance(uuid, 1_000_000);
+        }
+        total = bankManager.getTotalBankMoney();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkConservation() {
+        double now = bankManager.getTotalBankMoney();
+        if (Math.abs(now - total) > 0.005) {
+            throw new IllegalStateException("Transfers changed the total from " + total + " to " + now);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bank.shutdown();
+    }
+
+    /**
+     * With 16 accounts most transfers share an account with another thread's transfer
+     */
+    @Benchmark
+    @Threads(8)
+    public BankBatch.Outcome transfer(Cursor cursor) {
+        return bankManager.transfer(cursor.pick(uuids), cursor.pick(uuids), 0.01, 0);
+    }
+
+    /**
+     * Every thread moves money back and forth between the same two accounts
+     */
+    @Benchmark
+    @Threads(8)
+    public BankBatch.Outcome transferSamePair(Cursor cursor) {
+        boolean forward = (cursor.next & 1) == 0;
+        cursor.next++;
+        return bankManager.transfer(uuids[forward ? 0 : 1], uuids[forward ? 1 : 0], 0.01, 0);
+    }
+}
@@ -0,0 +1,127 @@
+package com.flowey258.simplebank.benchmark;
+
+import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.WalletBridge;
+import com.flowey258.simplebank.economy.WalletManager;
+import org.bukkit.OfflinePlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits and withdrawals between wallets and the bank, through the logged {@link WalletBridge}
+ * and through the two plain calls it replaces. The difference is the cost of the intent log;
+ * it is group-committed, so it should not add a disk sync per transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WalletBridgeBenchmark {
+
+    private static final int PLAYERS = 1024;
+
+    @Param({"YAML", "JOURNAL"})
+    public String storage;
+
+    private HeadlessBank bank;
+    private BankManager bankManager;
+    private WalletManager wallets;
+    private WalletBridge bridge;
+    private OfflinePlayer[] players;
+    private double total;
+
+    @Setup
+    public void setUp() throws IOException {
+        bank = HeadlessBank.start(Map.of("storage.type", storage, "economy.provider", true,
+                "storage.intent-log.sync-interval-millis", 10));
+        bankManager = bank.bank();
+        wallets = bank.wallets();
+        bridge = bank.plugin().getWalletBridge();
+
+        UUID[] uuids = HeadlessBank.accounts(PLAYERS);
+        players = new OfflinePlayer[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = player(uuids[i]);
+            wallets.deposit(uuids[i], 1_000);
+            bankManager.setBankBalance(uuids[i], 1_000);
+        }
+        total = wallets.getTotalMoney() + bankManager.getTotalBankMoney();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkConservation() {
+        double now = wallets.getTotalMoney() + bankManager.getTotalBankMoney();
+        if (Math.abs(now - total) > 0.005) {
+            throw new IllegalStateException("Moves changed the total from " + total + " to " + now);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bank.shutdown();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public WalletBridge.Outcome logged() {
+        OfflinePlayer player = players[ThreadLocalRandom.current().nextInt(PLAYERS)];
+        bridge.deposit(player, 0.01, 0);
+        return bridge.withdraw(player, 0.01);
+    }
+
+    /**
+     * What the deposit and withdraw commands did before the intent log
+     */
+    @Benchmark
+    @Threads(8)
+    public boolean unlogged() {
+        UUID uuid = players[ThreadLocalRandom.current().nextInt(PLAYERS)].getUniqueId();
+        wallets.withdraw(uuid, 0.01);
+        bankManager.depositIfWithinLimit(uuid, 0.01, 0);
+        bankManager.withdrawIfSufficient(uuid, 0.01);
+        wallets.deposit(uuid, 0.01);
+        return true;
+    }
+
+    /**
+     * An offline player that only knows its UUID, which is all the economy needs
+     */
+    private static OfflinePlayer player(UUID uuid) {
+        return (OfflinePlayer) Proxy.newProxyInstance(OfflinePlayer.class.getClassLoader(),
+                new Class<?>[]{OfflinePlayer.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUniqueId":
+                            return uuid;
+                        case "getName":
+                            return uuid.toString();
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -2,13 +2,33 @@ package com.flowey258.simplebank;
 
 import com.flowey258.simplebank.api.BankAPI;
 import com.flowey258.simplebank.commands.BankCommand;
+import com.flowey258.simplebank.commands.CommandPipeline;
+import com.flowey258.simplebank.data.BinaryBankStorage;
 import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.PlayerNameIndex;
 import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.SimpleBankEconomy;
+import com.flowey258.simplebank.economy.WalletBridge;
+import com.flowey258.simplebank.economy.WalletManager;
 import com.flowey258.simplebank.listeners.PlayerListener;
+import com.flowey258.simplebank.metrics.BankMetrics;
+import com.flowey258.simplebank.metrics.RateMeter;
 import com.flowey258.simplebank.tasks.InterestTask;
+import com.flowey258.simplebank.utils.BankSettings;
+import com.flowey258.simplebank.utils.Messages;
 import net.milkbowl.vault.economy.Economy;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 
 public class SimpleBank extends JavaPlugin {
 
@@ -16,14 +36,33 @@ public class SimpleBank extends JavaPlugin {
     private Economy economy = null;
     private DataManager dataManager;
     private BankManager bankManager;
+    private WalletManager walletManager;
+    private WalletBridge walletBridge;
+    private PlayerNameIndex playerNames;
+    private CommandPipeline commandPipeline;
     private InterestTask interestTask;
+    private final BankMetrics metrics = new BankMetrics(this);
+    private final Messages messages = new Messages(this::getConfig);
+    private volatile BankSettings settings;
+
+    public SimpleBank() {
+        super();
+    }
+
+    /**
+     * Creates the plugin outside a running server, for HeadlessPlugin in the unit tests and benchmarks
+     */
+    SimpleBank(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
+        long start = System.nanoTime();
         instance = this;
 
         // Check for Vault
-        if (!setupEconomy()) {
+        if (getServer().getPluginManager().getPlugin("Vault") == null) {
             getLogger().severe("Disabled due to no Vault dependency found!");
             getServer().getPluginManager().disablePlugin(this);
             return;
@@ -33,46 +72,141 @@ public class SimpleBank extends JavaPlugin {
         saveDefaultConfig();
 
         // Initialize managers
-        dataManager = new DataManager(this);
+        try {
+            dataManager = new DataManager(this);
+        } catch (IOException e) {
+            // Running on anything but the configured storage would serve the wrong balances
+            getLogger().log(Level.SEVERE, "Disabled because the bank data storage could not be opened!", e);
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
         bankManager = new BankManager(this);
 
+        // Serve wallets ourselves instead of using another economy plugin
+        if (getConfig().getBoolean("economy.provider", false)) {
+            registerEconomy();
+        }
+
+        if (!setupEconomy()) {
+            getLogger().severe("Disabled due to no Vault economy provider found!");
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
+
+        // Finish wallet transactions the last run was in the middle of
+        walletBridge = new WalletBridge(this);
+        walletBridge.recoverUnfinished();
+
+        startMetrics();
+        loadPlayerNames();
+
         // Initialize API
         BankAPI.initialize(this);
 
         // Register commands
+        commandPipeline = new CommandPipeline(this);
         getCommand("bank").setExecutor(new BankCommand(this));
 
         // Register listeners
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
 
+        // Players already online after a reload never fire a join event
+        for (Player player : getServer().getOnlinePlayers()) {
+            bankManager.onJoin(player.getUniqueId(), player.hasPermission("bank.interest.exempt"));
+            playerNames.record(player.getUniqueId(), player.getName());
+        }
+
         // Start interest task if enabled
-        if (getConfig().getBoolean("interest.enabled", false)) {
+        if (getSettings().isInterestEnabled()) {
             interestTask = new InterestTask(this);
             interestTask.start();
         }
 
-        getLogger().info("SimpleBank has been enabled!");
+        getLogger().info("SimpleBank has been enabled in " + (System.nanoTime() - start) / 1_000_000 + " ms!");
     }
 
     @Override
     public void onDisable() {
+        metrics.unregisterMBean();
+
+        // Let bank commands still running finish, so their changes are saved below
+        if (commandPipeline != null) {
+            commandPipeline.shutdown();
+        }
+
+        // Let async API calls still running finish, so their changes are saved below
+        BankAPI.shutdown();
+
         // Stop interest task
         if (interestTask != null) {
             interestTask.stop();
         }
 
-        // Save data
+        // Pay interest that is due but not settled yet, so it gets saved
+        if (bankManager != null) {
+            bankManager.settleAllInterest();
+            bankManager.closeHistory();
+        }
+
+        // Stop the background writer and flush everything still pending
         if (dataManager != null) {
-            dataManager.saveData();
+            dataManager.shutdown();
+        }
+        if (walletManager != null) {
+            getServer().getServicesManager().unregisterAll(this);
+            walletManager.getDataManager().shutdown();
+        }
+        if (playerNames != null) {
+            savePlayerNames();
         }
 
         getLogger().info("SimpleBank has been disabled!");
     }
 
-    private boolean setupEconomy() {
-        if (getServer().getPluginManager().getPlugin("Vault") == null) {
-            return false;
+    private void registerEconomy() {
+        try {
+            DataManager walletData = new DataManager(this,
+                    new BinaryBankStorage(new File(getDataFolder(), "wallets.bin"), getLogger()), "SimpleBank-Wallet-IO");
+            walletManager = new WalletManager(this, walletData);
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open wallets.bin, not registering as the economy provider!", e);
+            return;
         }
+        getServer().getServicesManager().register(Economy.class,
+                new SimpleBankEconomy(this, walletManager, bankManager), this, ServicePriority.Highest);
+        getLogger().info("Registered SimpleBank as the Vault economy provider.");
+    }
+
+    private void loadPlayerNames() {
+        playerNames = new PlayerNameIndex(new File(getDataFolder(), "names.bin"), getLogger(),
+                getConfig().getInt("storage.names.max-entries", 100000));
+        try {
+            playerNames.load();
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not load names.bin, rebuilding the player name index!", e);
+        }
+
+        // First start, or the file was lost: take the names the server already knows, once
+        if (playerNames.size() == 0) {
+            for (OfflinePlayer player : getServer().getOfflinePlayers()) {
+                playerNames.record(player.getUniqueId(), player.getName(), player.getLastPlayed());
+            }
+            getLogger().info("Indexed " + playerNames.size() + " player names.");
+        }
+
+        long saveInterval = 60 * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, this::savePlayerNames, saveInterval, saveInterval);
+    }
+
+    private void savePlayerNames() {
+        try {
+            playerNames.save();
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Could not save names.bin!", e);
+        }
+    }
+
+    private boolean setupEconomy() {
         RegisteredServiceProvider<Economy> rsp = getServer().getServicesManager().getRegistration(Economy.class);
         if (rsp == null) {
             return false;
@@ -81,6 +215,60 @@ public class SimpleBank extends JavaPlugin {
         return economy != null;
     }
 
+    /**
+     * Also recompiles the messages and replaces the settings, so every reload of config.yml shows up in them
+     */
+    @Override
+    public void reloadConfig() {
+        super.reloadConfig();
+        messages.reload();
+        settings = BankSettings.from(getConfig());
+    }
+
+    /**
+     * Reloads config.yml while the server runs: messages and limits switch over at once. Paying the
+     * interest due under the old settings touches every account, so it runs off the main thread, and
+     * the interest task is restarted with the new interval afterwards. Storage settings still need a restart.
+     * @return Completes on the main thread once interest runs under the new settings
+     */
+    public CompletableFuture<Void> reloadSettings() {
+        reloadConfig();
+        BankSettings current = settings;
+        if (interestTask != null) {
+            interestTask.stop();
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            RuntimeException failure = null;
+            try {
+                bankManager.applySettings(current);
+            } catch (RuntimeException e) {
+                getLogger().log(Level.SEVERE, "Could not switch interest to the reloaded settings!", e);
+                failure = e;
+            }
+            if (!isEnabled()) {
+                return;
+            }
+            RuntimeException error = failure;
+            getServer().getScheduler().runTask(this, () -> {
+                if (current.isInterestEnabled()) {
+                    if (interestTask == null) {
+                        interestTask = new InterestTask(this);
+                    }
+                    interestTask.start();
+                }
+                if (error != null) {
+                    done.completeExceptionally(error);
+                } else {
+                    getLogger().info("Configuration reloaded.");
+                    done.complete(null);
+                }
+            });
+        });
+        return done;
+    }
+
     public static SimpleBank getInstance() {
         return instance;
     }
@@ -89,6 +277,42 @@ public class SimpleBank extends JavaPlugin {
         return economy;
     }
 
+    private void startMetrics() {
+        metrics.registerMBean();
+        long tickInterval = RateMeter.TICK_SECONDS * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, metrics::tick, tickInterval, tickInterval);
+
+        // Optional Prometheus textfile dump, relative to the plugin folder
+        String prometheusFile = getConfig().getString("metrics.prometheus-file", "");
+        if (prometheusFile != null && !prometheusFile.isEmpty()) {
+            File target = new File(getDataFolder(), prometheusFile);
+            long dumpInterval = Math.max(1, getConfig().getLong("metrics.dump-interval-seconds", 15)) * 20L;
+            getServer().getScheduler().runTaskTimerAsynchronously(this,
+                    () -> metrics.writePrometheusFile(target), dumpInterval, dumpInterval);
+        }
+    }
+
+    public Messages getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The current settings; keep the returned instance to read several settings of the same version
+     */
+    public BankSettings getSettings() {
+        BankSettings current = settings;
+        if (current == null) {
+            // The first getConfig() loads config.yml, which builds the settings
+            getConfig();
+            current = settings;
+        }
+        return current;
+    }
+
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
     public DataManager getDataManager() {
         return dataManager;
     }
@@ -96,4 +320,26 @@ public class SimpleBank extends JavaPlugin {
     public BankManager getBankManager() {
         return bankManager;
     }
+
+    public WalletBridge getWalletBridge() {
+        return walletBridge;
+    }
+
+    public CommandPipeline getCommandPipeline() {
+        return commandPipeline;
+    }
+
+    /**
+     * @return Player names and UUIDs, resolved from memory
+     */
+    public PlayerNameIndex getPlayerNames() {
+        return playerNames;
+    }
+
+    /**
+     * @return The wallets, or null unless SimpleBank is the economy provider
+     */
+    public WalletManager getWalletManager() {
+        return walletManager;
+    }
 }
\ No newline at end of file
@@ -1,16 +1,41 @@
 package com.flowey258.simplebank.api;
 
 import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.TransactionHistory;
+import com.flowey258.simplebank.economy.BankBatch;
+import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.WorkerExecutors;
 import org.bukkit.OfflinePlayer;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * API class for other plugins to interact with SimpleBank
+ * All methods are safe to call from any thread
+ *
+ * Every change to one account is atomic: concurrent calls for the same account never lose
+ * an update, and calls for different accounts run in parallel. The synchronous methods may
+ * block briefly when an account has to be loaded from storage (see {@code storage.cache});
+ * the *Async methods never block the caller. They run on SimpleBank's own worker threads
+ * (virtual threads on Java 21+), and their futures complete on those threads, so switch back
+ * to the main thread with the scheduler before touching the Bukkit API. Async calls are not
+ * ordered relative to each other unless you chain them.
+ *
+ * Amounts that are NaN, infinite or larger than {@link MoneyUtils#MAX_AMOUNT} are rejected
+ * like non-positive ones, and no balance grows past that maximum.
  */
 public class BankAPI {
 
-    private static SimpleBank plugin;
+    private static volatile SimpleBank plugin;
+    private static volatile ExecutorService executor;
 
     /**
      * Initialize the API with the plugin instance
@@ -18,6 +43,26 @@ public class BankAPI {
      */
     public static void initialize(SimpleBank pluginInstance) {
         plugin = pluginInstance;
+        executor = WorkerExecutors.create("SimpleBank-API", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Stops accepting async calls and waits for running ones to finish, so their changes get saved.
+     * This is called automatically when the plugin disables
+     */
+    public static void shutdown() {
+        ExecutorService current = executor;
+        plugin = null;
+        executor = null;
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            current.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -26,8 +71,9 @@ public class BankAPI {
      * @return The player's bank balance
      */
     public static double getBankBalance(UUID uuid) {
-        if (plugin == null) return 0.0;
-        return plugin.getBankManager().getBankBalance(uuid);
+        SimpleBank current = plugin;
+        if (current == null) return 0.0;
+        return current.getBankManager().getBankBalance(uuid);
     }
 
     /**
@@ -46,10 +92,11 @@ public class BankAPI {
      * @return True if successful
      */
     public static boolean setBankBalance(UUID uuid, double amount) {
-        if (plugin == null) return false;
-        if (amount < 0) return false;
+        SimpleBank current = plugin;
+        if (current == null) return false;
+        if (amount < 0 || !MoneyUtils.isValidAmount(amount)) return false;
 
-        plugin.getBankManager().setBankBalance(uuid, amount);
+        current.getBankManager().setBankBalance(uuid, amount);
         return true;
     }
 
@@ -70,10 +117,11 @@ public class BankAPI {
      * @return True if successful
      */
     public static boolean addToBankBalance(UUID uuid, double amount) {
-        if (plugin == null) return false;
-        if (amount <= 0) return false;
+        SimpleBank current = plugin;
+        if (current == null) return false;
+        if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) return false;
 
-        plugin.getBankManager().addToBankBalance(uuid, amount);
+        current.getBankManager().addToBankBalance(uuid, amount);
         return true;
     }
 
@@ -94,14 +142,11 @@ public class BankAPI {
      * @return True if successful
      */
     public static boolean removeFromBankBalance(UUID uuid, double amount) {
-        if (plugin == null) return false;
-        if (amount <= 0) return false;
+        SimpleBank current = plugin;
+        if (current == null) return false;
+        if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) return false;
 
-        double currentBalance = plugin.getBankManager().getBankBalance(uuid);
-        if (currentBalance < amount) return false;
-
-        plugin.getBankManager().removeFromBankBalance(uuid, amount);
-        return true;
+        return current.getBankManager().withdrawIfSufficient(uuid, amount);
     }
 
     /**
@@ -121,8 +166,9 @@ public class BankAPI {
      * @return True if the player has enough money
      */
     public static boolean hasBankBalance(UUID uuid, double amount) {
-        if (plugin == null) return false;
-        return plugin.getBankManager().hasBankBalance(uuid, amount);
+        SimpleBank current = plugin;
+        if (current == null) return false;
+        return current.getBankManager().hasBankBalance(uuid, amount);
     }
 
     /**
@@ -140,8 +186,244 @@ public class BankAPI {
      * @return The total bank money
      */
     public static double getTotalBankMoney() {
-        if (plugin == null) return 0.0;
-        return plugin.getBankManager().getTotalBankMoney();
+        SimpleBank current = plugin;
+        if (current == null) return 0.0;
+        return current.getBankManager().getTotalBankMoney();
+    }
+
+    /**
+     * Get the number of bank accounts with a positive balance
+     * @return The account count
+     */
+    public static long getBankAccountCount() {
+        SimpleBank current = plugin;
+        if (current == null) return 0;
+        return current.getBankManager().getStatistics().getAccountCount();
+    }
+
+    /**
+     * Get the average bank balance of all accounts with money in them
+     * @return The mean balance
+     */
+    public static double getAverageBankBalance() {
+        SimpleBank current = plugin;
+        if (current == null) return 0.0;
+        return current.getBankManager().getStatistics().getMean();
+    }
+
+    /**
+     * Estimate a percentile of all bank balances, e.g. 50 for the median.
+     * The estimate is within a factor of two of the exact value.
+     * @param percentile The percentile, from 0 to 100
+     * @return The estimated balance at that percentile
+     */
+    public static double getBankBalancePercentile(double percentile) {
+        SimpleBank current = plugin;
+        if (current == null) return 0.0;
+        return current.getBankManager().getStatistics().getPercentile(percentile);
+    }
+
+    /**
+     * Get a page of the richest bank accounts, highest balance first
+     * @param offset Number of entries to skip (0 starts at the top)
+     * @param limit Maximum number of entries to return
+     * @return The entries in rank order
+     */
+    public static List<BankManager.BankEntry> getTopBalances(int offset, int limit) {
+        SimpleBank current = plugin;
+        if (current == null) return Collections.emptyList();
+        return current.getBankManager().getTopBalances(offset, limit);
+    }
+
+    /**
+     * Get a player's position in the bank ranking
+     * @param uuid The player's UUID
+     * @return The 1-based rank, or 0 if the player has no bank balance
+     */
+    public static int getBankRank(UUID uuid) {
+        SimpleBank current = plugin;
+        if (current == null) return 0;
+        return current.getBankManager().getRank(uuid);
+    }
+
+    /**
+     * Get a player's most recent bank balance changes. Reads older changes from disk, so prefer
+     * {@link #getHistoryAsync} on the main thread.
+     * @param uuid The player's UUID
+     * @param limit Maximum number of changes to return
+     * @return The changes, newest first
+     */
+    public static List<TransactionHistory.Entry> getHistory(UUID uuid, int limit) {
+        return getHistory(uuid, 0, limit);
+    }
+
+    /**
+     * Get a page of a player's bank balance changes
+     * @param uuid The player's UUID
+     * @param offset Number of newest changes to skip
+     * @param limit Maximum number of changes to return
+     * @return The changes, newest first
+     */
+    public static List<TransactionHistory.Entry> getHistory(UUID uuid, long offset, int limit) {
+        SimpleBank current = plugin;
+        if (current == null) return Collections.emptyList();
+        return current.getBankManager().getHistory(uuid, offset, limit);
+    }
+
+    /**
+     * Move money from one player's bank account to another's, as one atomic step.
+     * The receiver's balance may not go over bank.max-balance.
+     * @param from The paying player's UUID
+     * @param to The receiving player's UUID
+     * @param amount The amount to move
+     * @return SUCCESS, or why nothing was moved
+     */
+    public static BankBatch.Outcome transfer(UUID from, UUID to, double amount) {
+        SimpleBank current = plugin;
+        if (current == null) return BankBatch.Outcome.NOT_APPLIED;
+        return current.getBankManager().transfer(from, to, amount, current.getSettings().getMaxBalance());
+    }
+
+    /**
+     * Move money from one player's bank account to another's, as one atomic step
+     * @param from The paying player
+     * @param to The receiving player
+     * @param amount The amount to move
+     * @return SUCCESS, or why nothing was moved
+     */
+    public static BankBatch.Outcome transfer(OfflinePlayer from, OfflinePlayer to, double amount) {
+        return transfer(from.getUniqueId(), to.getUniqueId(), amount);
+    }
+
+    /**
+     * Apply many deposits, withdrawals and transfers at once, e.g. a payout to every player in a game.
+     * The batch is applied atomically and saved in one write, instead of one per call.
+     * @param batch The entries, see {@link BankBatch}
+     * @return The outcome of each entry, in the order they were added
+     */
+    public static List<BankBatch.Outcome> applyBatch(BankBatch batch) {
+        SimpleBank current = plugin;
+        if (current == null) return Collections.nCopies(batch.size(), BankBatch.Outcome.NOT_APPLIED);
+        return current.getBankManager().applyBatch(batch);
+    }
+
+    /**
+     * Apply a batch without blocking, see {@link #applyBatch}
+     * @param batch The entries, see {@link BankBatch}
+     * @return The outcome of each entry, in the order they were added
+     */
+    public static CompletableFuture<List<BankBatch.Outcome>> applyBatchAsync(BankBatch batch) {
+        return supplyAsync(bank -> bank.applyBatch(batch),
+                Collections.nCopies(batch.size(), BankBatch.Outcome.NOT_APPLIED));
+    }
+
+    /**
+     * Move money between two players' bank accounts without blocking, see {@link #transfer(UUID, UUID, double)}
+     * @param from The paying player's UUID
+     * @param to The receiving player's UUID
+     * @param amount The amount to move
+     * @return SUCCESS, or why nothing was moved
+     */
+    public static CompletableFuture<BankBatch.Outcome> transferAsync(UUID from, UUID to, double amount) {
+        SimpleBank current = plugin;
+        if (current == null) return CompletableFuture.completedFuture(BankBatch.Outcome.NOT_APPLIED);
+        double maxBalance = current.getSettings().getMaxBalance();
+        return supplyAsync(bank -> bank.transfer(from, to, amount, maxBalance), BankBatch.Outcome.NOT_APPLIED);
+    }
+
+    /**
+     * Get a player's bank balance without blocking
+     * @param uuid The player's UUID
+     * @return The player's bank balance
+     */
+    public static CompletableFuture<Double> getBankBalanceAsync(UUID uuid) {
+        return supplyAsync(bank -> bank.getBankBalance(uuid), 0.0);
+    }
+
+    /**
+     * Set a player's bank balance without blocking
+     * @param uuid The player's UUID
+     * @param amount The new balance
+     * @return True if successful
+     */
+    public static CompletableFuture<Boolean> setBankBalanceAsync(UUID uuid, double amount) {
+        if (amount < 0 || !MoneyUtils.isValidAmount(amount)) return CompletableFuture.completedFuture(false);
+        return supplyAsync(bank -> {
+            bank.setBankBalance(uuid, amount);
+            return true;
+        }, false);
+    }
+
+    /**
+     * Add money to a player's bank balance without blocking
+     * @param uuid The player's UUID
+     * @param amount The amount to add
+     * @return True if successful
+     */
+    public static CompletableFuture<Boolean> depositAsync(UUID uuid, double amount) {
+        if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) return CompletableFuture.completedFuture(false);
+        return supplyAsync(bank -> {
+            bank.addToBankBalance(uuid, amount);
+            return true;
+        }, false);
+    }
+
+    /**
+     * Remove money from a player's bank balance without blocking, only if they have enough
+     * @param uuid The player's UUID
+     * @param amount The amount to remove
+     * @return True if the money was removed
+     */
+    public static CompletableFuture<Boolean> withdrawAsync(UUID uuid, double amount) {
+        if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) return CompletableFuture.completedFuture(false);
+        return supplyAsync(bank -> bank.withdrawIfSufficient(uuid, amount), false);
+    }
+
+    /**
+     * Check if a player has enough money in their bank without blocking
+     * @param uuid The player's UUID
+     * @param amount The amount to check
+     * @return True if the player has enough money
+     */
+    public static CompletableFuture<Boolean> hasBankBalanceAsync(UUID uuid, double amount) {
+        return supplyAsync(bank -> bank.hasBankBalance(uuid, amount), false);
+    }
+
+    /**
+     * Get a player's position in the bank ranking without blocking
+     * @param uuid The player's UUID
+     * @return The 1-based rank, or 0 if the player has no bank balance
+     */
+    public static CompletableFuture<Integer> getBankRankAsync(UUID uuid) {
+        return supplyAsync(bank -> bank.getRank(uuid), 0);
+    }
+
+    /**
+     * Get a player's most recent bank balance changes without blocking
+     * @param uuid The player's UUID
+     * @param limit Maximum number of changes to return
+     * @return The changes, newest first
+     */
+    public static CompletableFuture<List<TransactionHistory.Entry>> getHistoryAsync(UUID uuid, int limit) {
+        return supplyAsync(bank -> bank.getHistory(uuid, 0, limit), Collections.emptyList());
+    }
+
+    /**
+     * Runs a call on the API executor; completes with the fallback value if the plugin is not available
+     */
+    private static <T> CompletableFuture<T> supplyAsync(Function<BankManager, T> call, T unavailable) {
+        SimpleBank current = plugin;
+        ExecutorService currentExecutor = executor;
+        if (current == null || currentExecutor == null) {
+            return CompletableFuture.completedFuture(unavailable);
+        }
+        BankManager bank = current.getBankManager();
+        try {
+            return CompletableFuture.supplyAsync(() -> call.apply(bank), currentExecutor);
+        } catch (RejectedExecutionException e) {
+            // Disabled between the check and the call
+            return CompletableFuture.completedFuture(unavailable);
+        }
     }
 
     /**
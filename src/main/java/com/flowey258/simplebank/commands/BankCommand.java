@@ -1,28 +1,58 @@
 package com.flowey258.simplebank.commands;
 
 import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.commands.CommandPipeline.Reply;
+import com.flowey258.simplebank.data.PlayerNameIndex;
+import com.flowey258.simplebank.data.TransactionHistory;
+import com.flowey258.simplebank.economy.AccountCache;
+import com.flowey258.simplebank.economy.BankBatch;
 import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.BankStatistics;
+import com.flowey258.simplebank.economy.WalletBridge;
+import com.flowey258.simplebank.economy.WalletManager;
+import com.flowey258.simplebank.metrics.BankMetrics;
+import com.flowey258.simplebank.metrics.LatencyHistogram;
+import com.flowey258.simplebank.utils.MessageTemplate.Placeholder;
 import com.flowey258.simplebank.utils.MessageUtils;
+import com.flowey258.simplebank.utils.Messages;
+import com.flowey258.simplebank.utils.MoneyUtils;
 import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 public class BankCommand implements CommandExecutor, TabCompleter {
 
+    private static final int TOP_PAGE_SIZE = 10;
+    private static final int HISTORY_PAGE_SIZE = 10;
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+
     private final SimpleBank plugin;
     private final BankManager bankManager;
+    private final Messages messages;
+    private final PlayerNameIndex names;
+    private final CommandPipeline pipeline;
 
     public BankCommand(SimpleBank plugin) {
         this.plugin = plugin;
         this.bankManager = plugin.getBankManager();
+        this.messages = plugin.getMessages();
+        this.names = plugin.getPlayerNames();
+        this.pipeline = plugin.getCommandPipeline();
     }
 
     @Override
@@ -35,7 +65,7 @@ public class BankCommand implements CommandExecutor, TabCompleter {
         Player player = (Player) sender;
 
         if (!player.hasPermission("bank.use")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
+            player.sendMessage(messages.get("no-permission").render());
             return true;
         }
 
@@ -45,256 +75,633 @@ public class BankCommand implements CommandExecutor, TabCompleter {
         }
 
         String subCommand = args[0].toLowerCase();
+        // Wallets of another economy plugin may only be touched on the main thread
+        boolean walletOnMain = plugin.getWalletManager() == null;
 
         switch (subCommand) {
             case "balance":
             case "bal":
-                handleBalance(player, args);
-                break;
+                queue(player, "balance", false, handleBalance(player, args));
+                return true;
             case "deposit":
             case "dep":
-                handleDeposit(player, args);
-                break;
+                queue(player, "deposit", walletOnMain, handleDeposit(player, args));
+                return true;
             case "withdraw":
             case "wd":
-                handleWithdraw(player, args);
-                break;
+                queue(player, "withdraw", walletOnMain, handleWithdraw(player, args));
+                return true;
+            case "transfer":
+            case "pay":
+                queue(player, "transfer", false, handleTransfer(player, args));
+                return true;
             case "set":
-                handleSet(player, args);
-                break;
+                queue(player, "set", false, handleSet(player, args));
+                return true;
             case "reset":
-                handleReset(player, args);
-                break;
+                queue(player, "reset", false, handleReset(player, args));
+                return true;
             case "top":
-                handleTop(player);
+                queue(player, "top", false, handleTop(player, args));
+                return true;
+            case "history":
+                queue(player, "history", false, handleHistory(player, args));
+                return true;
+            case "stats":
+                queue(player, "stats", false, handleStats(player));
+                return true;
+            default:
+                break;
+        }
+
+        // The rest is quick or hands its work off by itself
+        long start = System.nanoTime();
+        String handled;
+        switch (subCommand) {
+            case "convert":
+                handleConvert(player, args);
+                handled = "convert";
+                break;
+            case "reload":
+                handleReload(player);
+                handled = "reload";
                 break;
             case "help":
             default:
                 sendHelpMessage(player);
+                handled = "help";
                 break;
         }
 
+        plugin.getMetrics().recordCommand(handled, System.nanoTime() - start);
         return true;
     }
 
-    private void handleBalance(Player player, String[] args) {
-        if (!player.hasPermission("bank.balance")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
+    /**
+     * Hands the work of a parsed command to the pipeline, or tells the player why it was turned away
+     * @param work The work, or null if parsing already answered the player
+     */
+    private void queue(Player player, String name, boolean mainThread, Consumer<Reply> work) {
+        if (work == null) {
             return;
         }
+        CommandPipeline.Admission admission = pipeline.submit(player, name, mainThread, work);
+        if (admission == CommandPipeline.Admission.RATE_LIMITED) {
+            player.sendMessage(messages.get("command-rate-limited").render());
+        } else if (admission == CommandPipeline.Admission.QUEUE_FULL) {
+            player.sendMessage(messages.get("command-queue-full").render());
+        }
+    }
+
+    private Consumer<Reply> handleBalance(Player player, String[] args) {
+        if (!player.hasPermission("bank.balance")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
+        }
 
         // Check if checking another player's balance
         if (args.length > 1 && player.hasPermission("bank.admin")) {
-            OfflinePlayer target = Bukkit.getOfflinePlayer(args[1]);
-            if (!target.hasPlayedBefore() && !target.isOnline()) {
-                player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.player-not-found")));
-                return;
+            UUID target = names.getUuid(args[1]);
+            if (target == null) {
+                player.sendMessage(messages.get("player-not-found").render());
+                return null;
             }
-            double balance = bankManager.getBankBalance(target.getUniqueId());
-            String message = plugin.getConfig().getString("messages.balance-other")
-                    .replace("{player}", target.getName())
-                    .replace("{balance}", String.format("%.2f", balance));
-            player.sendMessage(MessageUtils.colorize(message));
-        } else {
-            double balance = bankManager.getBankBalance(player.getUniqueId());
-            String message = plugin.getConfig().getString("messages.balance")
-                    .replace("{balance}", String.format("%.2f", balance));
-            player.sendMessage(MessageUtils.colorize(message));
+            return reply -> {
+                double balance = bankManager.getBankBalance(target);
+                String message = messages.get("balance-other")
+                        .with(Placeholder.PLAYER, nameOf(target))
+                        .with(Placeholder.BALANCE, balance)
+                        .render();
+                reply.send(message);
+            };
         }
+        UUID uuid = player.getUniqueId();
+        return reply -> {
+            double balance = bankManager.getBankBalance(uuid);
+            String message = messages.get("balance")
+                    .with(Placeholder.BALANCE, balance)
+                    .render();
+            reply.send(message);
+        };
     }
 
-    private void handleDeposit(Player player, String[] args) {
+    private Consumer<Reply> handleDeposit(Player player, String[] args) {
         if (!player.hasPermission("bank.deposit")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
-            return;
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
         }
 
         if (args.length < 2) {
             player.sendMessage(MessageUtils.colorize("&cUsage: /bank deposit <amount>"));
-            return;
+            return null;
         }
 
-        double amount;
-        try {
-            if (args[1].equalsIgnoreCase("all")) {
-                amount = plugin.getEconomy().getBalance(player);
-            } else {
-                amount = Double.parseDouble(args[1]);
+        // "all" is resolved when the command runs, after the player's earlier commands
+        boolean all = args[1].equalsIgnoreCase("all");
+        double parsed = 0;
+        if (!all) {
+            try {
+                parsed = Double.parseDouble(args[1]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(messages.get("invalid-amount").render());
+                return null;
+            }
+            if (parsed <= 0 || !MoneyUtils.isValidAmount(parsed)) {
+                player.sendMessage(messages.get("invalid-amount").render());
+                return null;
             }
-        } catch (NumberFormatException e) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
         }
 
-        if (amount <= 0) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
-        }
+        double requested = parsed;
+        return reply -> {
+            double amount = all ? plugin.getEconomy().getBalance(player) : requested;
+            if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) {
+                reply.send(messages.get("invalid-amount").render());
+                return;
+            }
 
-        // Check if player has enough money
-        if (plugin.getEconomy().getBalance(player) < amount) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.insufficient-funds")));
-            return;
-        }
+            // Check if player has enough money
+            if (plugin.getEconomy().getBalance(player) < amount) {
+                reply.send(messages.get("insufficient-funds").render());
+                return;
+            }
 
-        // Check bank balance limit
-        double currentBankBalance = bankManager.getBankBalance(player.getUniqueId());
-        double maxBalance = plugin.getConfig().getDouble("bank.max-balance", -1);
+            // Check bank balance limit
+            double currentBankBalance = bankManager.getBankBalance(player.getUniqueId());
+            double maxBalance = plugin.getSettings().getMaxBalance();
 
-        if (maxBalance > 0 && (currentBankBalance + amount) > maxBalance) {
-            String message = plugin.getConfig().getString("messages.bank-limit-reached")
-                    .replace("{limit}", String.format("%.2f", maxBalance));
-            player.sendMessage(MessageUtils.colorize(message));
-            return;
-        }
+            if (maxBalance > 0 && (currentBankBalance + amount) > maxBalance) {
+                String message = messages.get("bank-limit-reached")
+                        .with(Placeholder.LIMIT, maxBalance)
+                        .render();
+                reply.send(message);
+                return;
+            }
 
-        // Perform the transaction
-        plugin.getEconomy().withdrawPlayer(player, amount);
-        bankManager.addToBankBalance(player.getUniqueId(), amount);
+            // Perform the transaction
+            WalletBridge.Outcome outcome = plugin.getWalletBridge().deposit(player, amount, maxBalance);
+            if (outcome == WalletBridge.Outcome.WALLET_FAILED) {
+                reply.send(messages.get("wallet-failed").render());
+                return;
+            }
+            if (outcome == WalletBridge.Outcome.LIMIT_REACHED) {
+                String message = messages.get("bank-limit-reached")
+                        .with(Placeholder.LIMIT, maxBalance)
+                        .render();
+                reply.send(message);
+                return;
+            }
 
-        String message = plugin.getConfig().getString("messages.deposit-success")
-                .replace("{amount}", String.format("%.2f", amount))
-                .replace("{balance}", String.format("%.2f", currentBankBalance + amount));
-        player.sendMessage(MessageUtils.colorize(message));
+            String message = messages.get("deposit-success")
+                    .with(Placeholder.AMOUNT, amount)
+                    .with(Placeholder.BALANCE, bankManager.getBankBalance(player.getUniqueId()))
+                    .render();
+            reply.send(message);
+        };
     }
 
-    private void handleWithdraw(Player player, String[] args) {
+    private Consumer<Reply> handleWithdraw(Player player, String[] args) {
         if (!player.hasPermission("bank.withdraw")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
-            return;
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
         }
 
         if (args.length < 2) {
             player.sendMessage(MessageUtils.colorize("&cUsage: /bank withdraw <amount>"));
-            return;
+            return null;
         }
 
-        double amount;
-        double currentBankBalance = bankManager.getBankBalance(player.getUniqueId());
+        // "all" is resolved when the command runs, after the player's earlier commands
+        boolean all = args[1].equalsIgnoreCase("all");
+        double parsed = 0;
+        if (!all) {
+            try {
+                parsed = Double.parseDouble(args[1]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(messages.get("invalid-amount").render());
+                return null;
+            }
+            if (parsed <= 0 || !MoneyUtils.isValidAmount(parsed)) {
+                player.sendMessage(messages.get("invalid-amount").render());
+                return null;
+            }
+        }
 
-        try {
-            if (args[1].equalsIgnoreCase("all")) {
-                amount = currentBankBalance;
-            } else {
-                amount = Double.parseDouble(args[1]);
+        double requested = parsed;
+        return reply -> {
+            double currentBankBalance = bankManager.getBankBalance(player.getUniqueId());
+            double amount = all ? currentBankBalance : requested;
+            if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) {
+                reply.send(messages.get("invalid-amount").render());
+                return;
             }
-        } catch (NumberFormatException e) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
+
+            // Check if player has enough in bank
+            if (currentBankBalance < amount) {
+                reply.send(messages.get("insufficient-bank-funds").render());
+                return;
+            }
+
+            // Perform the transaction
+            WalletBridge.Outcome outcome = plugin.getWalletBridge().withdraw(player, amount);
+            if (outcome == WalletBridge.Outcome.WALLET_FAILED) {
+                reply.send(messages.get("wallet-failed").render());
+                return;
+            }
+            if (outcome == WalletBridge.Outcome.INSUFFICIENT_FUNDS) {
+                reply.send(messages.get("insufficient-bank-funds").render());
+                return;
+            }
+
+            String message = messages.get("withdraw-success")
+                    .with(Placeholder.AMOUNT, amount)
+                    .with(Placeholder.BALANCE, bankManager.getBankBalance(player.getUniqueId()))
+                    .render();
+            reply.send(message);
+        };
+    }
+
+    private Consumer<Reply> handleTransfer(Player player, String[] args) {
+        if (!player.hasPermission("bank.transfer")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
         }
 
-        if (amount <= 0) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
+        if (args.length < 3) {
+            player.sendMessage(MessageUtils.colorize("&cUsage: /bank transfer <player> <amount>"));
+            return null;
         }
 
-        // Check if player has enough in bank
-        if (currentBankBalance < amount) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.insufficient-bank-funds")));
-            return;
+        UUID target = names.getUuid(args[1]);
+        if (target == null) {
+            player.sendMessage(messages.get("player-not-found").render());
+            return null;
+        }
+        if (target.equals(player.getUniqueId())) {
+            player.sendMessage(messages.get("transfer-self").render());
+            return null;
         }
 
-        // Perform the transaction
-        bankManager.removeFromBankBalance(player.getUniqueId(), amount);
-        plugin.getEconomy().depositPlayer(player, amount);
+        double amount;
+        try {
+            amount = Double.parseDouble(args[2]);
+        } catch (NumberFormatException e) {
+            player.sendMessage(messages.get("invalid-amount").render());
+            return null;
+        }
+
+        if (amount <= 0 || !MoneyUtils.isValidAmount(amount)) {
+            player.sendMessage(messages.get("invalid-amount").render());
+            return null;
+        }
+
+        UUID uuid = player.getUniqueId();
+        String senderName = player.getName();
+        return reply -> {
+            // Both accounts change in one step; nothing passes through the wallets
+            double maxBalance = plugin.getSettings().getMaxBalance();
+            BankBatch.Outcome outcome = bankManager.transfer(uuid, target, amount, maxBalance);
+            if (outcome == BankBatch.Outcome.INSUFFICIENT_FUNDS) {
+                reply.send(messages.get("insufficient-bank-funds").render());
+                return;
+            }
+            if (outcome == BankBatch.Outcome.LIMIT_REACHED) {
+                String message = messages.get("transfer-limit-reached")
+                        .with(Placeholder.PLAYER, nameOf(target))
+                        .with(Placeholder.LIMIT, maxBalance)
+                        .render();
+                reply.send(message);
+                return;
+            }
+            if (outcome != BankBatch.Outcome.SUCCESS) {
+                reply.send(messages.get("invalid-amount").render());
+                return;
+            }
 
-        String message = plugin.getConfig().getString("messages.withdraw-success")
-                .replace("{amount}", String.format("%.2f", amount))
-                .replace("{balance}", String.format("%.2f", currentBankBalance - amount));
-        player.sendMessage(MessageUtils.colorize(message));
+            String message = messages.get("transfer-success")
+                    .with(Placeholder.AMOUNT, amount)
+                    .with(Placeholder.PLAYER, nameOf(target))
+                    .with(Placeholder.BALANCE, bankManager.getBankBalance(uuid))
+                    .render();
+            reply.send(message);
+
+            String received = messages.get("transfer-received")
+                    .with(Placeholder.AMOUNT, amount)
+                    .with(Placeholder.PLAYER, senderName)
+                    .with(Placeholder.BALANCE, bankManager.getBankBalance(target))
+                    .render();
+            reply.sendTo(target, received);
+        };
     }
 
-    private void handleSet(Player player, String[] args) {
+    private Consumer<Reply> handleSet(Player player, String[] args) {
         if (!player.hasPermission("bank.admin.set")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
-            return;
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
         }
 
         if (args.length < 3) {
             player.sendMessage(MessageUtils.colorize("&cUsage: /bank set <player> <amount>"));
-            return;
+            return null;
         }
 
-        OfflinePlayer target = Bukkit.getOfflinePlayer(args[1]);
-        if (!target.hasPlayedBefore() && !target.isOnline()) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.player-not-found")));
-            return;
+        UUID target = names.getUuid(args[1]);
+        if (target == null) {
+            player.sendMessage(messages.get("player-not-found").render());
+            return null;
         }
 
         double amount;
         try {
             amount = Double.parseDouble(args[2]);
         } catch (NumberFormatException e) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
+            player.sendMessage(messages.get("invalid-amount").render());
+            return null;
         }
 
-        if (amount < 0) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.invalid-amount")));
-            return;
+        if (amount < 0 || !MoneyUtils.isValidAmount(amount)) {
+            player.sendMessage(messages.get("invalid-amount").render());
+            return null;
         }
 
-        bankManager.setBankBalance(target.getUniqueId(), amount);
+        return reply -> {
+            bankManager.setBankBalance(target, amount);
 
-        String message = plugin.getConfig().getString("messages.admin-set")
-                .replace("{player}", target.getName())
-                .replace("{amount}", String.format("%.2f", amount));
-        player.sendMessage(MessageUtils.colorize(message));
+            String message = messages.get("admin-set")
+                    .with(Placeholder.PLAYER, nameOf(target))
+                    .with(Placeholder.AMOUNT, amount)
+                    .render();
+            reply.send(message);
+        };
     }
 
-    private void handleReset(Player player, String[] args) {
+    private Consumer<Reply> handleReset(Player player, String[] args) {
         if (!player.hasPermission("bank.admin.reset")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
-            return;
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
         }
 
         if (args.length < 2) {
             player.sendMessage(MessageUtils.colorize("&cUsage: /bank reset <player>"));
-            return;
+            return null;
         }
 
-        OfflinePlayer target = Bukkit.getOfflinePlayer(args[1]);
-        if (!target.hasPlayedBefore() && !target.isOnline()) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.player-not-found")));
-            return;
+        UUID target = names.getUuid(args[1]);
+        if (target == null) {
+            player.sendMessage(messages.get("player-not-found").render());
+            return null;
         }
 
-        bankManager.setBankBalance(target.getUniqueId(), 0);
+        return reply -> {
+            bankManager.setBankBalance(target, 0);
 
-        String message = plugin.getConfig().getString("messages.admin-reset")
-                .replace("{player}", target.getName());
-        player.sendMessage(MessageUtils.colorize(message));
+            String message = messages.get("admin-reset")
+                    .with(Placeholder.PLAYER, nameOf(target))
+                    .render();
+            reply.send(message);
+        };
     }
 
-    private void handleTop(Player player) {
+    private Consumer<Reply> handleTop(Player player, String[] args) {
         if (!player.hasPermission("bank.admin")) {
-            player.sendMessage(MessageUtils.colorize(plugin.getConfig().getString("messages.no-permission")));
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
+        }
+
+        int requested = 1;
+        if (args.length > 1) {
+            try {
+                requested = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(messages.get("top-usage").render());
+                return null;
+            }
+        }
+
+        UUID uuid = player.getUniqueId();
+        int requestedPage = requested;
+        return reply -> {
+            int totalPages = Math.max(1, (bankManager.getAccountCount() + TOP_PAGE_SIZE - 1) / TOP_PAGE_SIZE);
+            int page = Math.max(1, Math.min(requestedPage, totalPages));
+            int offset = (page - 1) * TOP_PAGE_SIZE;
+            List<BankManager.BankEntry> topBalances = bankManager.getTopBalances(offset, TOP_PAGE_SIZE);
+
+            reply.send(messages.get("top-header")
+                    .with(Placeholder.PAGE, String.valueOf(page))
+                    .with(Placeholder.PAGES, String.valueOf(totalPages))
+                    .render());
+            for (int i = 0; i < topBalances.size(); i++) {
+                BankManager.BankEntry entry = topBalances.get(i);
+                reply.send(messages.get("top-entry")
+                        .with(Placeholder.RANK, String.valueOf(offset + i + 1))
+                        .with(Placeholder.PLAYER, nameOf(entry.getUuid()))
+                        .with(Placeholder.BALANCE, entry.getBalance())
+                        .render());
+            }
+
+            int rank = bankManager.getRank(uuid);
+            if (rank > 0) {
+                reply.send(messages.get("top-rank")
+                        .with(Placeholder.RANK, String.valueOf(rank))
+                        .render());
+            }
+        };
+    }
+
+    private Consumer<Reply> handleHistory(Player player, String[] args) {
+        if (!player.hasPermission("bank.history")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
+        }
+
+        int requested = 1;
+        if (args.length > 1) {
+            try {
+                requested = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(messages.get("history-usage").render());
+                return null;
+            }
+        }
+
+        UUID uuid = player.getUniqueId();
+        int requestedPage = requested;
+        return reply -> {
+            long size = bankManager.getHistorySize(uuid);
+            long totalPages = Math.max(1, (size + HISTORY_PAGE_SIZE - 1) / HISTORY_PAGE_SIZE);
+            long page = Math.max(1, Math.min(requestedPage, totalPages));
+            List<TransactionHistory.Entry> entries = bankManager.getHistory(uuid, (page - 1) * HISTORY_PAGE_SIZE,
+                    HISTORY_PAGE_SIZE);
+
+            reply.send(messages.get("history-header")
+                    .with(Placeholder.PAGE, String.valueOf(page))
+                    .with(Placeholder.PAGES, String.valueOf(totalPages))
+                    .render());
+            if (entries.isEmpty()) {
+                reply.send(messages.get("history-empty").render());
+            }
+            for (TransactionHistory.Entry entry : entries) {
+                String type = entry.getType() != null ? entry.getType().name().toLowerCase(Locale.ROOT) : "other";
+                reply.send(messages.get(entry.getAmount() < 0 ? "history-debit" : "history-credit")
+                        .with(Placeholder.TIME, HISTORY_TIME.format(Instant.ofEpochMilli(entry.getTimestamp())))
+                        .with(Placeholder.TYPE, type)
+                        .with(Placeholder.AMOUNT, Math.abs(entry.getAmount()))
+                        .with(Placeholder.BALANCE, entry.getBalance())
+                        .render());
+            }
+        };
+    }
+
+    private Consumer<Reply> handleStats(Player player) {
+        if (!player.hasPermission("bank.admin")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return null;
+        }
+
+        return reply -> {
+            BankMetrics metrics = plugin.getMetrics();
+            BankStatistics statistics = bankManager.getStatistics();
+            reply.send(messages.get("stats-header").render());
+            reply.send(messages.get("stats-accounts")
+                    .with(Placeholder.COUNT, String.valueOf(statistics.getAccountCount()))
+                    .with(Placeholder.TOTAL, bankManager.getTotalBankMoney())
+                    .with(Placeholder.AVERAGE, statistics.getMean())
+                    .render());
+            reply.send(messages.get("stats-transactions")
+                    .with(Placeholder.COUNT, String.valueOf(metrics.getTransactionCount()))
+                    .with(Placeholder.RATE, metrics.getTransactionsPerSecond())
+                    .render());
+            reply.send(messages.get("stats-saves")
+                    .with(Placeholder.PENDING, String.valueOf(metrics.getPendingSaves()))
+                    .with(Placeholder.STORAGE, plugin.getDataManager().getStorage().getName())
+                    .with(Placeholder.QUEUED, String.valueOf(pipeline.getQueuedCount()))
+                    .render());
+            AccountCache cache = bankManager.getAccountCache();
+            if (cache.isBounded()) {
+                reply.send(messages.get("stats-cache")
+                        .with(Placeholder.COUNT, String.valueOf(cache.getResidentCount()))
+                        .with(Placeholder.MAX, String.valueOf(cache.getMaxAccounts()))
+                        .with(Placeholder.LOADS, String.valueOf(cache.getLoadCount()))
+                        .with(Placeholder.EVICTIONS, String.valueOf(cache.getEvictionCount()))
+                        .render());
+            }
+            WalletManager wallets = plugin.getWalletManager();
+            if (wallets != null) {
+                reply.send(messages.get("stats-wallets")
+                        .with(Placeholder.COUNT, String.valueOf(wallets.getWalletCount()))
+                        .with(Placeholder.TOTAL, wallets.getTotalMoney())
+                        .with(Placeholder.PENDING, String.valueOf(wallets.getDataManager().getPendingSaveCount()))
+                        .render());
+            }
+            reply.send(messages.get("stats-flushes")
+                    .with(Placeholder.COUNT, String.valueOf(metrics.getFlushCount()))
+                    .with(Placeholder.FAILED, String.valueOf(metrics.getFlushFailures()))
+                    .with(Placeholder.MEAN, metrics.getFlushMeanMillis())
+                    .with(Placeholder.P99, metrics.getFlushP99Millis())
+                    .with(Placeholder.MAX, metrics.getFlushMaxMillis())
+                    .render());
+            reply.send(messages.get("stats-interest")
+                    .with(Placeholder.COUNT, String.valueOf(metrics.getInterestRuns()))
+                    .with(Placeholder.LAST, metrics.getInterestLastRunMillis())
+                    .with(Placeholder.ACCOUNTS, String.valueOf(metrics.getInterestAccountsProcessed()))
+                    .with(Placeholder.PAYMENTS, String.valueOf(metrics.getInterestCredits()))
+                    .render());
+            for (Map.Entry<String, LatencyHistogram> entry : metrics.getCommandLatency().entrySet()) {
+                LatencyHistogram latency = entry.getValue();
+                reply.send(messages.get("stats-command")
+                        .with(Placeholder.COMMAND, entry.getKey())
+                        .with(Placeholder.COUNT, String.valueOf(latency.getCount()))
+                        .with(Placeholder.P50, latency.getPercentile(50) / 1_000_000.0)
+                        .with(Placeholder.P99, latency.getPercentile(99) / 1_000_000.0)
+                        .render());
+            }
+        };
+    }
+
+    private void handleConvert(Player player, String[] args) {
+        if (!player.hasPermission("bank.admin")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return;
+        }
+
+        if (args.length < 2 || !(args[1].equalsIgnoreCase("yaml") || args[1].equalsIgnoreCase("binary"))) {
+            player.sendMessage(MessageUtils.colorize("&cUsage: /bank convert <yaml|binary>"));
             return;
         }
 
-        List<BankManager.BankEntry> topBalances = bankManager.getTopBalances(10);
+        String type = args[1].toUpperCase();
+        UUID uuid = player.getUniqueId();
+        player.sendMessage(MessageUtils.colorize("&7Converting bank data to " + type + "..."));
+        plugin.getDataManager().convertData(type).whenComplete((count, error) -> {
+            if (!plugin.isEnabled()) {
+                return;
+            }
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                Player online = plugin.getServer().getPlayer(uuid);
+                if (online == null) {
+                    return;
+                }
+                if (error != null) {
+                    online.sendMessage(MessageUtils.colorize("&cConversion failed: " + error.getMessage()));
+                } else {
+                    online.sendMessage(MessageUtils.colorize(String.format(
+                            "&7Converted &f%d &7accounts. Set &fstorage.type: %s &7and restart to use it.",
+                            count, type)));
+                }
+            });
+        });
+    }
 
-        player.sendMessage(MessageUtils.colorize("&e&l=== Top Bank Balances ==="));
-        for (int i = 0; i < topBalances.size(); i++) {
-            BankManager.BankEntry entry = topBalances.get(i);
-            OfflinePlayer p = Bukkit.getOfflinePlayer(entry.getUuid());
-            player.sendMessage(MessageUtils.colorize(String.format("&7%d. &f%s &7- &e$%.2f",
-                    i + 1, p.getName(), entry.getBalance())));
+    private void handleReload(Player player) {
+        if (!player.hasPermission("bank.admin.reload")) {
+            player.sendMessage(messages.get("no-permission").render());
+            return;
         }
+
+        UUID uuid = player.getUniqueId();
+        // Completes on the main thread
+        plugin.reloadSettings().whenComplete((ignored, error) -> {
+            Player online = plugin.getServer().getPlayer(uuid);
+            if (online == null) {
+                return;
+            }
+            if (error != null) {
+                online.sendMessage(MessageUtils.colorize("&cReload failed: " + error.getMessage()));
+            } else {
+                online.sendMessage(messages.get("reload-success").render());
+            }
+        });
+    }
+
+    /**
+     * @return The player's name from the name index, or their UUID if they have not joined since it was started
+     */
+    private String nameOf(UUID uuid) {
+        String name = names.getName(uuid);
+        return name != null ? name : uuid.toString();
     }
 
     private void sendHelpMessage(Player player) {
-        player.sendMessage(MessageUtils.colorize("&e&l=== Bank Commands ==="));
-        player.sendMessage(MessageUtils.colorize("&7/bank balance &f- Check your bank balance"));
-        player.sendMessage(MessageUtils.colorize("&7/bank deposit <amount|all> &f- Deposit money to bank"));
-        player.sendMessage(MessageUtils.colorize("&7/bank withdraw <amount|all> &f- Withdraw money from bank"));
+        player.sendMessage(messages.get("help-header").render());
+        player.sendMessage(messages.get("help-balance").render());
+        player.sendMessage(messages.get("help-deposit").render());
+        player.sendMessage(messages.get("help-withdraw").render());
+        if (player.hasPermission("bank.history")) {
+            player.sendMessage(messages.get("help-history").render());
+        }
+        if (player.hasPermission("bank.transfer")) {
+            player.sendMessage(messages.get("help-transfer").render());
+        }
 
         if (player.hasPermission("bank.admin")) {
-            player.sendMessage(MessageUtils.colorize("&c&lAdmin Commands:"));
-            player.sendMessage(MessageUtils.colorize("&7/bank balance <player> &f- Check player's balance"));
-            player.sendMessage(MessageUtils.colorize("&7/bank set <player> <amount> &f- Set player's balance"));
-            player.sendMessage(MessageUtils.colorize("&7/bank reset <player> &f- Reset player's balance"));
-            player.sendMessage(MessageUtils.colorize("&7/bank top &f- View top balances"));
+            player.sendMessage(messages.get("help-admin").render());
+            player.sendMessage(messages.get("help-admin-balance").render());
+            player.sendMessage(messages.get("help-admin-set").render());
+            player.sendMessage(messages.get("help-admin-reset").render());
+            player.sendMessage(messages.get("help-admin-top").render());
+            player.sendMessage(messages.get("help-admin-stats").render());
+            player.sendMessage(messages.get("help-admin-convert").render());
+            player.sendMessage(messages.get("help-admin-reload").render());
         }
     }
 
@@ -303,9 +710,10 @@ public class BankCommand implements CommandExecutor, TabCompleter {
         List<String> completions = new ArrayList<>();
 
         if (args.length == 1) {
-            List<String> subCommands = Arrays.asList("balance", "deposit", "withdraw", "help");
+            List<String> subCommands = Arrays.asList("balance", "deposit", "withdraw", "transfer", "history", "help");
             if (sender.hasPermission("bank.admin")) {
-                subCommands = Arrays.asList("balance", "deposit", "withdraw", "set", "reset", "top", "help");
+                subCommands = Arrays.asList("balance", "deposit", "withdraw", "transfer", "history", "set", "reset", "top",
+                        "stats", "convert", "reload", "help");
             }
 
             for (String subCommand : subCommands) {
@@ -319,7 +727,13 @@ public class BankCommand implements CommandExecutor, TabCompleter {
                 completions.add("100");
                 completions.add("1000");
                 completions.add("10000");
-            } else if (sender.hasPermission("bank.admin") &&
+            } else if (args[0].equalsIgnoreCase("convert") && sender.hasPermission("bank.admin")) {
+                for (String type : Arrays.asList("yaml", "binary")) {
+                    if (type.startsWith(args[1].toLowerCase())) {
+                        completions.add(type);
+                    }
+                }
+            } else if (args[0].equalsIgnoreCase("transfer") || sender.hasPermission("bank.admin") &&
                     (args[0].equalsIgnoreCase("balance") || args[0].equalsIgnoreCase("set") || args[0].equalsIgnoreCase("reset"))) {
                 // Add online player names
                 for (Player player : Bukkit.getOnlinePlayers()) {
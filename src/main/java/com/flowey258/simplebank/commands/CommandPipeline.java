@@ -0,0 +1,313 @@
+package com.flowey258.simplebank.commands;
+
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.utils.BankSettings;
+import com.flowey258.simplebank.utils.UuidLongMap;
+import com.flowey258.simplebank.utils.WorkerExecutors;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Runs the work of bank commands off the main thread.
+ *
+ * Commands are parsed and permission-checked on the main thread, then their work is queued
+ * here. Each player has their own lane: their commands run one after another in the order they
+ * were sent, while different players' commands run in parallel on worker threads. Replies are
+ * collected while the work runs and sent on the main thread afterwards.
+ *
+ * Work that has to stay on the main thread, such as calls into another economy plugin, takes
+ * its turn in the lane like any other and is then handed to the scheduler.
+ *
+ * A player who sends commands faster than {@code commands.rate-limit} allows, or who already
+ * has {@code commands.max-queued-per-player} commands waiting, is turned away, as is everyone
+ * once {@code commands.max-queued} commands are waiting in total.
+ *
+ * When the plugin disables, commands already queued still run and answer: {@link #shutdown()}
+ * waits for every lane and runs the main thread's share itself, as the scheduler no longer does.
+ */
+public class CommandPipeline {
+
+    /**
+     * Whether a command was queued
+     */
+    public enum Admission {
+        ACCEPTED,
+        // The player sent commands faster than the rate limit
+        RATE_LIMITED,
+        // Too many commands of the player, or of everyone, are waiting
+        QUEUE_FULL,
+        // The plugin is disabling
+        CLOSED
+    }
+
+    /**
+     * Collects the messages a command sends, so they can be delivered on the main thread
+     */
+    public static final class Reply {
+        private final UUID sender;
+        private final List<UUID> receivers = new ArrayList<>(2);
+        private final List<String> messages = new ArrayList<>(2);
+
+        private Reply(UUID sender) {
+            this.sender = sender;
+        }
+
+        /**
+         * Sends a message to the player who ran the command
+         */
+        public void send(String message) {
+            sendTo(sender, message);
+        }
+
+        /**
+         * Sends a message to another player, if they are online once the command has run
+         */
+        public void sendTo(UUID player, String message) {
+            receivers.add(player);
+            messages.add(message);
+        }
+    }
+
+    private static final class Lane {
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private int queued;
+    }
+
+    /**
+     * Work handed to the scheduler that {@link #shutdown()} runs instead if it is still waiting then
+     */
+    private final class MainThreadTask implements Runnable {
+        private final Runnable work;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private MainThreadTask(Runnable work) {
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                mainThreadWork.remove(this);
+                work.run();
+            }
+        }
+    }
+
+    private final SimpleBank plugin;
+    private final ExecutorService executor;
+    private final Map<UUID, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Theoretical arrival time per player for the rate limit, in nanos since the pipeline started
+    private final UuidLongMap arrivals = new UuidLongMap(128);
+    private final long origin = System.nanoTime();
+    // Main thread work that has not started yet
+    private final BlockingQueue<MainThreadTask> mainThreadWork = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    public CommandPipeline(SimpleBank plugin) {
+        this.plugin = plugin;
+        this.executor = WorkerExecutors.create("SimpleBank-Command", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Queues the work of a command; called on the main thread
+     * @param player The player who ran the command
+     * @param name The subcommand, for the latency metrics
+     * @param mainThread True if the work has to run on the main thread
+     * @param work The work; sends its messages through the reply
+     * @return ACCEPTED, or why the command was turned away
+     */
+    public Admission submit(Player player, String name, boolean mainThread, Consumer<Reply> work) {
+        if (closed) {
+            return Admission.CLOSED;
+        }
+        UUID uuid = player.getUniqueId();
+        BankSettings settings = plugin.getSettings();
+        if (!tryAcquire(uuid, settings)) {
+            return Admission.RATE_LIMITED;
+        }
+        if (queued.incrementAndGet() > settings.getMaxQueuedCommands()) {
+            queued.decrementAndGet();
+            return Admission.QUEUE_FULL;
+        }
+
+        // Only the lane is updated under the map's lock; chaining could run the finish inline and re-enter it
+        CompletableFuture<Void> next = new CompletableFuture<>();
+        List<CompletableFuture<Void>> previous = new ArrayList<>(1);
+        lanes.compute(uuid, (key, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+            } else if (lane.queued >= settings.getMaxQueuedPerPlayer()) {
+                return lane;
+            }
+            lane.queued++;
+            previous.add(lane.tail);
+            lane.tail = next;
+            return lane;
+        });
+        if (previous.isEmpty()) {
+            queued.decrementAndGet();
+            return Admission.QUEUE_FULL;
+        }
+
+        // Runs once the previous command of this player has finished, successful or not
+        previous.get(0)
+                .thenComposeAsync(ignored -> run(uuid, name, mainThread, work), executor)
+                .whenComplete((ignored, error) -> {
+                    finished(uuid);
+                    next.complete(null);
+                });
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Forgets a player's rate limit; called when they leave
+     */
+    public void onQuit(UUID uuid) {
+        arrivals.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return The number of commands waiting or running
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Stops accepting commands and waits up to 5 seconds for the queued ones to finish, so their changes
+     * get saved. Called on the main thread while the plugin disables; work and replies that need the
+     * main thread run here in the meantime, since the scheduler does not run them any more.
+     */
+    public void shutdown() {
+        closed = true;
+        // Only submit() adds to a lane, and it runs on the main thread and now sees closed, so nothing is
+        // queued behind these tails any more. Workers still remove lanes in finished(), but only once their
+        // last command is done, so a lane the iteration misses has nothing left to wait for.
+        List<CompletableFuture<Void>> tails = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            tails.add(lane.tail);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(tails.toArray(new CompletableFuture[0]));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            while (!all.isDone()) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    plugin.getLogger().warning("Timed out waiting for " + queued.get() + " bank commands to finish.");
+                    break;
+                }
+                MainThreadTask task = mainThreadWork.poll(Math.min(left, TimeUnit.MILLISECONDS.toNanos(10)),
+                        TimeUnit.NANOSECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Replies of the last commands
+        for (MainThreadTask task; (task = mainThreadWork.poll()) != null; ) {
+            task.run();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Generic cell rate algorithm: every command pushes the player's arrival time one interval
+     * further, and a command arriving more than the burst ahead of it is refused.
+     * Only called on the main thread, so the read and the write cannot interleave.
+     */
+    private boolean tryAcquire(UUID uuid, BankSettings settings) {
+        double perSecond = settings.getCommandsPerSecond();
+        if (perSecond <= 0) {
+            return true;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long interval = (long) (1_000_000_000L / perSecond);
+        long now = System.nanoTime() - origin + 1;
+        long start = Math.max(arrivals.get(msb, lsb), now);
+        if (start - now > interval * (settings.getCommandBurst() - 1)) {
+            return false;
+        }
+        arrivals.put(msb, lsb, start + interval, 0);
+        return true;
+    }
+
+    private CompletableFuture<Void> run(UUID uuid, String name, boolean mainThread, Consumer<Reply> work) {
+        if (!mainThread) {
+            deliverLater(execute(uuid, name, work));
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        runOnMainThread(() -> {
+            try {
+                deliver(execute(uuid, name, work));
+            } finally {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    private void runOnMainThread(Runnable work) {
+        MainThreadTask task = new MainThreadTask(work);
+        mainThreadWork.add(task);
+        if (closed) {
+            return;
+        }
+        try {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        } catch (RuntimeException e) {
+            // The plugin is disabling, shutdown() runs it
+        }
+    }
+
+    private Reply execute(UUID uuid, String name, Consumer<Reply> work) {
+        Reply reply = new Reply(uuid);
+        long start = System.nanoTime();
+        try {
+            work.accept(reply);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Error running /bank " + name + "!", e);
+        }
+        plugin.getMetrics().recordCommand(name, System.nanoTime() - start);
+        return reply;
+    }
+
+    private void deliverLater(Reply reply) {
+        if (!reply.messages.isEmpty()) {
+            runOnMainThread(() -> deliver(reply));
+        }
+    }
+
+    private void deliver(Reply reply) {
+        for (int i = 0; i < reply.messages.size(); i++) {
+            Player online = plugin.getServer().getPlayer(reply.receivers.get(i));
+            if (online != null) {
+                online.sendMessage(reply.messages.get(i));
+            }
+        }
+    }
+
+    private void finished(UUID uuid) {
+        queued.decrementAndGet();
+        lanes.computeIfPresent(uuid, (key, lane) -> --lane.queued == 0 ? null : lane);
+    }
+}
@@ -0,0 +1,178 @@
+package com.flowey258.simplebank.data;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A place bank balances are persisted to.
+ *
+ * Implementations are driven by {@link DataManager}: writes always arrive on its
+ * single I/O thread, reads may come from any thread.
+ */
+public interface BankStorage {
+
+    /**
+     * Receives balances as they are loaded
+     */
+    interface BalanceConsumer {
+        void accept(long mostSigBits, long leastSigBits, double balance);
+    }
+
+    /**
+     * Applies a change another server made to a shared account to this server's balance
+     */
+    interface RemoteChange {
+        /**
+         * @param delta The amount the stored balance changed by, in minor units
+         */
+        void apply(long mostSigBits, long leastSigBits, long delta);
+    }
+
+    /**
+     * Opens the storage, creating files or tables as needed
+     */
+    void open() throws IOException;
+
+    /**
+     * Load every account with a positive balance
+     * @return The stored balances
+     */
+    Map<UUID, Double> loadAll() throws IOException;
+
+    /**
+     * Stream every account with a positive balance, without collecting them in a map first.
+     * The consumer may be called from several threads at once.
+     * @param consumer Receives each stored balance
+     */
+    default void loadAll(BalanceConsumer consumer) throws IOException {
+        for (Map.Entry<UUID, Double> entry : loadAll().entrySet()) {
+            consumer.accept(entry.getKey().getMostSignificantBits(),
+                    entry.getKey().getLeastSignificantBits(), entry.getValue());
+        }
+    }
+
+    /**
+     * Load a single account
+     * @param uuid The player's UUID
+     * @return The stored balance, or 0 if there is none
+     */
+    double load(UUID uuid) throws IOException;
+
+    /**
+     * Called on the I/O thread right before pending changes are collected for {@link #saveBatch(Map)}
+     */
+    default void prepareSave() throws IOException {
+    }
+
+    /**
+     * Persist a batch of balances. A balance of 0 or less removes the account.
+     * @param balances The latest balance of every changed account
+     * @throws PartialSaveException If only some of the accounts were written
+     */
+    void saveBatch(Map<UUID, Double> balances) throws IOException;
+
+    /**
+     * Stores an {@link IntentLog} checkpoint with the next balances made durable, by {@link #saveBatch},
+     * {@link #sync()} or {@link #close()}. Called with every change recorded up to the checkpoint
+     * already drained or recorded, so the write that stores it also stores those changes.
+     * Storages that cannot write it atomically with the balances keep the default and store nothing.
+     * @param checkpoint The last intent log generation whose bank changes are in those balances
+     */
+    default void setCheckpoint(long checkpoint) {
+    }
+
+    /**
+     * Get the checkpoint stored with the balances, as read when the storage opened
+     * @return The last intent log generation already in the stored balances, or 0 if none is stored
+     */
+    default long getCheckpoint() {
+        return 0;
+    }
+
+    /**
+     * Check whether the storage itself holds every account in memory, so keeping fewer
+     * accounts in memory elsewhere saves nothing
+     * @return True if the stored balances are all in memory
+     */
+    default boolean holdsEveryAccount() {
+        return false;
+    }
+
+    /**
+     * Check whether other servers change the stored accounts too
+     * @return True if changes that take money out must go through {@link #spend}
+     */
+    default boolean isShared() {
+        return false;
+    }
+
+    /**
+     * Runs a change that may take money out of shared accounts. The stored accounts are locked and
+     * brought up to date first, so the change's balance checks hold against every server's changes,
+     * and its result is stored before anyone else can touch them. Called on the thread making the change.
+     * @param keys The most and least significant bits of each account the change touches, one after the other
+     * @param keyCount The number of accounts in the array
+     * @param remote Applies other servers' changes to this server's balances before the change runs
+     * @param change Makes the change, with the same {@link #recordTransaction} calls as any other change
+     * @return False if the stored accounts could not be locked; the change did not run
+     */
+    default boolean spend(long[] keys, int keyCount, RemoteChange remote, Runnable change) {
+        change.run();
+        return true;
+    }
+
+    /**
+     * Applies the changes other servers made to a shared account since this server last read it
+     * @param remote Applies the changes to this server's balance
+     */
+    default void refresh(long mostSigBits, long leastSigBits, RemoteChange remote) throws IOException {
+    }
+
+    /**
+     * Record a single balance change as it happens. Called on the thread making the change,
+     * so implementations must only buffer here.
+     */
+    default void recordTransaction(long mostSigBits, long leastSigBits, double delta, double newBalance,
+                                   TransactionType type) {
+    }
+
+    /**
+     * Run changes whose {@link #recordTransaction} calls must survive a crash together or not at all.
+     * Called on the thread making the changes, with the accounts involved locked.
+     * @param records Makes the changes, recording each one
+     */
+    default void recordAtomically(Runnable records) {
+        records.run();
+    }
+
+    /**
+     * Get how often {@link #sync()} should run, for storages that buffer individual transactions
+     * @return The interval in milliseconds, or 0 if this storage does not need syncing
+     */
+    default long getSyncIntervalMillis() {
+        return 0;
+    }
+
+    /**
+     * Make buffered transactions durable
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Check whether the storage wants a full save earlier than the auto-save interval
+     * @return True if {@link #saveBatch(Map)} should run soon
+     */
+    default boolean isSaveDue() {
+        return false;
+    }
+
+    void close() throws IOException;
+
+    /**
+     * Get the name shown in logs
+     * @return The storage name
+     */
+    String getName();
+}
@@ -0,0 +1,284 @@
+package com.flowey258.simplebank.data;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Stores balances in bankdata.bin, a compact binary snapshot.
+ *
+ * A 40 byte header (magic, version, record count, minor units per currency unit, a CRC32 of the
+ * records, reserved and the intent log checkpoint) is followed by fixed 24 byte records of
+ * (uuid most, uuid least, balance in minor units), sorted by UUID. The file is memory-mapped for
+ * reading, so single lookups are a binary search and a full load parses records in parallel. Saves
+ * merge the sorted changes into the current file in one sequential pass, writing a temporary file
+ * that is renamed into place. Version 1 files, without the checkpoint, are still read.
+ */
+public class BinaryBankStorage implements BankStorage {
+
+    public static final int HEADER_SIZE = 40;
+    public static final int RECORD_SIZE = 24;
+
+    private static final int MAGIC = 0x5342534E; // "SBSN"
+    private static final int VERSION = 2;
+    // Version 1 had no checkpoint
+    private static final int V1_HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    private final File dataFile;
+    private final Logger logger;
+
+    // Replaced as a whole after every save so readers always see one consistent file
+    private volatile Snapshot snapshot = new Snapshot(ByteBuffer.allocate(0), 0);
+    private long checkpoint;
+
+    private static final class Snapshot {
+        private final ByteBuffer records;
+        private final int count;
+
+        private Snapshot(ByteBuffer records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+
+        private long msb(int index) {
+            return records.getLong(index * RECORD_SIZE);
+        }
+
+        private long lsb(int index) {
+            return records.getLong(index * RECORD_SIZE + 8);
+        }
+
+        private long balance(int index) {
+            return records.getLong(index * RECORD_SIZE + 16);
+        }
+    }
+
+    public BinaryBankStorage(File dataFile, Logger logger) {
+        this.dataFile = dataFile;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (!dataFile.exists()) {
+            dataFile.getParentFile().mkdirs();
+            snapshot = new Snapshot(ByteBuffer.allocate(0), 0);
+            checkpoint = 0;
+            write(new ArrayList<>(), new HashMap<>());
+            return;
+        }
+        snapshot = map(dataFile);
+    }
+
+    @Override
+    public Map<UUID, Double> loadAll() {
+        Map<UUID, Double> data = new HashMap<>();
+        Snapshot current = snapshot;
+        for (int i = 0; i < current.count; i++) {
+            data.put(new UUID(current.msb(i), current.lsb(i)), MoneyUtils.toMajor(current.balance(i)));
+        }
+        return data;
+    }
+
+    @Override
+    public void loadAll(BalanceConsumer consumer) {
+        Snapshot current = snapshot;
+        IntStream.range(0, current.count).parallel().forEach(i ->
+                consumer.accept(current.msb(i), current.lsb(i), MoneyUtils.toMajor(current.balance(i))));
+    }
+
+    @Override
+    public double load(UUID uuid) {
+        Snapshot current = snapshot;
+        int index = find(current, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        return index >= 0 ? MoneyUtils.toMajor(current.balance(index)) : 0.0;
+    }
+
+    @Override
+    public synchronized void saveBatch(Map<UUID, Double> balances) throws IOException {
+        if (balances.isEmpty()) {
+            return;
+        }
+        List<UUID> changed = new ArrayList<>(balances.keySet());
+        changed.sort(BinaryBankStorage::compare);
+        write(changed, balances);
+    }
+
+    @Override
+    public synchronized void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getName() {
+        return "BINARY";
+    }
+
+    /**
+     * Merges the sorted changes into the current records and writes the result
+     */
+    private void write(List<UUID> changed, Map<UUID, Double> balances) throws IOException {
+        Snapshot current = snapshot;
+        File tempFile = new File(dataFile.getParentFile(), dataFile.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * WRITE_BUFFER_RECORDS);
+
+            int old = 0;
+            int next = 0;
+            while (old < current.count || next < changed.size()) {
+                long msb;
+                long lsb;
+                long balance;
+                int order = old == current.count ? 1
+                        : next == changed.size() ? -1
+                        : compare(current.msb(old), current.lsb(old),
+                        changed.get(next).getMostSignificantBits(), changed.get(next).getLeastSignificantBits());
+                if (order < 0) {
+                    msb = current.msb(old);
+                    lsb = current.lsb(old);
+                    balance = current.balance(old++);
+                } else {
+                    UUID uuid = changed.get(next++);
+                    msb = uuid.getMostSignificantBits();
+                    lsb = uuid.getLeastSignificantBits();
+                    Double amount = balances.get(uuid);
+                    balance = amount != null && amount > 0 ? MoneyUtils.toMinor(amount) : 0;
+                    if (order == 0) {
+                        old++;
+                    }
+                }
+                if (balance <= 0) {
+                    continue;
+                }
+
+                buffer.putLong(msb).putLong(lsb).putLong(balance);
+                count++;
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer, crc);
+                }
+            }
+            drain(channel, buffer, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(MoneyUtils.SCALE)
+                    .putInt((int) crc.getValue()).putInt(0).putLong(checkpoint).flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+
+        DurableFiles.moveAtomically(tempFile, dataFile);
+        snapshot = map(dataFile);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps a snapshot file, checks its header and checksum and reads its checkpoint
+     */
+    private Snapshot map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < V1_HEADER_SIZE) {
+                throw new IOException(file.getName() + " is too short to be a bank snapshot");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException(file.getName() + " is not a bank snapshot");
+            }
+            int headerSize;
+            if (data.getInt(4) == VERSION) {
+                headerSize = HEADER_SIZE;
+            } else if (data.getInt(4) == 1) {
+                headerSize = V1_HEADER_SIZE;
+            } else {
+                throw new IOException(file.getName() + " has unsupported version " + data.getInt(4));
+            }
+            if (size < headerSize) {
+                throw new IOException(file.getName() + " is too short to be a bank snapshot");
+            }
+            checkpoint = headerSize == HEADER_SIZE ? data.getLong(32) : 0;
+            long count = data.getLong(8);
+            if (data.getLong(16) != MoneyUtils.SCALE) {
+                throw new IOException(file.getName() + " was written with " + data.getLong(16)
+                        + " minor units per currency unit, expected " + MoneyUtils.SCALE);
+            }
+            if (count < 0 || headerSize + count * RECORD_SIZE != size || count > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException(file.getName() + " is truncated or has trailing data");
+            }
+
+            ByteBuffer records = data.slice(headerSize, (int) (count * RECORD_SIZE));
+            CRC32 crc = new CRC32();
+            crc.update(records.duplicate());
+            if ((int) crc.getValue() != data.getInt(24)) {
+                throw new IOException(file.getName() + " failed its checksum, the file is corrupt");
+            }
+            logger.fine("Mapped " + count + " accounts from " + file.getName());
+            return new Snapshot(records, (int) count);
+        }
+    }
+
+    private static int find(Snapshot snapshot, long msb, long lsb) {
+        int low = 0;
+        int high = snapshot.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(snapshot.msb(mid), snapshot.lsb(mid), msb, lsb);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(UUID a, UUID b) {
+        return compare(a.getMostSignificantBits(), a.getLeastSignificantBits(),
+                b.getMostSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    private static int compare(long msbA, long lsbA, long msbB, long lsbB) {
+        int order = Long.compare(msbA, msbB);
+        return order != 0 ? order : Long.compare(lsbA, lsbB);
+    }
+}
@@ -0,0 +1,108 @@
+package com.flowey258.simplebank.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small bounded JDBC connection pool.
+ * At most {@code maxSize} connections exist at once; borrowers wait for a free one.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final Properties properties;
+    private final BlockingQueue<Connection> idle;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, Properties properties, int maxSize, long timeoutMillis) {
+        this.url = url;
+        this.properties = properties;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.permits = new Semaphore(maxSize, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Borrow a connection. It must be given back with {@link #release(Connection)}.
+     * @return An open connection with auto-commit enabled
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            Connection connection = idle.poll();
+            if (connection != null && connection.isValid(1)) {
+                return connection;
+            }
+            closeQuietly(connection);
+            return DriverManager.getConnection(url, properties);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give a borrowed connection back to the pool
+     */
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (closed || connection.isClosed()) {
+                closeQuietly(connection);
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (!idle.offer(connection)) {
+                closeQuietly(connection);
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Already broken, nothing left to clean up
+        }
+    }
+}
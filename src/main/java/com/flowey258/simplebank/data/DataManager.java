@@ -1,120 +1,633 @@
 package com.flowey258.simplebank.data;
 
 import com.flowey258.simplebank.SimpleBank;
-import org.bukkit.configuration.file.FileConfiguration;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 
 public class DataManager {
 
     private final SimpleBank plugin;
-    private final File dataFile;
-    private FileConfiguration dataConfig;
-    private final Map<UUID, Double> pendingSaves;
+    private final BankStorage storage;
 
-    public DataManager(SimpleBank plugin) {
+    // Marks an emptied account in the dirty set, since 0 means "not dirty" there
+    private static final long REMOVED = -1;
+
+    // Dirty set: latest balance (in minor units) per account that still has to reach disk
+    private final UuidLongMap pendingSaves;
+    private final ScheduledExecutorService ioExecutor;
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    private final Object saveLock = new Object();
+    // Held shared while changes that belong together are recorded, exclusively while the dirty set is drained
+    private final ReentrantReadWriteLock drainLock = new ReentrantReadWriteLock();
+    private final int flushThreshold;
+    private final long autoSaveSeconds;
+    private volatile boolean batchInProgress;
+    // Only for bank balances; null for other balances such as wallets
+    private final IntentLog intentLog;
+    private List<IntentLog.Unfinished> unfinishedIntents = new ArrayList<>();
+
+    /**
+     * Opens the storage configured in storage.type
+     * @throws IOException If that storage cannot be opened. Nothing falls back to another storage:
+     * on a network sharing one database, a local file would serve stale balances and never write them back.
+     */
+    public DataManager(SimpleBank plugin) throws IOException {
         this.plugin = plugin;
-        this.dataFile = new File(plugin.getDataFolder(), "bankdata.yml");
-        this.pendingSaves = new HashMap<>();
+        this.pendingSaves = new UuidLongMap(1024);
+        this.flushThreshold = Math.max(1, plugin.getConfig().getInt("storage.flush-threshold", 500));
+        // storage.auto-save is in minutes; fractions are allowed for busy servers
+        this.autoSaveSeconds = Math.round(plugin.getConfig().getDouble("storage.auto-save", 5) * 60);
+
+        long start = System.nanoTime();
+        this.storage = openStorage(plugin.getConfig().getString("storage.type", "YAML"));
+        plugin.getLogger().info("Using " + storage.getName() + " storage (opened in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms).");
+        this.ioExecutor = createIoExecutor("SimpleBank-IO");
+
+        this.intentLog = new IntentLog(new File(plugin.getDataFolder(), "intents"), plugin.getLogger());
+        try {
+            this.unfinishedIntents = intentLog.open(storage.getCheckpoint());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read the intent log!", e);
+        }
+        startAutoSave();
+    }
 
-        createDataFile();
-        loadDataConfig();
+    /**
+     * Persists balances other than bank balances, such as wallets, with the same
+     * write-behind settings as the bank but on a separate I/O thread
+     * @param storage The storage to write to; opened here
+     * @param threadName The name of the I/O thread
+     * @throws IOException If the storage cannot be opened; nothing falls back to YAML here
+     */
+    public DataManager(SimpleBank plugin, BankStorage storage, String threadName) throws IOException {
+        this.plugin = plugin;
+        this.pendingSaves = new UuidLongMap(1024);
+        this.flushThreshold = Math.max(1, plugin.getConfig().getInt("storage.flush-threshold", 500));
+        this.autoSaveSeconds = Math.round(plugin.getConfig().getDouble("storage.auto-save", 5) * 60);
+        storage.open();
+        this.storage = storage;
+        this.intentLog = null;
+        this.ioExecutor = createIoExecutor(threadName);
+        startAutoSave();
     }
 
-    private void createDataFile() {
-        if (!dataFile.exists()) {
-            dataFile.getParentFile().mkdirs();
+    private static ScheduledExecutorService createIoExecutor(String threadName) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private BankStorage openStorage(String type) throws IOException {
+        BankStorage configured = createStorage(type);
+        if (configured == null) {
+            configured = createYamlStorage();
+        }
+        try {
+            configured.open();
+        } catch (IOException e) {
+            throw new IOException("Could not open " + configured.getName() + " storage", e);
+        }
+        return configured;
+    }
+
+    private BankStorage createStorage(String type) {
+        switch (type.toUpperCase()) {
+            case "YAML":
+                return createYamlStorage();
+            case "BINARY":
+                return createBinaryStorage();
+            case "JOURNAL":
+                File archive = plugin.getConfig().getBoolean("storage.journal.keep-archive", false)
+                        ? new File(plugin.getDataFolder(), "journal/archive")
+                        : null;
+                TransactionJournal journal = new TransactionJournal(
+                        new File(plugin.getDataFolder(), "journal"), archive, plugin.getLogger());
+                return new JournalBankStorage(createYamlStorage(), journal,
+                        Math.max(10, plugin.getConfig().getLong("storage.journal.sync-interval-millis", 1000)),
+                        Math.max(1, plugin.getConfig().getLong("storage.journal.compact-after", 100000)),
+                        plugin.getLogger());
+            case "SQLITE":
+                return new SqliteBankStorage(new File(plugin.getDataFolder(), "bankdata.db"), plugin.getLogger());
+            case "MYSQL":
+                return new MySqlBankStorage(
+                        plugin.getConfig().getString("storage.mysql.host", "localhost"),
+                        plugin.getConfig().getInt("storage.mysql.port", 3306),
+                        plugin.getConfig().getString("storage.mysql.database", "minecraft"),
+                        plugin.getConfig().getString("storage.mysql.username", "root"),
+                        plugin.getConfig().getString("storage.mysql.password", ""),
+                        plugin.getConfig().getBoolean("storage.mysql.use-ssl", false),
+                        plugin.getConfig().getString("storage.mysql.table-prefix", "bank_"),
+                        plugin.getConfig().getInt("storage.mysql.pool-size", 4),
+                        plugin.getLogger(),
+                        this::onRemoteChange);
+            default:
+                plugin.getLogger().warning("Unknown storage type '" + type + "', using YAML.");
+                return null;
+        }
+    }
+
+    /**
+     * A save found changes another server made to an account; bring this server's balance up to date
+     */
+    private void onRemoteChange(UUID uuid) {
+        if (plugin.isEnabled() && plugin.getBankManager() != null) {
+            plugin.getBankManager().syncAccount(uuid);
+        }
+    }
+
+    private BankStorage createYamlStorage() {
+        return new YamlBankStorage(new File(plugin.getDataFolder(), "bankdata.yml"), plugin.getLogger());
+    }
+
+    private BankStorage createBinaryStorage() {
+        return new BinaryBankStorage(new File(plugin.getDataFolder(), "bankdata.bin"), plugin.getLogger());
+    }
+
+    private void startAutoSave() {
+        long syncMillis = storage.getSyncIntervalMillis();
+        if (syncMillis > 0) {
+            // Group commit: buffered transactions are synced together, full saves happen on the auto-save interval
+            ioExecutor.scheduleWithFixedDelay(this::syncSafely, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        }
+        if (intentLog != null) {
+            // Group commit for the intent log, independent of when balances are written
+            long intentMillis = Math.max(10, plugin.getConfig().getLong("storage.intent-log.sync-interval-millis", 100));
+            ioExecutor.scheduleWithFixedDelay(this::syncIntentsSafely, intentMillis, intentMillis, TimeUnit.MILLISECONDS);
+        }
+        if (autoSaveSeconds <= 0) {
+            return;
+        }
+        ioExecutor.scheduleWithFixedDelay(this::flushSafely, autoSaveSeconds, autoSaveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a balance change. Does not allocate, so it can sit on the balance hot path.
+     * @param mostSigBits The account UUID's most significant bits
+     * @param leastSigBits The account UUID's least significant bits
+     * @param balance The balance after the change, in minor units
+     * @param delta The amount the balance changed by, in minor units
+     * @param type The cause of the change
+     */
+    public void saveBankData(long mostSigBits, long leastSigBits, long balance, long delta, TransactionType type) {
+        // Mark dirty; the background flusher writes it out with the rest of the batch
+        pendingSaves.put(mostSigBits, leastSigBits, balance > 0 ? balance : REMOVED, 0);
+        storage.recordTransaction(mostSigBits, leastSigBits,
+                MoneyUtils.toMajor(delta), MoneyUtils.toMajor(balance), type);
+
+        // With auto-save disabled every change is flushed on its own (still off the main thread)
+        if (!batchInProgress && storage.getSyncIntervalMillis() <= 0
+                && (autoSaveSeconds <= 0 || pendingSaves.size() >= flushThreshold)) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Applies a batch of balance changes that should be persisted together.
+     * No flush runs while the batch is being applied; one flush is requested once it completes.
+     * @param changes Makes the balance changes, on the calling thread
+     */
+    public void runBatch(Runnable changes) {
+        synchronized (saveLock) {
+            batchInProgress = true;
             try {
-                dataFile.createNewFile();
-            } catch (IOException e) {
-                plugin.getLogger().log(Level.SEVERE, "Could not create bank data file!", e);
+                changes.run();
+            } finally {
+                batchInProgress = false;
             }
         }
+        requestFlush();
     }
 
-    private void loadDataConfig() {
-        dataConfig = YamlConfiguration.loadConfiguration(dataFile);
+    /**
+     * Makes several balance changes that must reach disk together, such as both sides of a transfer.
+     * A flush writes all of them or none, and a journal replays all of them or none.
+     * Call it with every account involved already locked, so the changes are atomic in memory too.
+     * @param changes Makes the balance changes, on the calling thread
+     */
+    public void runAtomically(Runnable changes) {
+        drainLock.readLock().lock();
+        try {
+            storage.recordAtomically(changes);
+        } finally {
+            drainLock.readLock().unlock();
+        }
     }
 
-    public void saveBankData(UUID uuid, double balance) {
-        // Store in pending saves for batch processing
-        if (balance <= 0) {
-            pendingSaves.put(uuid, null); // Mark for removal
-        } else {
-            pendingSaves.put(uuid, balance);
+    /**
+     * Schedules an asynchronous flush of all pending changes.
+     * Multiple requests made before the flush runs collapse into one write.
+     */
+    public void requestFlush() {
+        if (ioExecutor.isShutdown() || !flushQueued.compareAndSet(false, true)) {
+            return;
         }
+        ioExecutor.execute(this::flushSafely);
+    }
 
-        // Save immediately for now (can be optimized to batch saves)
-        saveDataImmediately();
+    public int getPendingSaveCount() {
+        return pendingSaves.size();
     }
 
-    private void saveDataImmediately() {
-        try {
-            // Apply pending saves
-            for (Map.Entry<UUID, Double> entry : pendingSaves.entrySet()) {
-                String key = "players." + entry.getKey().toString() + ".bank-balance";
-                if (entry.getValue() == null || entry.getValue() <= 0) {
-                    dataConfig.set("players." + entry.getKey().toString(), null);
-                } else {
-                    dataConfig.set(key, entry.getValue());
+    /**
+     * Checks whether an account has changes that have not been written yet
+     * @return True if the account is waiting to be saved
+     */
+    public boolean isPendingSave(long mostSigBits, long leastSigBits) {
+        return pendingSaves.get(mostSigBits, leastSigBits) != 0;
+    }
+
+    /**
+     * Runs a task at a fixed delay on the IO thread, never at the same time as a save
+     * @param task The task
+     * @param delayMillis Milliseconds between the end of one run and the start of the next
+     */
+    public void scheduleMaintenance(Runnable task, long delayMillis) {
+        ioExecutor.scheduleWithFixedDelay(() -> {
+            synchronized (saveLock) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.SEVERE, "Bank data maintenance failed!", e);
                 }
             }
+        }, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
 
-            dataConfig.save(dataFile);
-            pendingSaves.clear();
+    /**
+     * Check whether other servers change the stored balances too
+     * @return True if changes that take money out must go through {@link #spend}
+     */
+    public boolean isShared() {
+        return storage.isShared();
+    }
+
+    /**
+     * Runs a change that may take money out of accounts, checked against the stored accounts when
+     * they are shared with other servers. See {@link BankStorage#spend}.
+     * @return False if the stored accounts could not be locked; the change did not run
+     */
+    public boolean spend(long[] keys, int keyCount, BankStorage.RemoteChange remote, Runnable change) {
+        return storage.spend(keys, keyCount, remote, change);
+    }
+
+    /**
+     * Applies the changes other servers made to a shared account since this server last read it
+     * @param remote Applies the changes to this server's balance
+     */
+    public void refresh(long mostSigBits, long leastSigBits, BankStorage.RemoteChange remote) {
+        try {
+            storage.refresh(mostSigBits, leastSigBits, remote);
         } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not save bank data!", e);
+            plugin.getLogger().log(Level.SEVERE, "Could not refresh bank data for "
+                    + new UUID(mostSigBits, leastSigBits) + "!", e);
         }
     }
 
-    public double loadBankData(UUID uuid) {
-        String key = "players." + uuid.toString() + ".bank-balance";
-        return dataConfig.getDouble(key, 0.0);
+    public BankStorage getStorage() {
+        return storage;
     }
 
-    public Map<UUID, Double> loadAllBankData() {
-        Map<UUID, Double> data = new HashMap<>();
+    /**
+     * @return The log of money moving between wallets and bank accounts, or null for non-bank balances
+     */
+    public IntentLog getIntentLog() {
+        return intentLog;
+    }
 
-        if (!dataConfig.contains("players")) {
-            return data;
+    /**
+     * Hands out the intents the last run left unfinished, once
+     * @return The intents read from the log at startup
+     */
+    public List<IntentLog.Unfinished> takeUnfinishedIntents() {
+        List<IntentLog.Unfinished> unfinished = unfinishedIntents;
+        unfinishedIntents = new ArrayList<>();
+        return unfinished;
+    }
+
+    /**
+     * Makes every intent record logged so far durable, ahead of the balances about to be written,
+     * and has the storage write the cut generation along with them.
+     * Call it holding the drain lock exclusively, so no logged bank change can slip in between.
+     * @return The intent log generation to discard once the balances are on disk, or -1
+     */
+    private long cutIntents() throws IOException {
+        if (intentLog == null) {
+            return -1;
+        }
+        long generation = intentLog.cut();
+        intentLog.sync();
+        storage.setCheckpoint(generation);
+        return generation;
+    }
+
+    private void discardIntents(long generation) {
+        if (generation < 0) {
+            return;
+        }
+        try {
+            intentLog.discardUpTo(generation);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not discard applied intent log records!", e);
         }
+    }
 
-        for (String uuidString : dataConfig.getConfigurationSection("players").getKeys(false)) {
+    private void syncIntentsSafely() {
+        try {
+            intentLog.sync();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not sync the intent log!", e);
+        }
+    }
+
+    private void syncSafely() {
+        try {
+            long generation;
+            // The synced transactions are durable from here on, so this is also an intent log checkpoint
+            drainLock.writeLock().lock();
             try {
-                UUID uuid = UUID.fromString(uuidString);
-                double balance = dataConfig.getDouble("players." + uuidString + ".bank-balance", 0.0);
-                if (balance > 0) {
-                    data.put(uuid, balance);
+                generation = cutIntents();
+                storage.sync();
+            } finally {
+                drainLock.writeLock().unlock();
+            }
+            discardIntents(generation);
+            if (storage.isSaveDue()) {
+                saveDataImmediately();
+            }
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not sync bank data!", e);
+        }
+    }
+
+    private void flushSafely() {
+        flushQueued.set(false);
+        try {
+            saveDataImmediately();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Unexpected error while saving bank data!", e);
+        }
+    }
+
+    private void saveDataImmediately() {
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            long generation;
+            // Drain the dirty set; anything changed after its segment is drained stays dirty
+            Map<UUID, Double> batch = new HashMap<>();
+            drainLock.writeLock().lock();
+            try {
+                generation = cutIntents();
+                storage.prepareSave();
+                pendingSaves.drain((msb, lsb, balance) ->
+                        batch.put(new UUID(msb, lsb), balance == REMOVED ? 0.0 : MoneyUtils.toMajor(balance)));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not prepare bank data save!", e);
+                return;
+            } finally {
+                drainLock.writeLock().unlock();
+            }
+
+            try {
+                storage.saveBatch(batch);
+                plugin.getMetrics().recordFlush(System.nanoTime() - start, batch.size(), true);
+                discardIntents(generation);
+            } catch (IOException e) {
+                plugin.getMetrics().recordFlush(System.nanoTime() - start, batch.size(), false);
+                // Keep the changes that were not written dirty so the next flush retries them
+                Set<UUID> unsaved = e instanceof PartialSaveException
+                        ? ((PartialSaveException) e).getUnsaved()
+                        : batch.keySet();
+                for (UUID uuid : unsaved) {
+                    double balance = batch.get(uuid);
+                    pendingSaves.putIfAbsent(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                            balance > 0 ? MoneyUtils.toMinor(balance) : REMOVED);
                 }
-            } catch (IllegalArgumentException e) {
-                plugin.getLogger().warning("Invalid UUID in bank data: " + uuidString);
+                plugin.getLogger().log(Level.SEVERE, "Could not save bank data!", e);
             }
         }
+    }
+
+    public double loadBankData(UUID uuid) {
+        long pending = pendingSaves.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (pending != 0) {
+            return pending == REMOVED ? 0.0 : MoneyUtils.toMajor(pending);
+        }
+        try {
+            return storage.load(uuid);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load bank data for " + uuid + "!", e);
+            return 0.0;
+        }
+    }
+
+    public Map<UUID, Double> loadAllBankData() {
+        try {
+            Map<UUID, Double> data = storage.loadAll();
+            // Changes not written yet take precedence over what is stored
+            pendingSaves.forEach((msb, lsb, balance) -> {
+                if (balance == REMOVED) {
+                    data.remove(new UUID(msb, lsb));
+                } else {
+                    data.put(new UUID(msb, lsb), MoneyUtils.toMajor(balance));
+                }
+            });
+            return data;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load bank data!", e);
+            return new HashMap<>();
+        }
+    }
 
-        return data;
+    /**
+     * Streams every stored account to the consumer, with changes not written yet taking precedence.
+     * The consumer may be called from several threads at once.
+     * @param consumer Receives each positive balance
+     */
+    public void loadAllBankData(BankStorage.BalanceConsumer consumer) {
+        try {
+            storage.loadAll((msb, lsb, balance) -> {
+                if (pendingSaves.get(msb, lsb) == 0) {
+                    consumer.accept(msb, lsb, balance);
+                }
+            });
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load bank data!", e);
+        }
+        pendingSaves.forEach((msb, lsb, balance) -> {
+            if (balance != REMOVED) {
+                consumer.accept(msb, lsb, MoneyUtils.toMajor(balance));
+            }
+        });
     }
 
+    /**
+     * Writes all pending changes synchronously on the calling thread.
+     */
     public void saveData() {
         saveDataImmediately();
     }
 
+    /**
+     * Stops the background flusher and performs a final synchronous flush.
+     * Called from {@link SimpleBank#onDisable()}.
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for pending bank data writes to finish.");
+                ioExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ioExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // Under the save lock, so no save still running can write the checkpoint cut here
+        synchronized (saveLock) {
+            saveDataImmediately();
+            long generation = -1;
+            drainLock.writeLock().lock();
+            try {
+                generation = cutIntents();
+                storage.close();
+                if (intentLog != null) {
+                    intentLog.close();
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not close bank data storage!", e);
+                return;
+            } finally {
+                drainLock.writeLock().unlock();
+            }
+            // Every balance is on disk now, including those the storage only wrote while closing
+            discardIntents(generation);
+        }
+    }
+
+    /**
+     * Flushes pending changes and re-reads the storage
+     */
     public void reloadData() {
-        loadDataConfig();
+        runOnIoThread(() -> {
+            synchronized (saveLock) {
+                saveDataImmediately();
+                long generation;
+                drainLock.writeLock().lock();
+                try {
+                    generation = cutIntents();
+                    storage.close();
+                } finally {
+                    drainLock.writeLock().unlock();
+                }
+                discardIntents(generation);
+                storage.open();
+            }
+            return null;
+        });
     }
 
     public void backupData() {
         File backupFile = new File(plugin.getDataFolder(), "bankdata_backup_" + System.currentTimeMillis() + ".yml");
+        ioExecutor.execute(() -> {
+            YamlConfiguration backup = new YamlConfiguration();
+            for (Map.Entry<UUID, Double> entry : loadAllBankData().entrySet()) {
+                backup.set("players." + entry.getKey().toString() + ".bank-balance", entry.getValue());
+            }
+            try {
+                backup.save(backupFile);
+                plugin.getLogger().info("Bank data backed up to: " + backupFile.getName());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not create backup!", e);
+            }
+        });
+    }
+
+    /**
+     * Copies every account into bankdata.yml or bankdata.bin, replacing what that file held,
+     * so the server can be switched to that storage type afterwards
+     * @param type YAML or BINARY
+     * @return The number of accounts copied, completed on the IO thread
+     */
+    public CompletableFuture<Integer> convertData(String type) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                result.complete(convertDataImmediately(type.toUpperCase()));
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not convert bank data to " + type + "!", e);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private int convertDataImmediately(String type) throws IOException {
+        BankStorage target;
+        if (type.equals("YAML")) {
+            target = createYamlStorage();
+        } else if (type.equals("BINARY")) {
+            target = createBinaryStorage();
+        } else {
+            throw new IllegalArgumentException("Bank data can only be converted to YAML or BINARY, not " + type);
+        }
+        // The journal keeps its snapshot in bankdata.yml, so that file is not free to overwrite either
+        if (storage.getName().equals(target.getName())
+                || storage.getName().equals("JOURNAL") && target instanceof YamlBankStorage) {
+            throw new IllegalArgumentException("The current storage already writes to that file");
+        }
+
+        saveDataImmediately();
+        Map<UUID, Double> data = storage.loadAll();
+        target.open();
         try {
-            dataConfig.save(backupFile);
-            plugin.getLogger().info("Bank data backed up to: " + backupFile.getName());
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not create backup!", e);
+            // The copy holds exactly what the current storage does, so it is as far along the intent log
+            target.setCheckpoint(storage.getCheckpoint());
+            Map<UUID, Double> batch = new HashMap<>(data);
+            for (UUID stale : target.loadAll().keySet()) {
+                batch.putIfAbsent(stale, 0.0);
+            }
+            target.saveBatch(batch);
+        } finally {
+            target.close();
+        }
+        plugin.getLogger().info("Converted " + data.size() + " bank accounts to " + target.getName() + " storage.");
+        return data.size();
+    }
+
+    private interface IoTask<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T runOnIoThread(IoTask<T> task) {
+        try {
+            return ioExecutor.submit(() -> task.run()).get();
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Bank data operation failed!", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return null;
     }
-}
\ No newline at end of file
+}
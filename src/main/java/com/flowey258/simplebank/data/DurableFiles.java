@@ -0,0 +1,47 @@
+package com.flowey258.simplebank.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File operations the storages use to make their writes survive a crash or power loss
+ */
+final class DurableFiles {
+
+    private DurableFiles() {
+    }
+
+    /**
+     * Renames a fully written file over the target, so a crash mid-write never leaves a
+     * truncated data file behind. The source must already be forced to disk; the directory
+     * is synced afterwards so the rename itself survives a power loss.
+     */
+    static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces a directory's entries to disk, so files created, renamed or deleted in it stay that way
+     */
+    static void syncDirectory(File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows cannot open directories; NTFS makes renames durable without it
+            if (!System.getProperty("os.name", "").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.flowey258.simplebank.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of money moving between a Vault wallet and a bank account.
+ *
+ * Every move is an intent: BEGIN, then one record per completed leg, then COMMIT or ABORT.
+ * Records are a fixed 48 bytes: intent id (8), uuid (16), amount in minor units (8), bank change
+ * made by the intent before this record (8), kind (1), state (1), reserved (2) and a CRC32 (4).
+ * Appends are only buffered; {@link #sync()} writes and forces them as one group commit.
+ *
+ * The log is split into generations. {@link DataManager} cuts a generation whenever it makes
+ * bank balances durable, syncs the log before the balances, and discards the generation once
+ * they are on disk. So a bank change whose record is still in the log is not on disk yet, and
+ * {@link #open(long)} can tell what every unfinished intent still has to apply. Intents still open
+ * at a cut are carried into the next generation, so discarding never loses one.
+ *
+ * The storage keeps the last cut generation whose balances it wrote as a checkpoint, in the same
+ * write as the balances. A crash after that write but before the discard leaves generations on
+ * disk that are already applied; {@link #open(long)} skips them, so no bank change is made twice.
+ */
+public class IntentLog {
+
+    public static final int RECORD_SIZE = 48;
+
+    private static final int MAGIC = 0x5342494C; // "SBIL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHECKSUM_OFFSET = 44;
+    private static final String EXTENSION = ".intents";
+
+    public enum Kind {
+        // Wallet to bank
+        DEPOSIT,
+        // Bank to wallet
+        WITHDRAW
+    }
+
+    public enum State {
+        BEGIN,
+        WALLET_DONE,
+        // Written atomically with the bank change
+        BANK_DONE,
+        COMMIT,
+        // Written atomically with the bank refund, if there was one
+        ABORT
+    }
+
+    private final File directory;
+    private final Logger logger;
+    private final Object ioLock = new Object();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    // Records of the current generation, and earlier generations cut but not written yet
+    private ByteBuffer activeBuffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+    private final List<Chunk> sealed = new ArrayList<>();
+    private final Map<Long, Intent> openIntents = new HashMap<>();
+    private long generation;
+
+    // Only touched under ioLock
+    private FileChannel channel;
+    private long channelGeneration = -1;
+
+    private static final class Chunk {
+        private final long generation;
+        private final ByteBuffer records;
+
+        private Chunk(long generation, ByteBuffer records) {
+            this.generation = generation;
+            this.records = records;
+        }
+    }
+
+    /**
+     * An intent being carried out; records its progress
+     */
+    public final class Intent {
+        private final long id;
+        private final Kind kind;
+        private final UUID uuid;
+        private final long amount;
+        // Guarded by the log
+        private long bankChange;
+        private State last;
+
+        private Intent(long id, Kind kind, UUID uuid, long amount) {
+            this.id = id;
+            this.kind = kind;
+            this.uuid = uuid;
+            this.amount = amount;
+        }
+
+        /**
+         * Records a step of this intent
+         * @param state The step that completed
+         * @param bankDelta The bank change made atomically with this record, in minor units
+         */
+        public void record(State state, long bankDelta) {
+            append(this, state, bankDelta);
+        }
+    }
+
+    /**
+     * An intent read back by {@link #open(long)} that did not reach disk completely
+     */
+    public static final class Unfinished {
+        private final Kind kind;
+        private final UUID uuid;
+        private final long amount;
+        // Bank change of this intent that is already on disk
+        private final long bankOnDisk;
+        private boolean walletDone;
+        private boolean committed;
+        private boolean aborted;
+
+        private Unfinished(Kind kind, UUID uuid, long amount, long bankOnDisk) {
+            this.kind = kind;
+            this.uuid = uuid;
+            this.amount = amount;
+            this.bankOnDisk = bankOnDisk;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        /**
+         * @return True if the intent was committed, or got past its wallet leg before the server stopped
+         */
+        public boolean isCompleted() {
+            return !aborted && (committed || walletDone);
+        }
+
+        /**
+         * @return True if the server stopped before the intent committed or aborted
+         */
+        public boolean isInFlight() {
+            return !committed && !aborted;
+        }
+
+        /**
+         * @return The bank change, in minor units, still needed to match the intent's outcome
+         */
+        public long getMissingBankChange() {
+            long wanted = isCompleted() ? (kind == Kind.DEPOSIT ? amount : -amount) : 0;
+            return wanted - bankOnDisk;
+        }
+    }
+
+    public IntentLog(File directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads every generation after the checkpoint and starts a new one for appending
+     * @param checkpoint The last generation whose bank changes the storage has written, or 0
+     * @return The intents whose bank changes are not all on disk, in the order they began
+     */
+    public List<Unfinished> open(long checkpoint) throws IOException {
+        directory.mkdirs();
+
+        Map<Long, Unfinished> intents = new LinkedHashMap<>();
+        // New generations must come after the checkpoint even if every file was discarded
+        long lastGeneration = checkpoint;
+        long maxId = 0;
+        for (long existing : listGenerations()) {
+            if (existing <= checkpoint) {
+                // Written with the balances, the server stopped before discarding it
+                Files.deleteIfExists(fileFor(existing).toPath());
+                continue;
+            }
+            maxId = Math.max(maxId, read(fileFor(existing), intents));
+            lastGeneration = existing;
+        }
+        nextId.set(maxId + 1);
+        synchronized (this) {
+            generation = lastGeneration + 1;
+        }
+        return new ArrayList<>(intents.values());
+    }
+
+    /**
+     * Starts an intent and buffers its BEGIN record
+     * @param amount The amount to move, in minor units
+     */
+    public Intent begin(Kind kind, UUID uuid, long amount) {
+        Intent intent = new Intent(nextId.getAndIncrement(), kind, uuid, amount);
+        intent.record(State.BEGIN, 0);
+        return intent;
+    }
+
+    private synchronized void append(Intent intent, State state, long bankDelta) {
+        write(intent, state);
+        intent.bankChange += bankDelta;
+        intent.last = state;
+        if (state == State.BEGIN) {
+            openIntents.put(intent.id, intent);
+        } else if (state == State.COMMIT || state == State.ABORT) {
+            openIntents.remove(intent.id);
+        }
+    }
+
+    private void write(Intent intent, State state) {
+        ByteBuffer record = ByteBuffer.wrap(scratch);
+        record.putLong(intent.id);
+        record.putLong(intent.uuid.getMostSignificantBits());
+        record.putLong(intent.uuid.getLeastSignificantBits());
+        record.putLong(intent.amount);
+        record.putLong(intent.bankChange);
+        record.put((byte) intent.kind.ordinal());
+        record.put((byte) state.ordinal());
+        record.put((byte) 0).put((byte) 0);
+        crc.reset();
+        crc.update(scratch, 0, CHECKSUM_OFFSET);
+        record.putInt((int) crc.getValue());
+
+        if (activeBuffer.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(activeBuffer.capacity() * 2);
+            activeBuffer.flip();
+            grown.put(activeBuffer);
+            activeBuffer = grown;
+        }
+        activeBuffer.put(scratch);
+    }
+
+    /**
+     * Ends the current generation without any I/O; later records go to the next one
+     * @return The generation that was cut
+     */
+    public synchronized long cut() {
+        sealed.add(new Chunk(generation, activeBuffer));
+        activeBuffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        // Repeat the latest step of each open intent, so it outlives the generation being cut
+        for (Intent intent : openIntents.values()) {
+            write(intent, intent.last);
+        }
+        return generation++;
+    }
+
+    /**
+     * Writes every buffered record and forces it to stable storage
+     */
+    public void sync() throws IOException {
+        synchronized (ioLock) {
+            List<Chunk> pending;
+            synchronized (this) {
+                pending = new ArrayList<>(sealed);
+                sealed.clear();
+                pending.add(new Chunk(generation, activeBuffer));
+                activeBuffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+            }
+            boolean wrote = false;
+            for (Chunk chunk : pending) {
+                if (chunk.records.position() == 0) {
+                    continue;
+                }
+                if (chunk.generation != channelGeneration) {
+                    switchChannel(chunk.generation);
+                }
+                chunk.records.flip();
+                while (chunk.records.hasRemaining()) {
+                    channel.write(chunk.records);
+                }
+                wrote = true;
+            }
+            // An idle server does not sync at all
+            if (wrote) {
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Deletes every generation up to and including the given one.
+     * Only call this once the bank changes recorded in them are on disk.
+     */
+    public void discardUpTo(long lastGeneration) throws IOException {
+        synchronized (ioLock) {
+            if (channel != null && channelGeneration <= lastGeneration) {
+                channel.close();
+                channel = null;
+                channelGeneration = -1;
+            }
+            for (long existing : listGenerations()) {
+                if (existing <= lastGeneration) {
+                    Files.deleteIfExists(fileFor(existing).toPath());
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (ioLock) {
+            sync();
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                channelGeneration = -1;
+            }
+        }
+    }
+
+    private void switchChannel(long newGeneration) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+        File file = fileFor(newGeneration);
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        channelGeneration = newGeneration;
+        if (!exists) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+    }
+
+    /**
+     * Folds one generation into the intents read so far. A torn or corrupt record ends the file.
+     * @return The highest intent id seen
+     */
+    private long read(File file, Map<Long, Unfinished> intents) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer view = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || view.getInt(0) != MAGIC || view.getInt(4) != VERSION) {
+            logger.warning("Skipping intent log " + file.getName() + ": missing or invalid header");
+            return 0;
+        }
+
+        long maxId = 0;
+        CRC32 checksum = new CRC32();
+        int position = HEADER_SIZE;
+        for (; position + RECORD_SIZE <= data.length; position += RECORD_SIZE) {
+            checksum.reset();
+            checksum.update(data, position, CHECKSUM_OFFSET);
+            int kind = view.get(position + 40);
+            int state = view.get(position + 41);
+            if ((int) checksum.getValue() != view.getInt(position + CHECKSUM_OFFSET)
+                    || kind < 0 || kind >= Kind.values().length || state < 0 || state >= State.values().length) {
+                logger.warning("Corrupt record in intent log " + file.getName() + ", stopping there");
+                return maxId;
+            }
+
+            long id = view.getLong(position);
+            maxId = Math.max(maxId, id);
+            // The first record still in the log shows what the discarded ones had already put on disk
+            Unfinished intent = intents.get(id);
+            if (intent == null) {
+                intent = new Unfinished(Kind.values()[kind],
+                        new UUID(view.getLong(position + 8), view.getLong(position + 16)),
+                        view.getLong(position + 24), view.getLong(position + 32));
+                intents.put(id, intent);
+            }
+            switch (State.values()[state]) {
+                case WALLET_DONE:
+                    intent.walletDone = true;
+                    break;
+                case BANK_DONE:
+                    // A deposit only touches the bank after the wallet
+                    intent.walletDone |= intent.kind == Kind.DEPOSIT;
+                    break;
+                case COMMIT:
+                    intent.committed = true;
+                    break;
+                case ABORT:
+                    intent.aborted = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (position < data.length) {
+            logger.warning("Intent log " + file.getName() + " ends with a partial record, ignoring it");
+        }
+        return maxId;
+    }
+
+    private List<Long> listGenerations() {
+        List<Long> generations = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return generations;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                generations.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException ignored) {
+                // Not one of ours
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private File fileFor(long generation) {
+        return new File(directory, String.format("%016d", generation) + EXTENSION);
+    }
+}
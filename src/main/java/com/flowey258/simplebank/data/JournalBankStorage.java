@@ -0,0 +1,143 @@
+package com.flowey258.simplebank.data;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Appends every change to a {@link TransactionJournal} and keeps a snapshot storage
+ * that is only rewritten when the journal gets compacted.
+ * Intent log checkpoints go into the journal, and into the snapshot when it is rewritten.
+ */
+public class JournalBankStorage implements BankStorage {
+
+    private final BankStorage snapshot;
+    private final TransactionJournal journal;
+    private final long syncIntervalMillis;
+    private final long compactThreshold;
+    private final Logger logger;
+    private final Map<UUID, Double> replayed = new HashMap<>();
+    private long rotatedGeneration = -1;
+    private volatile long checkpoint;
+
+    public JournalBankStorage(BankStorage snapshot, TransactionJournal journal,
+                              long syncIntervalMillis, long compactThreshold, Logger logger) {
+        this.snapshot = snapshot;
+        this.journal = journal;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.compactThreshold = compactThreshold;
+        this.logger = logger;
+    }
+
+    @Override
+    public void open() throws IOException {
+        snapshot.open();
+
+        // Replay the journal tail on top of the last snapshot
+        long count = journal.open((uuid, delta, newBalance, type, timestamp) -> replayed.put(uuid, newBalance));
+        checkpoint = Math.max(snapshot.getCheckpoint(), journal.getReplayedCheckpoint());
+        if (count > 0) {
+            logger.info("Replayed " + count + " journal records, writing a fresh snapshot...");
+            long closed = journal.rotate();
+            snapshot.setCheckpoint(checkpoint);
+            snapshot.saveBatch(replayed);
+            journal.discardUpTo(closed);
+        }
+        replayed.clear();
+    }
+
+    @Override
+    public Map<UUID, Double> loadAll() throws IOException {
+        return snapshot.loadAll();
+    }
+
+    @Override
+    public void loadAll(BalanceConsumer consumer) throws IOException {
+        snapshot.loadAll(consumer);
+    }
+
+    @Override
+    public double load(UUID uuid) throws IOException {
+        return snapshot.load(uuid);
+    }
+
+    /**
+     * Changes made after the rotation go to the new generation, and replaying them
+     * over the snapshot is harmless since records carry absolute balances.
+     */
+    @Override
+    public void prepareSave() throws IOException {
+        // Runs right after the intent log cut, so the snapshot about to be written holds its changes
+        snapshot.setCheckpoint(checkpoint);
+        if (journal.getRecordCount() == 0 && journal.getBufferedRecords() == 0) {
+            return;
+        }
+        rotatedGeneration = journal.rotate();
+    }
+
+    @Override
+    public void saveBatch(Map<UUID, Double> balances) throws IOException {
+        if (!balances.isEmpty()) {
+            snapshot.saveBatch(balances);
+        }
+        if (rotatedGeneration >= 0) {
+            journal.discardUpTo(rotatedGeneration);
+            rotatedGeneration = -1;
+        }
+    }
+
+    @Override
+    public void recordTransaction(long mostSigBits, long leastSigBits, double delta, double newBalance,
+                                  TransactionType type) {
+        journal.append(mostSigBits, leastSigBits, delta, newBalance, type);
+    }
+
+    @Override
+    public void recordAtomically(Runnable records) {
+        journal.appendGroup(records);
+    }
+
+    @Override
+    public void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+        journal.appendCheckpoint(checkpoint);
+    }
+
+    @Override
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    @Override
+    public boolean isSaveDue() {
+        return journal.getRecordCount() >= compactThreshold;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+        snapshot.close();
+    }
+
+    @Override
+    public boolean holdsEveryAccount() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "JOURNAL";
+    }
+}
@@ -0,0 +1,461 @@
+package com.flowey258.simplebank.data;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores balances in a MySQL or MariaDB table shared by several servers.
+ *
+ * Rows are never overwritten with this server's balance. Each account's unsaved changes are summed
+ * up as they happen and added to the stored balance, so changes from different servers simply add up.
+ * Changes that take money out run through {@link #spend}, which locks the rows, first applies what
+ * other servers changed and then stores the result before releasing them, so the same money can never
+ * be spent on two servers. Changes other servers made that a save or a refresh notices are reported
+ * through the {@link RemoteChangeListener}.
+ */
+public class MySqlBankStorage implements BankStorage {
+
+    // Accounts written per transaction by a save
+    private static final int WRITE_CHUNK = 500;
+    private static final int DECIMALS = (int) Math.round(Math.log10(MoneyUtils.SCALE));
+
+    /**
+     * Notified when a save finds that another server changed an account too
+     */
+    public interface RemoteChangeListener {
+        /**
+         * Called on the I/O thread after the save; {@link #refresh} brings the account up to date
+         * @param uuid The account
+         */
+        void onRemoteChange(UUID uuid);
+    }
+
+    private final String url;
+    private final Properties properties;
+    private final int poolSize;
+    private final String table;
+    private final Logger logger;
+    private final RemoteChangeListener listener;
+
+    // Stored balance as of this server's last read or write, in minor units
+    private final UuidLongMap stored = new UuidLongMap(1024);
+    // Sum of the changes not stored yet, in minor units
+    private final UuidLongMap pending = new UuidLongMap(1024);
+    // Held while rows are locked or written, so stored and pending always match what is in the table
+    private final ReentrantLock rowLock = new ReentrantLock();
+    // Changes made by the thread inside spend(), stored with its rows instead of by the next save
+    private Thread spender;
+    private UuidLongMap spent;
+    private ConnectionPool pool;
+
+    public MySqlBankStorage(String host, int port, String database, String username, String password,
+                            boolean useSsl, String tablePrefix, int poolSize,
+                            Logger logger, RemoteChangeListener listener) {
+        this("jdbc:mysql://" + host + ":" + port + "/" + database,
+                connectionProperties(username, password, useSsl), tablePrefix, poolSize, logger, listener);
+    }
+
+    MySqlBankStorage(String url, Properties properties, String tablePrefix, int poolSize,
+                     Logger logger, RemoteChangeListener listener) {
+        this.url = url;
+        this.properties = properties;
+        this.poolSize = Math.max(1, poolSize);
+        this.table = tablePrefix + "accounts";
+        this.logger = logger;
+        this.listener = listener;
+    }
+
+    private static Properties connectionProperties(String username, String password, boolean useSsl) {
+        Properties properties = new Properties();
+        properties.setProperty("user", username);
+        properties.setProperty("password", password);
+        properties.setProperty("useSSL", Boolean.toString(useSsl));
+        properties.setProperty("characterEncoding", "utf8");
+        return properties;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (!table.matches("[A-Za-z0-9_]+")) {
+            throw new IOException("Table prefix may only contain letters, digits and underscores");
+        }
+        try {
+            if (url.startsWith("jdbc:mysql:")) {
+                loadDriver();
+            }
+            pool = new ConnectionPool(url, properties, poolSize, 10000);
+            Connection connection = pool.borrow();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                        + "uuid CHAR(36) NOT NULL PRIMARY KEY, "
+                        + "balance DOUBLE NOT NULL DEFAULT 0, "
+                        + "version BIGINT NOT NULL DEFAULT 0) ENGINE=InnoDB");
+            } finally {
+                pool.release(connection);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not connect to the MySQL database", e);
+        }
+    }
+
+    private void loadDriver() throws IOException {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            try {
+                Class.forName("com.mysql.jdbc.Driver");
+            } catch (ClassNotFoundException legacy) {
+                throw new IOException("MySQL driver not found on the server", legacy);
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, Double> loadAll() throws IOException {
+        Map<UUID, Double> data = new HashMap<>();
+        Connection connection = borrow();
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT uuid, balance FROM " + table)) {
+            while (results.next()) {
+                String uuidString = results.getString(1);
+                try {
+                    UUID uuid = UUID.fromString(uuidString);
+                    double balance = results.getDouble(2);
+                    stored.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                            MoneyUtils.toMinorClamped(balance), 0);
+                    if (balance > 0) {
+                        data.put(uuid, balance);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Invalid UUID in bank data: " + uuidString);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not load bank data", e);
+        } finally {
+            pool.release(connection);
+        }
+        return data;
+    }
+
+    /**
+     * Loads an account this server does not hold in memory, so it has no unsaved changes
+     */
+    @Override
+    public double load(UUID uuid) throws IOException {
+        Connection connection = borrow();
+        try {
+            long balance = selectBalance(connection, uuid);
+            stored.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance, 0);
+            return MoneyUtils.toMajor(balance);
+        } catch (SQLException e) {
+            throw new IOException("Could not load bank data for " + uuid, e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void recordTransaction(long mostSigBits, long leastSigBits, double delta, double newBalance,
+                                  TransactionType type) {
+        // Other servers' changes are already stored
+        if (type == TransactionType.SYNC) {
+            return;
+        }
+        long minor = MoneyUtils.toMinor(delta);
+        if (spender == Thread.currentThread()) {
+            spent.add(mostSigBits, leastSigBits, minor, 0);
+        } else {
+            pending.add(mostSigBits, leastSigBits, minor, 0);
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public boolean spend(long[] keys, int keyCount, RemoteChange remote, Runnable change) {
+        rowLock.lock();
+        try {
+            Connection connection;
+            try {
+                connection = pool.borrow();
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Could not get a database connection, the change was refused!", e);
+                return false;
+            }
+            try {
+                List<UUID> accounts = new ArrayList<>(keyCount);
+                for (int i = 0; i < keyCount; i++) {
+                    accounts.add(new UUID(keys[i * 2], keys[i * 2 + 1]));
+                }
+                try {
+                    connection.setAutoCommit(false);
+                    Map<UUID, Long> rows = selectForUpdate(connection, accounts);
+                    for (UUID uuid : accounts) {
+                        applyRemote(uuid, rows.getOrDefault(uuid, 0L), remote);
+                    }
+                } catch (SQLException e) {
+                    logger.log(Level.SEVERE, "Could not lock bank accounts in the database, the change was refused!", e);
+                    return false;
+                }
+
+                UuidLongMap changes = new UuidLongMap(keyCount);
+                spent = changes;
+                spender = Thread.currentThread();
+                try {
+                    change.run();
+                } finally {
+                    spender = null;
+                    spent = null;
+                    storeChanges(connection, changes);
+                }
+                return true;
+            } finally {
+                pool.release(connection);
+            }
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the changes a spend made, together with the unsaved changes of the same accounts.
+     * If that fails the changes are left to the next save, which no longer checks them against the rows.
+     */
+    private void storeChanges(Connection connection, UuidLongMap changes) {
+        List<UUID> accounts = new ArrayList<>();
+        List<Long> amounts = new ArrayList<>();
+        List<Long> unsaved = new ArrayList<>();
+        changes.forEach((msb, lsb, amount) -> {
+            long before = pending.get(msb, lsb);
+            accounts.add(new UUID(msb, lsb));
+            unsaved.add(before);
+            amounts.add(before + amount);
+        });
+        try {
+            upsert(connection, accounts, amounts);
+            connection.commit();
+        } catch (SQLException e) {
+            changes.forEach((msb, lsb, amount) -> pending.add(msb, lsb, amount, 0));
+            logger.log(Level.SEVERE, "Could not store a change to " + accounts.size()
+                    + " bank accounts, it is saved with the next flush instead!", e);
+            return;
+        }
+        for (int i = 0; i < accounts.size(); i++) {
+            UUID uuid = accounts.get(i);
+            pending.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), -unsaved.get(i), 0);
+            stored.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), amounts.get(i), 0);
+        }
+    }
+
+    @Override
+    public void refresh(long mostSigBits, long leastSigBits, RemoteChange remote) throws IOException {
+        UUID uuid = new UUID(mostSigBits, leastSigBits);
+        rowLock.lock();
+        try {
+            Connection connection = borrow();
+            try {
+                applyRemote(uuid, selectBalance(connection, uuid), remote);
+            } catch (SQLException e) {
+                throw new IOException("Could not refresh bank data for " + uuid, e);
+            } finally {
+                pool.release(connection);
+            }
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    /**
+     * Hands the difference between a stored balance and the last one this server saw to this server's
+     * balances; call it holding the row lock
+     */
+    private void applyRemote(UUID uuid, long balance, RemoteChange remote) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long delta = balance - stored.put(msb, lsb, balance, 0);
+        if (delta != 0) {
+            remote.apply(msb, lsb, delta);
+        }
+    }
+
+    @Override
+    public void saveBatch(Map<UUID, Double> balances) throws IOException {
+        if (balances.isEmpty()) {
+            return;
+        }
+
+        // Only the accounts matter, the changes themselves were summed up by recordTransaction
+        List<UUID> accounts = new ArrayList<>(balances.keySet());
+        Set<UUID> unsaved = new HashSet<>();
+        List<UUID> changedElsewhere = new ArrayList<>();
+        SQLException failure = null;
+        for (int from = 0; from < accounts.size(); from += WRITE_CHUNK) {
+            List<UUID> chunk = accounts.subList(from, Math.min(accounts.size(), from + WRITE_CHUNK));
+            try {
+                saveChunk(chunk, changedElsewhere);
+            } catch (SQLException e) {
+                unsaved.addAll(chunk);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        for (UUID uuid : changedElsewhere) {
+            listener.onRemoteChange(uuid);
+        }
+        if (!unsaved.isEmpty()) {
+            throw new PartialSaveException("Could not save " + unsaved.size() + " of " + accounts.size()
+                    + " bank accounts", unsaved, failure);
+        }
+    }
+
+    /**
+     * Adds the unsaved changes of some accounts to their rows in one transaction
+     * @param changedElsewhere Receives the accounts whose rows held changes from other servers
+     */
+    private void saveChunk(List<UUID> chunk, List<UUID> changedElsewhere) throws SQLException {
+        rowLock.lock();
+        try {
+            List<UUID> accounts = new ArrayList<>(chunk.size());
+            List<Long> amounts = new ArrayList<>(chunk.size());
+            for (UUID uuid : chunk) {
+                long amount = pending.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+                if (amount != 0) {
+                    accounts.add(uuid);
+                    amounts.add(amount);
+                }
+            }
+            if (accounts.isEmpty()) {
+                return;
+            }
+
+            Map<UUID, Long> rows;
+            Connection connection = pool.borrow();
+            try {
+                connection.setAutoCommit(false);
+                upsert(connection, accounts, amounts);
+                rows = selectForUpdate(connection, accounts);
+                connection.commit();
+            } finally {
+                pool.release(connection);
+            }
+
+            for (int i = 0; i < accounts.size(); i++) {
+                UUID uuid = accounts.get(i);
+                long msb = uuid.getMostSignificantBits();
+                long lsb = uuid.getLeastSignificantBits();
+                pending.add(msb, lsb, -amounts.get(i), 0);
+                long expected = stored.add(msb, lsb, amounts.get(i), 0);
+                if (rows.getOrDefault(uuid, 0L) != expected) {
+                    changedElsewhere.add(uuid);
+                }
+            }
+        } finally {
+            rowLock.unlock();
+        }
+    }
+
+    /**
+     * Adds an amount to each account's row, creating missing rows
+     */
+    private void upsert(Connection connection, List<UUID> accounts, List<Long> amounts) throws SQLException {
+        boolean any = false;
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO " + table + " (uuid, balance, version) VALUES (?, ?, 0) "
+                        + "ON DUPLICATE KEY UPDATE balance = ROUND(balance + VALUES(balance), " + DECIMALS + "), "
+                        + "version = version + 1")) {
+            for (int i = 0; i < accounts.size(); i++) {
+                if (amounts.get(i) == 0) {
+                    continue;
+                }
+                upsert.setString(1, accounts.get(i).toString());
+                upsert.setDouble(2, MoneyUtils.toMajor(amounts.get(i)));
+                upsert.addBatch();
+                any = true;
+            }
+            if (any) {
+                upsert.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Reads and locks rows until the transaction ends
+     * @return The stored balance of each account that has a row, in minor units
+     */
+    private Map<UUID, Long> selectForUpdate(Connection connection, List<UUID> accounts) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT uuid, balance FROM ").append(table).append(" WHERE uuid IN (");
+        for (int i = 0; i < accounts.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") FOR UPDATE");
+
+        Map<UUID, Long> rows = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < accounts.size(); i++) {
+                select.setString(i + 1, accounts.get(i).toString());
+            }
+            try (ResultSet results = select.executeQuery()) {
+                while (results.next()) {
+                    rows.put(UUID.fromString(results.getString(1)), MoneyUtils.toMinorClamped(results.getDouble(2)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private long selectBalance(Connection connection, UUID uuid) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT balance FROM " + table + " WHERE uuid = ?")) {
+            select.setString(1, uuid.toString());
+            try (ResultSet results = select.executeQuery()) {
+                return results.next() ? MoneyUtils.toMinorClamped(results.getDouble(1)) : 0;
+            }
+        }
+    }
+
+    private Connection borrow() throws IOException {
+        try {
+            return pool.borrow();
+        } catch (SQLException e) {
+            throw new IOException("Could not get a database connection", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "MYSQL";
+    }
+}
@@ -0,0 +1,26 @@
+package com.flowey258.simplebank.data;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Thrown by {@link BankStorage#saveBatch} when only part of a batch was written.
+ * The accounts it names are the only ones that still have to be saved.
+ */
+public class PartialSaveException extends IOException {
+
+    private final Set<UUID> unsaved;
+
+    public PartialSaveException(String message, Set<UUID> unsaved, Throwable cause) {
+        super(message, cause);
+        this.unsaved = unsaved;
+    }
+
+    /**
+     * @return The accounts that were not written
+     */
+    public Set<UUID> getUnsaved() {
+        return unsaved;
+    }
+}
@@ -0,0 +1,240 @@
+package com.flowey258.simplebank.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * SimpleBank's own record of player names, so commands never have to ask the server, or
+ * Mojang, who a name belongs to.
+ *
+ * Every player is recorded when they join. Lookups both ways are a hash map read and safe from
+ * any thread. At most {@code maxEntries} players are kept: when the index is saved, the players
+ * seen longest ago are dropped first. Saved to names.bin: a 24 byte header (magic, version,
+ * count, CRC32 of the records) and one record per player of (uuid most, uuid least, last seen
+ * millis, name length, UTF-8 name), written to a temporary file that is renamed into place.
+ */
+public class PlayerNameIndex {
+
+    private static final int HEADER_SIZE = 24;
+    private static final int MAGIC = 0x53424E4D; // "SBNM"
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Logger logger;
+    private final int maxEntries;
+    private final Map<UUID, Entry> byUuid = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byName = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+
+    private static final class Entry {
+        private final UUID uuid;
+        private final String name;
+        private volatile long lastSeen;
+
+        private Entry(UUID uuid, String name, long lastSeen) {
+            this.uuid = uuid;
+            this.name = name;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    /**
+     * @param file The file to keep the index in
+     * @param logger Receives load statistics
+     * @param maxEntries The most players to keep
+     */
+    public PlayerNameIndex(File file, Logger logger, int maxEntries) {
+        this.file = file;
+        this.logger = logger;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Reads the saved index, if there is one
+     * @throws IOException If the file cannot be read or is corrupt; the index is left empty
+     */
+    public synchronized void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException(file.getName() + " is not a player name index");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException(file.getName() + " has unsupported version " + data.getInt(4));
+        }
+        long count = data.getLong(8);
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(HEADER_SIZE, data.capacity() - HEADER_SIZE));
+        if ((int) crc.getValue() != data.getInt(16)) {
+            throw new IOException(file.getName() + " failed its checksum, the file is corrupt");
+        }
+
+        data.position(HEADER_SIZE);
+        for (long i = 0; i < count; i++) {
+            UUID uuid = new UUID(data.getLong(), data.getLong());
+            long lastSeen = data.getLong();
+            byte[] name = new byte[data.get() & 0xFF];
+            data.get(name);
+            put(uuid, new String(name, StandardCharsets.UTF_8), lastSeen);
+        }
+        logger.fine("Loaded " + count + " player names from " + file.getName());
+    }
+
+    /**
+     * Records a player's current name; called when they join
+     * @param uuid The player's UUID
+     * @param name The player's name
+     */
+    public void record(UUID uuid, String name) {
+        record(uuid, name, System.currentTimeMillis());
+    }
+
+    /**
+     * Records a player's name as of a point in time; an older record than the one kept is ignored
+     * @param uuid The player's UUID
+     * @param name The player's name
+     * @param lastSeen When the player was last seen with this name, in epoch millis
+     */
+    public void record(UUID uuid, String name, long lastSeen) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        Entry current = byUuid.get(uuid);
+        if (current != null && current.name.equals(name)) {
+            if (lastSeen > current.lastSeen) {
+                current.lastSeen = lastSeen;
+                changed = true;
+            }
+            return;
+        }
+        synchronized (this) {
+            current = byUuid.get(uuid);
+            if (current != null && current.lastSeen > lastSeen) {
+                return;
+            }
+            put(uuid, name, lastSeen);
+            changed = true;
+        }
+    }
+
+    /**
+     * @param name A player name, in any case
+     * @return The UUID of the player last seen with that name, or null if nobody was
+     */
+    public UUID getUuid(String name) {
+        Entry entry = byName.get(name.toLowerCase(Locale.ROOT));
+        return entry != null ? entry.uuid : null;
+    }
+
+    /**
+     * @param uuid A player's UUID
+     * @return The name the player was last seen with, or null if they are not in the index
+     */
+    public String getName(UUID uuid) {
+        Entry entry = byUuid.get(uuid);
+        return entry != null ? entry.name : null;
+    }
+
+    /**
+     * @return The number of players in the index
+     */
+    public int size() {
+        return byUuid.size();
+    }
+
+    /**
+     * Drops the players seen longest ago down to the limit and writes the index, if anything changed
+     * @throws IOException If the file could not be written; the index is written again next time
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        try {
+            trim();
+            write();
+        } catch (IOException | RuntimeException e) {
+            changed = true;
+            throw e;
+        }
+    }
+
+    private void put(UUID uuid, String name, long lastSeen) {
+        Entry entry = new Entry(uuid, name, lastSeen);
+        Entry previous = byUuid.put(uuid, entry);
+        if (previous != null) {
+            byName.remove(previous.name.toLowerCase(Locale.ROOT), previous);
+        }
+        // Names can move to another player after a rename; the one seen last keeps it
+        byName.merge(name.toLowerCase(Locale.ROOT), entry,
+                (old, added) -> old.lastSeen > added.lastSeen ? old : added);
+    }
+
+    private void trim() {
+        int excess = byUuid.size() - maxEntries;
+        if (excess <= 0) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(byUuid.values());
+        entries.sort(Comparator.comparingLong(entry -> entry.lastSeen));
+        for (int i = 0; i < excess; i++) {
+            Entry entry = entries.get(i);
+            byUuid.remove(entry.uuid, entry);
+            byName.remove(entry.name.toLowerCase(Locale.ROOT), entry);
+        }
+    }
+
+    private void write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + byUuid.size() * 40);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[HEADER_SIZE]);
+        long count = 0;
+        for (Entry entry : byUuid.values()) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 255) {
+                continue;
+            }
+            out.writeLong(entry.uuid.getMostSignificantBits());
+            out.writeLong(entry.uuid.getLeastSignificantBits());
+            out.writeLong(entry.lastSeen);
+            out.writeByte(name.length);
+            out.write(name);
+            count++;
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(HEADER_SIZE, data.capacity() - HEADER_SIZE));
+        data.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, count).putInt(16, (int) crc.getValue()).putInt(20, 0);
+
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        DurableFiles.moveAtomically(tempFile, file);
+    }
+}
@@ -0,0 +1,170 @@
+package com.flowey258.simplebank.data;
+
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The interest periods evicted accounts were settled for, kept on disk so they cost no memory.
+ *
+ * A 16 byte header (magic, version, record count) is followed by fixed 24 byte records of
+ * (uuid most, uuid least, period), sorted by UUID. The file is memory-mapped for reading, so a
+ * lookup is a binary search, and writes merge a batch into it in one pass, like
+ * {@link BinaryBankStorage}. Periods only mean something until the plugin disables, so the file
+ * is never forced to disk and is thrown away when it is opened again.
+ */
+public class SettledPeriodFile {
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+
+    private static final int MAGIC = 0x53424950; // "SBIP"
+    private static final int VERSION = 1;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    private final File file;
+
+    // Replaced as a whole after every write so readers always see one consistent file
+    private volatile ByteBuffer records = ByteBuffer.allocate(0);
+
+    public SettledPeriodFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Starts over with no periods, deleting what an earlier run left behind
+     */
+    public synchronized void open() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file.getName());
+        }
+        file.getParentFile().mkdirs();
+        records = ByteBuffer.allocate(0);
+        write(new long[0], 0);
+    }
+
+    /**
+     * @return The settled period of an evicted account, or 0 if there is none
+     */
+    public long get(long msb, long lsb) {
+        ByteBuffer current = records;
+        int low = 0;
+        int high = current.capacity() / RECORD_SIZE - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(current.getLong(mid * RECORD_SIZE), current.getLong(mid * RECORD_SIZE + 8), msb, lsb);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return current.getLong(mid * RECORD_SIZE + 16);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds the periods in a map, replacing the ones stored for the same accounts
+     */
+    public synchronized void putAll(UuidLongMap periods) throws IOException {
+        List<long[]> entries = new ArrayList<>(periods.size());
+        periods.forEach((msb, lsb, period) -> entries.add(new long[]{msb, lsb, period}));
+        if (entries.isEmpty()) {
+            return;
+        }
+        entries.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+        long[] changed = new long[entries.size() * 3];
+        for (int i = 0; i < entries.size(); i++) {
+            System.arraycopy(entries.get(i), 0, changed, i * 3, 3);
+        }
+        write(changed, entries.size());
+    }
+
+    /**
+     * Merges the sorted changes, as (msb, lsb, period) triples, into the current records and maps the result
+     */
+    private void write(long[] changed, int changedCount) throws IOException {
+        ByteBuffer current = records;
+        int currentCount = current.capacity() / RECORD_SIZE;
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * WRITE_BUFFER_RECORDS);
+
+            int old = 0;
+            int next = 0;
+            while (old < currentCount || next < changedCount) {
+                int order = old == currentCount ? 1
+                        : next == changedCount ? -1
+                        : compare(current.getLong(old * RECORD_SIZE), current.getLong(old * RECORD_SIZE + 8),
+                        changed[next * 3], changed[next * 3 + 1]);
+                if (order < 0) {
+                    buffer.put(current.slice(old++ * RECORD_SIZE, RECORD_SIZE));
+                } else {
+                    buffer.putLong(changed[next * 3]).putLong(changed[next * 3 + 1]).putLong(changed[next * 3 + 2]);
+                    next++;
+                    if (order == 0) {
+                        old++;
+                    }
+                }
+                count++;
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+            }
+            drain(channel, buffer);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(count);
+            channel.position(0);
+            drain(channel, buffer);
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        records = map(count);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private ByteBuffer map(long count) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_SIZE + count * RECORD_SIZE) {
+                throw new IOException(file.getName() + " changed while it was being written");
+            }
+            if (count > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException(file.getName() + " holds more periods than can be mapped");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return data.slice(HEADER_SIZE, (int) (count * RECORD_SIZE));
+        }
+    }
+
+    private static int compare(long msbA, long lsbA, long msbB, long lsbB) {
+        int order = Long.compare(msbA, msbB);
+        return order != 0 ? order : Long.compare(lsbA, lsbB);
+    }
+}
@@ -0,0 +1,205 @@
+package com.flowey258.simplebank.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Stores balances in an embedded SQLite database (bankdata.db).
+ * Uses the SQLite driver bundled with the server.
+ *
+ * Writes go through one connection on the I/O thread. Reads have their own read-only
+ * connection: in WAL mode it sees the last committed batch, so loading a cold account never
+ * waits for a flush transaction to finish. The intent log checkpoint is kept in a second table,
+ * updated in the same transaction as the balances.
+ */
+public class SqliteBankStorage implements BankStorage {
+
+    private static final String TABLE = "bank_accounts";
+    private static final String META_TABLE = "bank_meta";
+    private static final String CHECKPOINT = "intent-checkpoint";
+    // SQLITE_OPEN_READONLY
+    private static final String READ_ONLY = "1";
+
+    private final File databaseFile;
+    private final Logger logger;
+    // Guarded by this
+    private Connection connection;
+    // Guarded by readLock
+    private Connection readConnection;
+    private final Object readLock = new Object();
+    // Guarded by this
+    private long checkpoint;
+    private long storedCheckpoint;
+
+    public SqliteBankStorage(File databaseFile, Logger logger) {
+        this.databaseFile = databaseFile;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        databaseFile.getParentFile().mkdirs();
+        try {
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                // WAL lets reads proceed while the I/O thread commits a batch
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                        + "uuid CHAR(36) PRIMARY KEY NOT NULL, "
+                        + "balance DOUBLE NOT NULL)");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + META_TABLE + " ("
+                        + "name VARCHAR(64) PRIMARY KEY NOT NULL, "
+                        + "value BIGINT NOT NULL)");
+            }
+            connection.setAutoCommit(false);
+            connection.commit();
+            checkpoint = readCheckpoint();
+            storedCheckpoint = checkpoint;
+
+            Properties readOnly = new Properties();
+            readOnly.setProperty("open_mode", READ_ONLY);
+            synchronized (readLock) {
+                readConnection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath(), readOnly);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("SQLite driver not found on the server", e);
+        } catch (SQLException e) {
+            throw new IOException("Could not open SQLite database " + databaseFile.getName(), e);
+        }
+    }
+
+    private long readCheckpoint() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT value FROM " + META_TABLE + " WHERE name = ?")) {
+            statement.setString(1, CHECKPOINT);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getLong(1) : 0;
+            } finally {
+                connection.commit();
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, Double> loadAll() throws IOException {
+        Map<UUID, Double> data = new HashMap<>();
+        synchronized (readLock) {
+            try (Statement statement = readConnection.createStatement();
+                 ResultSet results = statement.executeQuery("SELECT uuid, balance FROM " + TABLE + " WHERE balance > 0")) {
+                while (results.next()) {
+                    String uuidString = results.getString(1);
+                    try {
+                        data.put(UUID.fromString(uuidString), results.getDouble(2));
+                    } catch (IllegalArgumentException e) {
+                        logger.warning("Invalid UUID in bank data: " + uuidString);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IOException("Could not load bank data", e);
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public double load(UUID uuid) throws IOException {
+        synchronized (readLock) {
+            try (PreparedStatement statement = readConnection.prepareStatement(
+                    "SELECT balance FROM " + TABLE + " WHERE uuid = ?")) {
+                statement.setString(1, uuid.toString());
+                try (ResultSet results = statement.executeQuery()) {
+                    return results.next() ? results.getDouble(1) : 0.0;
+                }
+            } catch (SQLException e) {
+                throw new IOException("Could not load bank data for " + uuid, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void saveBatch(Map<UUID, Double> balances) throws IOException {
+        if (balances.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (uuid, balance) VALUES (?, ?) "
+                        + "ON CONFLICT(uuid) DO UPDATE SET balance = excluded.balance");
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + TABLE + " WHERE uuid = ?")) {
+            for (Map.Entry<UUID, Double> entry : balances.entrySet()) {
+                if (entry.getValue() <= 0) {
+                    delete.setString(1, entry.getKey().toString());
+                    delete.addBatch();
+                } else {
+                    upsert.setString(1, entry.getKey().toString());
+                    upsert.setDouble(2, entry.getValue());
+                    upsert.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+            if (checkpoint != storedCheckpoint) {
+                try (PreparedStatement meta = connection.prepareStatement(
+                        "INSERT INTO " + META_TABLE + " (name, value) VALUES (?, ?) "
+                                + "ON CONFLICT(name) DO UPDATE SET value = excluded.value")) {
+                    meta.setString(1, CHECKPOINT);
+                    meta.setLong(2, checkpoint);
+                    meta.executeUpdate();
+                }
+            }
+            connection.commit();
+            storedCheckpoint = checkpoint;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw new IOException("Could not save bank data", e);
+        }
+    }
+
+    @Override
+    public synchronized void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            synchronized (readLock) {
+                if (readConnection != null) {
+                    readConnection.close();
+                }
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not close SQLite database", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "SQLITE";
+    }
+}
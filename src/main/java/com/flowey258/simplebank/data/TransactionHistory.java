@@ -0,0 +1,1106 @@
+package com.flowey258.simplebank.data;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The balance changes of every account, newest first.
+ *
+ * Each account keeps its newest entries in a primitive ring buffer of (type and timestamp,
+ * amount, balance after). Once the ring holds {@code memoryEntries} plus one block of entries,
+ * the oldest block is moved to the data file, history.dat, where every block is {@link #BLOCK_SIZE}
+ * bytes: uuid, the block's number within the account, a CRC32 and {@link #BLOCK_ENTRIES} entries.
+ * The file offsets of an account's blocks are kept in order, so any entry is found by its number
+ * without scanning, and a page of entries touches at most two blocks. Only the newest blocks up to
+ * {@code maxEntries} are kept; older ones are forgotten.
+ *
+ * Accounts are only in memory from their first change until {@link #unload}, which appends the
+ * account's offsets and ring as a record to parked.dat and keeps just the record's position. The
+ * account is read back from there on its next change. {@link #close()} writes the record of every
+ * account to index.dat, and first copies the kept blocks to a new data file once more than half of
+ * the old one is forgotten blocks.
+ *
+ * Blocks are written in the background by {@link #flush()}. After a crash, records and blocks
+ * written since the index was saved are found again by reading the end of parked.dat and the data
+ * file, but entries that were only in memory are gone.
+ */
+public class TransactionHistory {
+
+    public static final int BLOCK_ENTRIES = 8;
+    public static final int BLOCK_HEADER_SIZE = 24;
+    public static final int BLOCK_SIZE = BLOCK_HEADER_SIZE + BLOCK_ENTRIES * 24;
+
+    private static final int INDEX_MAGIC = 0x53424849; // "SBHI"
+    private static final int INDEX_VERSION = 2;
+    private static final int INDEX_HEADER_SIZE = 28;
+    // uuid, spilled entries, block count, ring entries
+    private static final int RECORD_HEADER_SIZE = 32;
+    private static final int PARKED_HEADER_SIZE = 8;
+    // Set on the positions of records in parked.dat; the others are in index.dat
+    private static final long PARKED = 1L << 62;
+    private static final Pattern DATA_FILE = Pattern.compile("history(?:-(\\d+))?\\.dat");
+    // Longs per entry: type and timestamp, amount, balance after
+    private static final int ENTRY_LONGS = 3;
+    private static final int INITIAL_RING_ENTRIES = 4;
+
+    /**
+     * One balance change
+     */
+    public static final class Entry {
+        private final TransactionType type;
+        private final long amount;
+        private final long balance;
+        private final long timestamp;
+
+        private Entry(long stamp, long amount, long balance) {
+            this.type = TransactionType.fromId((byte) stamp);
+            this.amount = amount;
+            this.balance = balance;
+            this.timestamp = stamp >>> 8;
+        }
+
+        /**
+         * @return What caused the change, or null if it was written by a newer version
+         */
+        public TransactionType getType() {
+            return type;
+        }
+
+        /**
+         * @return The change, negative if money left the account
+         */
+        public double getAmount() {
+            return MoneyUtils.toMajor(amount);
+        }
+
+        /**
+         * @return The balance after the change
+         */
+        public double getBalance() {
+            return MoneyUtils.toMajor(balance);
+        }
+
+        /**
+         * @return When the change happened, in epoch millis
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * The history of one account; guarded by its own monitor
+     */
+    private static final class Account {
+        private final long msb;
+        private final long lsb;
+        private long[] ring = new long[INITIAL_RING_ENTRIES * ENTRY_LONGS];
+        // Index of the oldest entry in the ring, and the number of entries in it
+        private int head;
+        private int count;
+        // Entries moved out of the ring, always whole blocks
+        private long spilled;
+        // File offsets of the kept blocks, a ring starting at blockHead; -1 while a block is waiting to be written
+        private long[] blocks = new long[0];
+        private int blockHead;
+        private int blockCount;
+        // The blocks waiting to be written, which are always the newest ones
+        private final List<long[]> unwritten = new ArrayList<>(1);
+        // Set once the account was parked; whoever still holds this object looks it up again
+        private boolean unloaded;
+
+        private Account(long msb, long lsb) {
+            this.msb = msb;
+            this.lsb = lsb;
+        }
+
+        private int capacity() {
+            return ring.length / ENTRY_LONGS;
+        }
+
+        private long total() {
+            return spilled + count;
+        }
+
+        /**
+         * @return The number of the oldest block that is kept
+         */
+        private long firstBlock() {
+            return spilled / BLOCK_ENTRIES - blockCount;
+        }
+
+        private long getBlock(long number) {
+            return blocks[(int) ((blockHead + number - firstBlock()) % blocks.length)];
+        }
+
+        private void setBlock(long number, long offset) {
+            if (number >= firstBlock()) {
+                blocks[(int) ((blockHead + number - firstBlock()) % blocks.length)] = offset;
+            }
+        }
+
+        private void append(long stamp, long amount, long balance) {
+            int slot = (head + count) % capacity() * ENTRY_LONGS;
+            ring[slot] = stamp;
+            ring[slot + 1] = amount;
+            ring[slot + 2] = balance;
+            count++;
+        }
+
+        /**
+         * Copies entry {@code index} of the ring, 0 being the oldest, into {@code target}
+         */
+        private void copy(int index, long[] target, int targetIndex) {
+            System.arraycopy(ring, (head + index) % capacity() * ENTRY_LONGS, target, targetIndex * ENTRY_LONGS, ENTRY_LONGS);
+        }
+
+        private void resize(int entries) {
+            long[] resized = new long[entries * ENTRY_LONGS];
+            for (int i = 0; i < count; i++) {
+                copy(i, resized, i);
+            }
+            ring = resized;
+            head = 0;
+        }
+
+        /**
+         * Moves the oldest block out of the ring
+         * @return The block's entries
+         */
+        private long[] spill(int maxBlocks) {
+            long[] block = new long[BLOCK_ENTRIES * ENTRY_LONGS];
+            for (int i = 0; i < BLOCK_ENTRIES; i++) {
+                copy(i, block, i);
+            }
+            head = (head + BLOCK_ENTRIES) % capacity();
+            count -= BLOCK_ENTRIES;
+            spilled += BLOCK_ENTRIES;
+            addBlock(-1, maxBlocks);
+            unwritten.add(block);
+            return block;
+        }
+
+        /**
+         * Keeps the offset of a new newest block, forgetting the oldest one if {@code maxBlocks} are kept
+         */
+        private void addBlock(long offset, int maxBlocks) {
+            if (blockCount == maxBlocks) {
+                blockHead = (blockHead + 1) % blocks.length;
+                blockCount--;
+            }
+            if (blockCount == blocks.length) {
+                long[] grown = new long[Math.min(maxBlocks, Math.max(4, blocks.length * 2))];
+                for (int i = 0; i < blockCount; i++) {
+                    grown[i] = blocks[(blockHead + i) % blocks.length];
+                }
+                blocks = grown;
+                blockHead = 0;
+            }
+            blocks[(blockHead + blockCount) % blocks.length] = offset;
+            blockCount++;
+        }
+
+        /**
+         * Adds a block recovered from the file, dropping the oldest ring entries it already holds
+         */
+        private void recoverBlock(long offset, int maxBlocks) {
+            int drop = Math.min(count, BLOCK_ENTRIES);
+            head = (head + drop) % capacity();
+            count -= drop;
+            spilled += BLOCK_ENTRIES;
+            addBlock(offset, maxBlocks);
+        }
+    }
+
+    private static final class PendingBlock {
+        private final Account account;
+        private final long number;
+        private final long[] entries;
+
+        private PendingBlock(Account account, long number, long[] entries) {
+            this.account = account;
+            this.number = number;
+            this.entries = entries;
+        }
+    }
+
+    private final File directory;
+    private final File indexFile;
+    private final File parkedFile;
+    private final Logger logger;
+    private final int maxRingEntries;
+    private final int maxBlocks;
+
+    // Account slot + 1 per UUID; the slots of unloaded accounts are reused, under the creation lock
+    private final UuidLongMap slots = new UuidLongMap(1024);
+    private volatile Account[] accounts = new Account[1024];
+    private int accountCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private final Object createLock = new Object();
+    // Record position of every account that is not in memory; changed under the creation lock
+    private final UuidLongMap records = new UuidLongMap(1024);
+    // Blocks some account still keeps; exact after a clean shutdown, an estimate after a crash
+    private final LongAdder liveBlocks = new LongAdder();
+
+    private final Queue<PendingBlock> pending = new ConcurrentLinkedQueue<>();
+    private final Object ioLock = new Object();
+    // Written under the IO lock; read without it by getEntries
+    private volatile FileChannel channel;
+    private volatile FileChannel indexChannel;
+    private volatile FileChannel parkedChannel;
+    // Written under the IO lock
+    private long dataNumber;
+    private long dataLength;
+    private long parkedLength;
+    // Matches parked.dat to the index it continues
+    private long generation;
+
+    /**
+     * @param directory The directory to keep the history files in
+     * @param logger Receives recovery messages
+     * @param memoryEntries The newest entries per account to always keep in memory
+     * @param maxEntries The entries per account to keep in all; at least {@code memoryEntries} plus one block are kept
+     */
+    public TransactionHistory(File directory, Logger logger, int memoryEntries, int maxEntries) {
+        this.directory = directory;
+        this.indexFile = new File(directory, "index.dat");
+        this.parkedFile = new File(directory, "parked.dat");
+        this.logger = logger;
+        this.maxRingEntries = Math.max(1, memoryEntries) + BLOCK_ENTRIES;
+        this.maxBlocks = Math.max(1, (maxEntries - Math.max(1, memoryEntries) + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES);
+    }
+
+    /**
+     * Loads the index and recovers records and blocks written after it was saved
+     * @throws IOException If the files cannot be opened; a damaged index is rebuilt from the data file
+     */
+    public void open() throws IOException {
+        directory.mkdirs();
+        synchronized (ioLock) {
+            long indexed = 0;
+            dataNumber = newestDataNumber();
+            if (indexFile.exists()) {
+                try {
+                    indexed = readIndex();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not read the transaction history index, rebuilding it", e);
+                    clear();
+                }
+            }
+            channel = FileChannel.open(dataFile(dataNumber).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            deleteOtherDataFiles();
+            openParked();
+            dataLength = recover(Math.min(indexed, channel.size() / BLOCK_SIZE * BLOCK_SIZE));
+            channel.truncate(dataLength);
+
+            // Accounts read from an old index or that had blocks recovered
+            synchronized (createLock) {
+                for (int i = 0; i < accountCount; i++) {
+                    if (accounts[i] != null) {
+                        park(accounts[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a balance change; called under the account's lock. The first change of an account
+     * that is not in memory reads its record back.
+     * @param msb The account's UUID, most significant bits
+     * @param lsb The account's UUID, least significant bits
+     * @param amount The change in minor units
+     * @param balance The balance after the change, in minor units
+     * @param type What caused the change
+     */
+    public void record(long msb, long lsb, long amount, long balance, TransactionType type) {
+        long stamp = System.currentTimeMillis() << 8 | (type.getId() & 0xFF);
+        while (true) {
+            Account account = account(msb, lsb, true);
+            synchronized (account) {
+                if (account.unloaded) {
+                    continue;
+                }
+                if (account.count == account.capacity()) {
+                    if (account.capacity() < maxRingEntries) {
+                        account.resize(Math.min(maxRingEntries, account.capacity() * 2));
+                    } else {
+                        int kept = account.blockCount;
+                        long[] block = account.spill(maxBlocks);
+                        liveBlocks.add(account.blockCount - kept);
+                        pending.add(new PendingBlock(account, account.spilled / BLOCK_ENTRIES - 1, block));
+                    }
+                }
+                account.append(stamp, amount, balance);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param uuid The account
+     * @return The number of entries the account has kept
+     * @throws IOException If the account is not in memory and its record could not be read
+     */
+    public long getEntryCount(UUID uuid) throws IOException {
+        while (true) {
+            Account account = lookup(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (account == null) {
+                return 0;
+            }
+            synchronized (account) {
+                if (!account.unloaded) {
+                    return account.total() - account.firstBlock() * BLOCK_ENTRIES;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a range of an account's history; reads at most two blocks from disk for a page of
+     * {@link #BLOCK_ENTRIES} entries or fewer, plus the account's record if it is not in memory
+     * @param uuid The account
+     * @param skip The number of newest entries to skip
+     * @param limit The most entries to return
+     * @return The entries, newest first
+     * @throws IOException If an entry that was moved to disk could not be read
+     */
+    public List<Entry> getEntries(UUID uuid, long skip, int limit) throws IOException {
+        if (limit <= 0 || skip < 0) {
+            return Collections.emptyList();
+        }
+
+        // Copy what is in memory and note the blocks to read, then read them without holding the account
+        Account account;
+        long[] entries;
+        long[] offsets;
+        long first;
+        int size;
+        while (true) {
+            account = lookup(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (account == null) {
+                return Collections.emptyList();
+            }
+            synchronized (account) {
+                if (account.unloaded) {
+                    continue;
+                }
+                long total = account.total();
+                long newest = total - 1 - skip;
+                long oldest = account.firstBlock() * BLOCK_ENTRIES;
+                if (newest < oldest) {
+                    return Collections.emptyList();
+                }
+                first = Math.max(oldest, newest - limit + 1);
+                size = (int) (newest - first + 1);
+                entries = new long[size * ENTRY_LONGS];
+                offsets = new long[size];
+                long firstUnwritten = account.spilled / BLOCK_ENTRIES - account.unwritten.size();
+                for (int i = 0; i < size; i++) {
+                    long number = first + i;
+                    offsets[i] = -1;
+                    if (number >= account.spilled) {
+                        account.copy((int) (number - account.spilled), entries, i);
+                        continue;
+                    }
+                    long block = number / BLOCK_ENTRIES;
+                    int slot = (int) (number % BLOCK_ENTRIES);
+                    if (block >= firstUnwritten) {
+                        System.arraycopy(account.unwritten.get((int) (block - firstUnwritten)), slot * ENTRY_LONGS,
+                                entries, i * ENTRY_LONGS, ENTRY_LONGS);
+                    } else {
+                        offsets[i] = account.getBlock(block);
+                    }
+                }
+                break;
+            }
+        }
+
+        ByteBuffer block = null;
+        long loaded = -1;
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] < 0) {
+                continue;
+            }
+            if (offsets[i] != loaded) {
+                if (block == null) {
+                    block = ByteBuffer.allocate(BLOCK_SIZE);
+                }
+                readBlock(channel, offsets[i], block, account.msb, account.lsb);
+                loaded = offsets[i];
+            }
+            int position = BLOCK_HEADER_SIZE + (int) ((first + i) % BLOCK_ENTRIES) * ENTRY_LONGS * 8;
+            for (int j = 0; j < ENTRY_LONGS; j++) {
+                entries[i * ENTRY_LONGS + j] = block.getLong(position + j * 8);
+            }
+        }
+
+        List<Entry> result = new ArrayList<>(size);
+        for (int i = size - 1; i >= 0; i--) {
+            result.add(new Entry(entries[i * ENTRY_LONGS], entries[i * ENTRY_LONGS + 1], entries[i * ENTRY_LONGS + 2]));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the blocks moved out of memory since the last flush
+     * @throws IOException If a block could not be written; it is tried again next time
+     */
+    public void flush() throws IOException {
+        synchronized (ioLock) {
+            if (channel == null) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            PendingBlock block;
+            while ((block = pending.peek()) != null) {
+                buffer.clear();
+                buffer.putLong(block.account.msb).putLong(block.account.lsb).putInt((int) block.number).putInt(0);
+                for (long value : block.entries) {
+                    buffer.putLong(value);
+                }
+                buffer.putInt(20, checksum(buffer));
+                buffer.flip();
+                long offset = dataLength;
+                writeFully(channel, buffer, offset);
+                dataLength += BLOCK_SIZE;
+                pending.poll();
+
+                synchronized (block.account) {
+                    block.account.setBlock(block.number, offset);
+                    block.account.unwritten.remove(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an account's history to parked.dat and drops it from memory; called when the account
+     * is evicted, while nothing can change it. Does nothing once the history is closed.
+     * @param msb The account's UUID, most significant bits
+     * @param lsb The account's UUID, least significant bits
+     * @throws IOException If the record could not be written; the account then stays in memory
+     */
+    public void unload(long msb, long lsb) throws IOException {
+        synchronized (ioLock) {
+            if (channel == null) {
+                return;
+            }
+            // The record holds the offsets of its blocks, so they are written first
+            flush();
+            synchronized (createLock) {
+                Account account = find(msb, lsb);
+                if (account != null) {
+                    park(account);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending blocks and saves the index, holding the record of every account
+     * @throws IOException If the history could not be saved
+     */
+    public void close() throws IOException {
+        synchronized (ioLock) {
+            if (channel == null) {
+                return;
+            }
+            long oldNumber = dataNumber;
+            FileChannel target = null;
+            try {
+                flush();
+                channel.force(true);
+                // Worth rewriting once more than half of the file are blocks no account keeps any more
+                if (dataLength > 2 * liveBlocks.sum() * BLOCK_SIZE) {
+                    target = FileChannel.open(dataFile(oldNumber + 1).toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                File tempFile = new File(directory, indexFile.getName() + ".tmp");
+                writeIndex(tempFile, target);
+                if (target != null) {
+                    target.force(true);
+                }
+                // Records are copied from the old index, which cannot be replaced while it is open on Windows
+                closeQuietly(indexChannel);
+                indexChannel = null;
+                DurableFiles.moveAtomically(tempFile, indexFile);
+                if (target != null) {
+                    dataNumber = oldNumber + 1;
+                }
+            } finally {
+                closeQuietly(target);
+                closeQuietly(indexChannel);
+                closeQuietly(parkedChannel);
+                indexChannel = null;
+                parkedChannel = null;
+                channel.close();
+                channel = null;
+            }
+            if (dataNumber != oldNumber) {
+                logger.info("Compacted the transaction history from " + (dataLength >> 10) + " KiB.");
+                deleteOtherDataFiles();
+            }
+        }
+    }
+
+    /**
+     * @return The account in memory, or null if it is not
+     */
+    private Account find(long msb, long lsb) {
+        long slot = slots.get(msb, lsb);
+        if (slot == 0) {
+            return null;
+        }
+        Account account = accounts[(int) slot - 1];
+        // The slot may have been given to another account since it was read
+        return account != null && account.msb == msb && account.lsb == lsb ? account : null;
+    }
+
+    /**
+     * @return The account in memory, a copy read from its record if it is not, or null if it has no history
+     */
+    private Account lookup(long msb, long lsb) throws IOException {
+        while (true) {
+            Account account = find(msb, lsb);
+            if (account != null) {
+                return account;
+            }
+            long record = records.get(msb, lsb);
+            if (record != 0) {
+                return readRecord(record);
+            }
+            // Read back into memory in between, which adds it before removing the record
+            if (find(msb, lsb) == null) {
+                return null;
+            }
+        }
+    }
+
+    private Account account(long msb, long lsb, boolean create) {
+        Account account = find(msb, lsb);
+        if (account != null || !create) {
+            return account;
+        }
+        synchronized (createLock) {
+            account = find(msb, lsb);
+            if (account != null) {
+                return account;
+            }
+            long record = records.get(msb, lsb);
+            if (record != 0) {
+                try {
+                    account = readRecord(record);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Could not read the transaction history of " + new UUID(msb, lsb)
+                            + ", it starts over!", e);
+                }
+            }
+            if (account == null) {
+                account = new Account(msb, lsb);
+            }
+            // Added before the record is removed, so readers always find one of them
+            add(account);
+            records.remove(msb, lsb);
+            return account;
+        }
+    }
+
+    /**
+     * Adds an account; the caller holds the creation lock or is the only thread
+     */
+    private Account add(Account account) {
+        Account[] current = accounts;
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (accountCount == current.length) {
+                Account[] grown = new Account[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            slot = accountCount++;
+        }
+        current[slot] = account;
+        // Publish the array before the slot, so a reader that finds the slot also finds the account
+        accounts = current;
+        slots.put(account.msb, account.lsb, slot + 1, 0);
+        return account;
+    }
+
+    /**
+     * Appends an account's record to parked.dat and drops it from memory;
+     * the caller holds the IO lock and the creation lock
+     */
+    private void park(Account account) throws IOException {
+        synchronized (account) {
+            ByteBuffer record = toRecord(account);
+            long offset = parkedLength;
+            writeFully(parkedChannel, record, offset);
+            parkedLength += record.limit();
+            // Stored before the account is removed, so readers always find one of them
+            records.put(account.msb, account.lsb, offset | PARKED, 0);
+            account.unloaded = true;
+        }
+        int slot = (int) slots.remove(account.msb, account.lsb) - 1;
+        accounts[slot] = null;
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void clear() {
+        synchronized (createLock) {
+            for (int i = 0; i < accountCount; i++) {
+                if (accounts[i] != null) {
+                    slots.remove(accounts[i].msb, accounts[i].lsb);
+                }
+            }
+            accounts = new Account[1024];
+            accountCount = 0;
+            freeCount = 0;
+            records.drain((msb, lsb, position) -> {
+            });
+            liveBlocks.reset();
+            dataNumber = newestDataNumber();
+            generation = 0;
+        }
+    }
+
+    private File dataFile(long number) {
+        return new File(directory, number == 0 ? "history.dat" : "history-" + number + ".dat");
+    }
+
+    /**
+     * @return The number of the newest data file, for when there is no index naming it
+     */
+    private long newestDataNumber() {
+        long newest = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = DATA_FILE.matcher(file.getName());
+                if (matcher.matches() && matcher.group(1) != null) {
+                    newest = Math.max(newest, Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Deletes data files replaced by compacting, or left behind when compacting was interrupted
+     */
+    private void deleteOtherDataFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        String current = dataFile(dataNumber).getName();
+        for (File file : files) {
+            if (DATA_FILE.matcher(file.getName()).matches() && !file.getName().equals(current) && !file.delete()) {
+                logger.warning("Could not delete the old transaction history file " + file.getName() + ".");
+            }
+        }
+    }
+
+    private static void readBlock(FileChannel file, long offset, ByteBuffer block, long msb, long lsb) throws IOException {
+        if (file == null) {
+            throw new IOException("The transaction history is closed");
+        }
+        block.clear();
+        readFully(file, block, offset);
+        if (block.getLong(0) != msb || block.getLong(8) != lsb || block.getInt(20) != checksum(block)) {
+            throw new IOException("Block at " + offset + " of the transaction history is corrupt");
+        }
+    }
+
+    /**
+     * Reads blocks after the indexed part of the data file, stopping at the first damaged one
+     * @return The length of the valid part of the file
+     */
+    private long recover(long from) throws IOException {
+        long size = channel.size();
+        long offset = from;
+        int recovered = 0;
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        while (offset + BLOCK_SIZE <= size) {
+            block.clear();
+            readFully(channel, block, offset);
+            if (block.getInt(20) != checksum(block)) {
+                break;
+            }
+            Account account = account(block.getLong(0), block.getLong(8), true);
+            if (block.getInt(16) == account.spilled / BLOCK_ENTRIES) {
+                int kept = account.blockCount;
+                account.recoverBlock(offset, maxBlocks);
+                liveBlocks.add(account.blockCount - kept);
+                recovered++;
+            }
+            offset += BLOCK_SIZE;
+        }
+        if (recovered > 0) {
+            logger.info("Recovered " + recovered + " transaction history blocks written after the last shutdown.");
+        }
+        if (offset < size) {
+            logger.warning("Dropped " + (size - offset) + " bytes of damaged transaction history at the end of "
+                    + dataFile(dataNumber).getName() + ".");
+        }
+        return offset;
+    }
+
+    private static int checksum(ByteBuffer block) {
+        CRC32 crc = new CRC32();
+        crc.update(block.array(), 0, 20);
+        crc.update(block.array(), BLOCK_HEADER_SIZE, BLOCK_SIZE - BLOCK_HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Opens parked.dat and replays the records written since the index was saved,
+     * or starts it over if they belong to an older index
+     */
+    private void openParked() throws IOException {
+        parkedChannel = FileChannel.open(parkedFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = parkedChannel.size();
+        ByteBuffer header = ByteBuffer.allocate(PARKED_HEADER_SIZE);
+        if (size >= PARKED_HEADER_SIZE) {
+            readFully(parkedChannel, header, 0);
+        }
+        if (size < PARKED_HEADER_SIZE || header.getLong(0) != generation) {
+            parkedChannel.truncate(0);
+            header.putLong(0, generation);
+            writeFully(parkedChannel, header.clear(), 0);
+            parkedLength = PARKED_HEADER_SIZE;
+            return;
+        }
+
+        long offset = PARKED_HEADER_SIZE;
+        int replayed = 0;
+        while (offset < size) {
+            ByteBuffer record;
+            try {
+                record = readRecordBytes(parkedChannel, offset);
+            } catch (IOException e) {
+                break;
+            }
+            // Later records of an account replace earlier ones
+            records.put(record.getLong(0), record.getLong(8), offset | PARKED, 0);
+            offset += record.capacity();
+            replayed++;
+        }
+        if (replayed > 0) {
+            logger.info("Recovered " + replayed + " transaction history records written after the last shutdown.");
+        }
+        if (offset < size) {
+            logger.warning("Dropped " + (size - offset) + " bytes of damaged transaction history at the end of parked.dat.");
+            parkedChannel.truncate(offset);
+        }
+        parkedLength = offset;
+    }
+
+    /**
+     * Format: uuid, spilled entries, block count, ring entries, block offsets oldest first,
+     * ring entries oldest first, then a CRC32 of everything before it. Caller holds the account.
+     */
+    private static ByteBuffer toRecord(Account account) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + account.blockCount * 8
+                + account.count * ENTRY_LONGS * 8 + 4);
+        record.putLong(account.msb).putLong(account.lsb).putLong(account.spilled)
+                .putInt(account.blockCount).putInt(account.count);
+        for (int i = 0; i < account.blockCount; i++) {
+            record.putLong(account.blocks[(account.blockHead + i) % account.blocks.length]);
+        }
+        long[] entry = new long[ENTRY_LONGS];
+        for (int i = 0; i < account.count; i++) {
+            account.copy(i, entry, 0);
+            for (long value : entry) {
+                record.putLong(value);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.flip();
+    }
+
+    /**
+     * @param position The record's position, with {@link #PARKED} set if it is in parked.dat
+     * @return A copy of the account that is not in memory
+     */
+    private Account readRecord(long position) throws IOException {
+        FileChannel file = (position & PARKED) != 0 ? parkedChannel : indexChannel;
+        if (file == null) {
+            throw new IOException("The transaction history is closed");
+        }
+        ByteBuffer record = readRecordBytes(file, position & ~PARKED);
+        Account account = new Account(record.getLong(0), record.getLong(8));
+        account.spilled = record.getLong(16);
+        int blockCount = record.getInt(24);
+        int ringCount = record.getInt(28);
+        // Fewer blocks are kept if the limit was lowered since
+        int skipped = Math.max(0, blockCount - maxBlocks);
+        record.position(RECORD_HEADER_SIZE + skipped * 8);
+        for (int i = skipped; i < blockCount; i++) {
+            account.addBlock(record.getLong(), maxBlocks);
+        }
+        account.resize(Math.max(INITIAL_RING_ENTRIES, Math.max(ringCount, Math.min(maxRingEntries, ringCount * 2))));
+        for (int i = 0; i < ringCount; i++) {
+            account.append(record.getLong(), record.getLong(), record.getLong());
+        }
+        return account;
+    }
+
+    /**
+     * @return The whole record, its checksum verified
+     */
+    private static ByteBuffer readRecordBytes(FileChannel file, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(file, header, offset);
+        long blockCount = header.getInt(24);
+        long ringCount = header.getInt(28);
+        long size = RECORD_HEADER_SIZE + blockCount * 8 + ringCount * ENTRY_LONGS * 8 + 4;
+        if (blockCount < 0 || ringCount < 0 || offset + size > file.size()) {
+            throw new IOException("Record at " + offset + " of the transaction history is corrupt");
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) size);
+        readFully(file, record, offset);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.capacity() - 4);
+        if (record.getInt(record.capacity() - 4) != (int) crc.getValue()) {
+            throw new IOException("Record at " + offset + " of the transaction history is corrupt");
+        }
+        return record;
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("The transaction history ends in the middle of a block or record");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel file, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            file.write(buffer, offset + buffer.position());
+        }
+    }
+
+    private static void closeQuietly(FileChannel file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // Nothing left to lose, everything was written before
+        }
+    }
+
+    /**
+     * Format: magic, version, data file number, parked.dat generation, account count, then the
+     * record of every account (see {@link #toRecord}), then the data file's length, the blocks the
+     * records keep, and a CRC32 of everything before it.
+     * Caller holds the IO lock, with every block written.
+     * @param target A new data file to copy the kept blocks to, or null to keep the current one
+     */
+    private void writeIndex(File tempFile, FileChannel target) throws IOException {
+        CRC32 crc = new CRC32();
+        synchronized (createLock) {
+            try (FileOutputStream file = new FileOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16))) {
+                Account[] current = accounts;
+                // Copied out first, records cannot be read while iterating the map
+                long[] parked = new long[records.size() * 3];
+                int[] parkedCount = new int[1];
+                records.forEach((msb, lsb, position) -> {
+                    int i = parkedCount[0]++;
+                    parked[i * 3] = msb;
+                    parked[i * 3 + 1] = lsb;
+                    parked[i * 3 + 2] = position;
+                });
+                int count = parkedCount[0];
+                for (int i = 0; i < accountCount; i++) {
+                    if (current[i] != null) {
+                        count++;
+                    }
+                }
+
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(target != null ? dataNumber + 1 : dataNumber);
+                out.writeLong(generation + 1);
+                out.writeInt(count);
+                long[] length = {target != null ? 0 : dataLength};
+                long kept = 0;
+                for (int i = 0; i < accountCount; i++) {
+                    Account account = current[i];
+                    if (account != null) {
+                        synchronized (account) {
+                            kept += writeRecord(out, account, target, length);
+                        }
+                    }
+                }
+                for (int i = 0; i < parkedCount[0]; i++) {
+                    Account account;
+                    try {
+                        account = readRecord(parked[i * 3 + 2]);
+                    } catch (IOException e) {
+                        logger.log(Level.SEVERE, "Could not read the transaction history of "
+                                + new UUID(parked[i * 3], parked[i * 3 + 1]) + ", it starts over!", e);
+                        account = new Account(parked[i * 3], parked[i * 3 + 1]);
+                    }
+                    kept += writeRecord(out, account, target, length);
+                }
+                out.writeLong(length[0]);
+                out.writeLong(kept);
+                out.flush();
+                int checksum = (int) crc.getValue();
+                out.writeInt(checksum);
+                out.flush();
+                file.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * Writes an account's record, after copying its blocks to {@code target} if that is not null
+     * @param length The length of the target, increased by the blocks copied
+     * @return The number of blocks the account keeps
+     */
+    private long writeRecord(DataOutputStream out, Account account, FileChannel target, long[] length) throws IOException {
+        if (target != null) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            for (int i = 0; i < account.blockCount; i++) {
+                int index = (account.blockHead + i) % account.blocks.length;
+                try {
+                    readBlock(channel, account.blocks[index], block, account.msb, account.lsb);
+                } catch (IOException e) {
+                    // Entries are numbered, so the blocks before a lost one cannot be kept either
+                    logger.log(Level.WARNING, "Dropped " + (i + 1) + " blocks of the transaction history of "
+                            + new UUID(account.msb, account.lsb), e);
+                    account.blockHead = (index + 1) % account.blocks.length;
+                    account.blockCount -= i + 1;
+                    i = -1;
+                    continue;
+                }
+                block.flip();
+                writeFully(target, block, length[0]);
+                account.blocks[index] = length[0];
+                length[0] += BLOCK_SIZE;
+            }
+        }
+        out.write(toRecord(account).array());
+        return account.blockCount;
+    }
+
+    /**
+     * Reads the account count and record positions; the records are read when needed
+     * @return The length of the data file the index covers
+     */
+    private long readIndex() throws IOException {
+        CRC32 crc = new CRC32();
+        // Checked outside the buffer, so the checksum only covers what was read and not the buffered trailer
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile), 1 << 16), crc))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException(indexFile.getName() + " is not a transaction history index");
+            }
+            int version = in.readInt();
+            if (version == 1) {
+                return readIndexV1(in, crc);
+            }
+            if (version != INDEX_VERSION) {
+                throw new IOException(indexFile.getName() + " has unsupported version " + version);
+            }
+            long number = in.readLong();
+            long indexGeneration = in.readLong();
+            int count = in.readInt();
+            long position = INDEX_HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                long msb = in.readLong();
+                long lsb = in.readLong();
+                in.readLong();
+                long body = in.readInt() * 8L + in.readInt() * ENTRY_LONGS * 8L + 4;
+                in.skipNBytes(body);
+                records.put(msb, lsb, position, 0);
+                position += RECORD_HEADER_SIZE + body;
+            }
+            long length = in.readLong();
+            long kept = in.readLong();
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(indexFile.getName() + " failed its checksum, the file is corrupt");
+            }
+            dataNumber = number;
+            generation = indexGeneration;
+            liveBlocks.add(kept);
+            indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+            return length;
+        }
+    }
+
+    /**
+     * Reads the first version of the index, which held the offsets and rings of every account
+     * in place of records; the accounts are parked once the data file is recovered
+     */
+    private long readIndexV1(DataInputStream in, CRC32 crc) throws IOException {
+        long length = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Account account = new Account(in.readLong(), in.readLong());
+            account.spilled = in.readLong();
+            int ringCount = in.readInt();
+            long blockCount = account.spilled / BLOCK_ENTRIES;
+            for (long block = 0; block < blockCount; block++) {
+                account.addBlock(in.readLong(), maxBlocks);
+            }
+            account.resize(Math.max(INITIAL_RING_ENTRIES, Math.max(ringCount, Math.min(maxRingEntries, ringCount * 2))));
+            for (int j = 0; j < ringCount; j++) {
+                account.append(in.readLong(), in.readLong(), in.readLong());
+            }
+            add(account);
+            liveBlocks.add(account.blockCount);
+        }
+        int expected = (int) crc.getValue();
+        if (in.readInt() != expected) {
+            throw new IOException(indexFile.getName() + " failed its checksum, the file is corrupt");
+        }
+        return length;
+    }
+}
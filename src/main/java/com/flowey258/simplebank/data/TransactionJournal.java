@@ -0,0 +1,432 @@
+package com.flowey258.simplebank.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of balance changes.
+ *
+ * Records are a fixed 48 bytes: uuid (16), delta (8), new balance (8),
+ * timestamp (8), type (1), flags (1), reserved (2) and a CRC32 of the preceding bytes (4).
+ * Records appended through {@link #appendGroup} are written next to each other; every one
+ * but the last is flagged, so replay can drop a group that was cut off by a crash.
+ * Checkpoint records are flagged too and carry an intent log checkpoint in place of the delta.
+ * The log is split into numbered generations; a snapshot rotates to a new
+ * generation and discards the old ones once the snapshot is safely on disk.
+ */
+public class TransactionJournal {
+
+    public static final int RECORD_SIZE = 48;
+
+    private static final int MAGIC = 0x53424A4C; // "SBJL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FLAGS_OFFSET = 41;
+    private static final int CHECKSUM_OFFSET = 44;
+    // More records of the same group follow this one
+    private static final byte FLAG_GROUP_CONTINUES = 1;
+    // Not a balance change; see appendCheckpoint
+    private static final byte FLAG_CHECKPOINT = 2;
+    private static final String EXTENSION = ".journal";
+
+    private final File directory;
+    private final File archiveDirectory;
+    private final Logger logger;
+    private final Object ioLock = new Object();
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    // Appends go into the active buffer; sync() swaps it out and writes it without blocking appenders
+    private ByteBuffer activeBuffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private int bufferedRecords;
+    // Position of the open group's first record in the active buffer, or -1 outside a group
+    private int groupStart = -1;
+
+    private FileChannel channel;
+    private long generation;
+    private long recordCount;
+    private long replayedCheckpoint;
+
+    public interface ReplayHandler {
+        void apply(UUID uuid, double delta, double newBalance, TransactionType type, long timestamp);
+    }
+
+    /**
+     * @param directory Directory holding the journal generations
+     * @param archiveDirectory Where compacted generations are moved, or null to delete them
+     * @param logger Logger for replay warnings
+     */
+    public TransactionJournal(File directory, File archiveDirectory, Logger logger) {
+        this.directory = directory;
+        this.archiveDirectory = archiveDirectory;
+        this.logger = logger;
+    }
+
+    /**
+     * Replays every existing generation in order, then opens a fresh generation for appending.
+     * A torn or corrupt record ends the replay of its generation, dropping the group it belongs to.
+     * @param handler Receives each valid record
+     * @return The number of records replayed, not counting checkpoints
+     */
+    public long open(ReplayHandler handler) throws IOException {
+        directory.mkdirs();
+
+        long replayed = 0;
+        long lastGeneration = 0;
+        for (long existing : listGenerations()) {
+            replayed += replay(fileFor(existing), handler);
+            lastGeneration = existing;
+        }
+
+        synchronized (ioLock) {
+            openGeneration(lastGeneration + 1);
+        }
+        return replayed;
+    }
+
+    /**
+     * Buffers a record in memory. Nothing is written until {@link #sync()} runs.
+     */
+    public synchronized void append(long mostSigBits, long leastSigBits, double delta, double newBalance,
+                                    TransactionType type) {
+        ByteBuffer record = ByteBuffer.wrap(scratch);
+        record.putLong(mostSigBits);
+        record.putLong(leastSigBits);
+        record.putDouble(delta);
+        record.putDouble(newBalance);
+        record.putLong(System.currentTimeMillis());
+        record.put(type.getId());
+        record.put(groupStart >= 0 ? FLAG_GROUP_CONTINUES : 0).put((byte) 0).put((byte) 0);
+        crc.reset();
+        crc.update(scratch, 0, CHECKSUM_OFFSET);
+        record.putInt((int) crc.getValue());
+        bufferScratch();
+        bufferedRecords++;
+    }
+
+    /**
+     * Buffers an intent log checkpoint: the balance changes appended before it include every
+     * bank change of that intent log generation, so they are durable once it is.
+     * It does not count as a buffered record.
+     */
+    public synchronized void appendCheckpoint(long checkpoint) {
+        ByteBuffer record = ByteBuffer.wrap(scratch);
+        record.putLong(0).putLong(0);
+        record.putLong(checkpoint);
+        record.putDouble(0).putLong(System.currentTimeMillis());
+        record.put((byte) 0).put(FLAG_CHECKPOINT).put((byte) 0).put((byte) 0);
+        crc.reset();
+        crc.update(scratch, 0, CHECKSUM_OFFSET);
+        record.putInt((int) crc.getValue());
+        bufferScratch();
+    }
+
+    private void bufferScratch() {
+        if (activeBuffer.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(activeBuffer.capacity() * 2);
+            activeBuffer.flip();
+            grown.put(activeBuffer);
+            activeBuffer = grown;
+        }
+        activeBuffer.put(scratch);
+    }
+
+    /**
+     * Get the last checkpoint {@link #open} read
+     * @return The intent log checkpoint, or 0 if the journal held none
+     */
+    public long getReplayedCheckpoint() {
+        return replayedCheckpoint;
+    }
+
+    /**
+     * Runs the appends as one group: no sync can split them, and replay applies all of them or none.
+     * @param appends Calls {@link #append} on this thread; groups may not be nested
+     */
+    public synchronized void appendGroup(Runnable appends) {
+        groupStart = activeBuffer.position();
+        try {
+            appends.run();
+        } finally {
+            // The last record closes the group
+            int last = activeBuffer.position() - RECORD_SIZE;
+            if (last >= groupStart) {
+                byte[] data = activeBuffer.array();
+                data[last + FLAGS_OFFSET] = 0;
+                crc.reset();
+                crc.update(data, last, CHECKSUM_OFFSET);
+                ByteBuffer.wrap(data).putInt(last + CHECKSUM_OFFSET, (int) crc.getValue());
+            }
+            groupStart = -1;
+        }
+    }
+
+    /**
+     * Get the number of records appended but not yet written
+     * @return The buffered record count
+     */
+    public synchronized int getBufferedRecords() {
+        return bufferedRecords;
+    }
+
+    /**
+     * Get the number of records written to the current generation
+     * @return The record count since the last rotation
+     */
+    public long getRecordCount() {
+        synchronized (ioLock) {
+            return recordCount;
+        }
+    }
+
+    /**
+     * Writes all buffered records to disk and forces them to stable storage.
+     * Every record appended before this call is durable once it returns.
+     */
+    public void sync() throws IOException {
+        synchronized (ioLock) {
+            writeBuffered();
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Syncs the current generation and starts a new one.
+     * Records appended after this call land in the new generation.
+     * @return The generation that was closed
+     */
+    public long rotate() throws IOException {
+        synchronized (ioLock) {
+            writeBuffered();
+            channel.force(false);
+            channel.close();
+            long closed = generation;
+            openGeneration(generation + 1);
+            return closed;
+        }
+    }
+
+    /**
+     * Removes (or archives) every generation up to and including the given one.
+     * Only call this once a snapshot covering those generations has been written.
+     */
+    public void discardUpTo(long lastGeneration) throws IOException {
+        for (long existing : listGenerations()) {
+            if (existing > lastGeneration) {
+                continue;
+            }
+            File file = fileFor(existing);
+            if (archiveDirectory != null) {
+                archiveDirectory.mkdirs();
+                Files.move(file.toPath(), new File(archiveDirectory, file.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (ioLock) {
+            if (channel != null && channel.isOpen()) {
+                writeBuffered();
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the records buffered so far. If the write fails they are put back in front of the
+     * records appended since, and the next write starts over where this one did.
+     */
+    private void writeBuffered() throws IOException {
+        ByteBuffer pending;
+        int records;
+        synchronized (this) {
+            pending = activeBuffer;
+            records = bufferedRecords;
+            activeBuffer = writeBuffer;
+            bufferedRecords = 0;
+        }
+
+        pending.flip();
+        long start = channel.position();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } catch (IOException e) {
+            // A partly written record is overwritten by the next write
+            channel.position(start);
+            requeue(pending, records);
+            throw e;
+        }
+        recordCount += records;
+        pending.clear();
+        writeBuffer = pending;
+    }
+
+    /**
+     * Puts records that could not be written back in front of the active buffer
+     */
+    private synchronized void requeue(ByteBuffer unwritten, int records) {
+        // Groups are appended while holding this monitor, so none is open here
+        unwritten.position(unwritten.limit()).limit(unwritten.capacity());
+        activeBuffer.flip();
+        if (unwritten.remaining() < activeBuffer.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(unwritten.capacity() * 2,
+                    unwritten.position() + activeBuffer.remaining()));
+            unwritten.flip();
+            grown.put(unwritten);
+            unwritten = grown;
+        }
+        unwritten.put(activeBuffer);
+        activeBuffer.clear();
+        writeBuffer = activeBuffer;
+        activeBuffer = unwritten;
+        bufferedRecords += records;
+    }
+
+    private void openGeneration(long newGeneration) throws IOException {
+        generation = newGeneration;
+        recordCount = 0;
+        channel = openChannel(fileFor(newGeneration).toPath());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        // Records synced into the new file are only durable once its directory entry is
+        DurableFiles.syncDirectory(directory);
+    }
+
+    /**
+     * Opens a new generation's file for writing; the tests replace it to make writes fail
+     */
+    FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private long replay(File file, ReplayHandler handler) throws IOException {
+        long replayed = 0;
+        // Records of a group are held back until its last record shows the group is complete
+        List<byte[]> group = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (readFully(in, header) < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                logger.warning("Skipping journal " + file.getName() + ": missing or invalid header");
+                return 0;
+            }
+            if (header.getInt(4) != VERSION) {
+                logger.warning("Skipping journal " + file.getName() + ": unsupported version " + header.getInt(4));
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            byte[] record = new byte[RECORD_SIZE];
+            CRC32 checksum = new CRC32();
+            while (in.read(buffer) > 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    if (in.position() < in.size()) {
+                        buffer.compact();
+                        continue;
+                    }
+                    logger.warning("Journal " + file.getName() + " ends with a partial record, ignoring it");
+                    break;
+                }
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    buffer.get(record);
+                    checksum.reset();
+                    checksum.update(record, 0, CHECKSUM_OFFSET);
+                    ByteBuffer view = ByteBuffer.wrap(record);
+                    boolean checkpoint = (record[FLAGS_OFFSET] & FLAG_CHECKPOINT) != 0;
+                    TransactionType type = TransactionType.fromId(view.get(40));
+                    if ((int) checksum.getValue() != view.getInt(CHECKSUM_OFFSET) || (type == null && !checkpoint)) {
+                        logger.warning("Corrupt record in journal " + file.getName() + ", stopping replay of this file");
+                        warnIfIncomplete(file, group);
+                        return replayed;
+                    }
+                    if (checkpoint) {
+                        replayedCheckpoint = Math.max(replayedCheckpoint, view.getLong(16));
+                        continue;
+                    }
+                    if ((record[FLAGS_OFFSET] & FLAG_GROUP_CONTINUES) != 0) {
+                        group.add(record.clone());
+                        continue;
+                    }
+                    for (byte[] grouped : group) {
+                        apply(grouped, handler);
+                    }
+                    replayed += group.size();
+                    group.clear();
+                    apply(record, handler);
+                    replayed++;
+                }
+                buffer.compact();
+            }
+        }
+        warnIfIncomplete(file, group);
+        return replayed;
+    }
+
+    private static void apply(byte[] record, ReplayHandler handler) {
+        ByteBuffer view = ByteBuffer.wrap(record);
+        handler.apply(new UUID(view.getLong(0), view.getLong(8)),
+                view.getDouble(16), view.getDouble(24), TransactionType.fromId(view.get(40)), view.getLong(32));
+    }
+
+    private void warnIfIncomplete(File file, List<byte[]> group) {
+        if (!group.isEmpty()) {
+            logger.warning("Journal " + file.getName() + " ends inside a group of " + group.size()
+                    + " records, ignoring the group");
+        }
+    }
+
+    private int readFully(FileChannel in, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (in.read(target) < 0) {
+                break;
+            }
+        }
+        return target.position();
+    }
+
+    private List<Long> listGenerations() {
+        List<Long> generations = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return generations;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                generations.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException e) {
+                logger.warning("Ignoring unexpected file in journal directory: " + name);
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private File fileFor(long gen) {
+        return new File(directory, String.format("%016d", gen) + EXTENSION);
+    }
+}
@@ -0,0 +1,43 @@
+package com.flowey258.simplebank.data;
+
+/**
+ * The cause of a balance change, as recorded in the transaction journal
+ */
+public enum TransactionType {
+    DEPOSIT(1),
+    WITHDRAW(2),
+    SET(3),
+    INTEREST(4),
+    // Correction after another server changed the same account
+    SYNC(5),
+    // Either side of a transfer between two accounts
+    TRANSFER(6);
+
+    private final byte id;
+
+    TransactionType(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * Get the stable on-disk id of this type
+     * @return The id written to the journal
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Look up a type by its on-disk id
+     * @param id The id read from the journal
+     * @return The matching type, or null if the id is unknown
+     */
+    public static TransactionType fromId(byte id) {
+        for (TransactionType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
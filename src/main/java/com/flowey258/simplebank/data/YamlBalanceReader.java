@@ -0,0 +1,215 @@
+package com.flowey258.simplebank.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the balances in bankdata.yml without building a YAML tree.
+ *
+ * The file is memory-mapped and scanned once for {@code players.<uuid>.bank-balance} entries,
+ * then the UUIDs and amounts are parsed in parallel. Only the block layout Bukkit writes is
+ * understood; anything else makes {@link #read} return false so the caller can fall back to
+ * a full YAML parse.
+ */
+final class YamlBalanceReader {
+
+    private static final int INDENT = 2;
+
+    private final Logger logger;
+    private int[] offsets = new int[4096];
+    private int entries;
+
+    private YamlBalanceReader(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Streams every positive balance in the file to the consumer, possibly from several threads at once
+     * @return False if the file has a layout this reader does not understand; nothing was consumed then
+     */
+    static boolean read(File file, BankStorage.BalanceConsumer consumer, Logger logger) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return true;
+            }
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            YamlBalanceReader reader = new YamlBalanceReader(logger);
+            if (!reader.scan(data, (int) size)) {
+                return false;
+            }
+            reader.parse(data, consumer);
+            return true;
+        }
+    }
+
+    /**
+     * Finds the key and value of every balance line, recording their offsets
+     */
+    private boolean scan(ByteBuffer data, int size) {
+        boolean inPlayers = false;
+        int keyStart = -1;
+        int keyEnd = -1;
+
+        int position = 0;
+        while (position < size) {
+            int lineStart = position;
+            int lineEnd = lineStart;
+            while (lineEnd < size && data.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            position = lineEnd + 1;
+            if (lineEnd > lineStart && data.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            int contentStart = lineStart;
+            while (contentStart < lineEnd && data.get(contentStart) == ' ') {
+                contentStart++;
+            }
+            if (contentStart == lineEnd || data.get(contentStart) == '#') {
+                continue;
+            }
+            int indent = contentStart - lineStart;
+            if (indent > INDENT * 2) {
+                // Something nested deeper than a balance, not ours to read
+                continue;
+            }
+
+            int colon = contentStart;
+            while (colon < lineEnd && data.get(colon) != ':') {
+                colon++;
+            }
+            if (colon == lineEnd || data.get(contentStart) == '\t') {
+                return false;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < lineEnd && data.get(valueStart) == ' ') {
+                valueStart++;
+            }
+
+            if (indent == 0) {
+                inPlayers = matches(data, contentStart, colon, "players");
+                if (inPlayers && valueStart < lineEnd && !matches(data, valueStart, lineEnd, "{}")) {
+                    return false;
+                }
+                keyStart = -1;
+            } else if (!inPlayers) {
+                continue;
+            } else if (indent == INDENT) {
+                if (valueStart < lineEnd) {
+                    // Inline values need a real YAML parser
+                    return false;
+                }
+                keyStart = contentStart;
+                keyEnd = colon;
+            } else if (indent == INDENT * 2) {
+                if (keyStart >= 0 && matches(data, contentStart, colon, "bank-balance")) {
+                    add(keyStart, keyEnd, valueStart, lineEnd);
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void parse(ByteBuffer data, BankStorage.BalanceConsumer consumer) {
+        AtomicInteger invalid = new AtomicInteger();
+        IntStream.range(0, entries).parallel().forEach(entry -> {
+            int base = entry * 4;
+            int keyStart = offsets[base];
+            int keyEnd = offsets[base + 1];
+            if (keyEnd - keyStart >= 2 && (data.get(keyStart) == '\'' || data.get(keyStart) == '"')) {
+                keyStart++;
+                keyEnd--;
+            }
+
+            long msb;
+            long lsb;
+            double balance;
+            try {
+                if (keyEnd - keyStart == 36 && data.get(keyStart + 8) == '-' && data.get(keyStart + 13) == '-'
+                        && data.get(keyStart + 18) == '-' && data.get(keyStart + 23) == '-') {
+                    msb = hex(data, keyStart, 8) << 32 | hex(data, keyStart + 9, 4) << 16 | hex(data, keyStart + 14, 4);
+                    lsb = hex(data, keyStart + 19, 4) << 48 | hex(data, keyStart + 24, 12);
+                } else {
+                    UUID uuid = UUID.fromString(ascii(data, keyStart, keyEnd));
+                    msb = uuid.getMostSignificantBits();
+                    lsb = uuid.getLeastSignificantBits();
+                }
+                balance = Double.parseDouble(ascii(data, offsets[base + 2], offsets[base + 3]));
+            } catch (IllegalArgumentException e) {
+                if (invalid.getAndIncrement() < 10) {
+                    logger.warning("Invalid entry in bank data: " + ascii(data, offsets[base], offsets[base + 1]));
+                }
+                return;
+            }
+            if (balance > 0) {
+                consumer.accept(msb, lsb, balance);
+            }
+        });
+        if (invalid.get() > 10) {
+            logger.warning("Skipped " + invalid.get() + " invalid entries in bank data");
+        }
+    }
+
+    private void add(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if ((entries + 1) * 4 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        int base = entries * 4;
+        offsets[base] = keyStart;
+        offsets[base + 1] = keyEnd;
+        offsets[base + 2] = valueStart;
+        offsets[base + 3] = valueEnd;
+        entries++;
+    }
+
+    /**
+     * Parses hex digits, throwing for anything that is not one (including a misplaced dash)
+     */
+    private static long hex(ByteBuffer data, int start, int digits) {
+        long value = 0;
+        for (int i = start; i < start + digits; i++) {
+            int digit = Character.digit(data.get(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a hex digit");
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static boolean matches(ByteBuffer data, int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (data.get(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer data, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (data.get(start + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
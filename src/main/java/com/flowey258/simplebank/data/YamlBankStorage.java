@@ -0,0 +1,202 @@
+package com.flowey258.simplebank.data;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Stores balances in bankdata.yml
+ *
+ * The file is read with {@link YamlBalanceReader} and written line by line, so no YAML
+ * tree is ever built for it. The stored balances are kept in a primitive map in memory.
+ * The intent log checkpoint, if there is one, is the first line of the file.
+ */
+public class YamlBankStorage implements BankStorage {
+
+    private static final String CHECKPOINT_KEY = "intent-checkpoint:";
+
+    private final File dataFile;
+    private final Logger logger;
+    // Balance of every account as last written, in minor units
+    private final UuidLongMap stored = new UuidLongMap(1024);
+    private long checkpoint;
+
+    public YamlBankStorage(File dataFile, Logger logger) {
+        this.dataFile = dataFile;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (!dataFile.exists()) {
+            dataFile.getParentFile().mkdirs();
+            dataFile.createNewFile();
+        }
+
+        stored.drain((msb, lsb, balance) -> {
+        });
+        if (!YamlBalanceReader.read(dataFile,
+                (msb, lsb, balance) -> stored.put(msb, lsb, MoneyUtils.toMinorClamped(balance), 0), logger)) {
+            logger.info(dataFile.getName() + " is not in the usual layout, reading it with the full YAML parser");
+            loadWithYamlParser();
+        }
+        checkpoint = readCheckpoint();
+    }
+
+    private long readCheckpoint() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.ISO_8859_1)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(CHECKPOINT_KEY)) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(line.substring(CHECKPOINT_KEY.length()).trim());
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid intent log checkpoint in " + dataFile.getName() + ": " + line);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * The slow path for hand-edited files
+     */
+    private void loadWithYamlParser() {
+        ConfigurationSection players = YamlConfiguration.loadConfiguration(dataFile).getConfigurationSection("players");
+        if (players == null) {
+            return;
+        }
+
+        for (String uuidString : players.getKeys(false)) {
+            try {
+                UUID uuid = UUID.fromString(uuidString);
+                double balance = players.getDouble(uuidString + ".bank-balance", 0.0);
+                if (balance > 0) {
+                    stored.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                            MoneyUtils.toMinorClamped(balance), 0);
+                }
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid UUID in bank data: " + uuidString);
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, Double> loadAll() {
+        Map<UUID, Double> data = new HashMap<>();
+        stored.forEach((msb, lsb, balance) -> data.put(new UUID(msb, lsb), MoneyUtils.toMajor(balance)));
+        return data;
+    }
+
+    @Override
+    public void loadAll(BalanceConsumer consumer) {
+        stored.forEach((msb, lsb, balance) -> consumer.accept(msb, lsb, MoneyUtils.toMajor(balance)));
+    }
+
+    @Override
+    public double load(UUID uuid) {
+        return MoneyUtils.toMajor(stored.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+    }
+
+    @Override
+    public synchronized void saveBatch(Map<UUID, Double> balances) throws IOException {
+        if (balances.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<UUID, Double> entry : balances.entrySet()) {
+            long balance = entry.getValue() > 0 ? MoneyUtils.toMinor(entry.getValue()) : 0;
+            stored.put(entry.getKey().getMostSignificantBits(), entry.getKey().getLeastSignificantBits(), balance, 0);
+        }
+        write();
+    }
+
+    @Override
+    public synchronized void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean holdsEveryAccount() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "YAML";
+    }
+
+    /**
+     * Writes every stored balance in the layout Bukkit's YAML writer uses, to a temporary file
+     * that is forced to disk and then renamed over the data file. The journal deletes the
+     * generations a snapshot covers right after this returns, so it has to survive a power loss.
+     */
+    private void write() throws IOException {
+        File tempFile = new File(dataFile.getParentFile(), dataFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+            if (checkpoint > 0) {
+                writer.write(CHECKPOINT_KEY + " " + checkpoint + "\n");
+            }
+            if (stored.isEmpty()) {
+                writer.write("players: {}\n");
+            } else {
+                writer.write("players:\n");
+                IOException[] failure = new IOException[1];
+                stored.forEach((msb, lsb, balance) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        writeEntry(writer, msb, lsb, balance);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        DurableFiles.moveAtomically(tempFile, dataFile);
+    }
+
+    private static void writeEntry(Writer writer, long msb, long lsb, long balance) throws IOException {
+        writer.write("  ");
+        writer.write(new UUID(msb, lsb).toString());
+        writer.write(":\n    bank-balance: ");
+        writer.write(Long.toString(balance / MoneyUtils.SCALE));
+        writer.write('.');
+        long cents = balance % MoneyUtils.SCALE;
+        if (cents < 10) {
+            writer.write('0');
+        }
+        writer.write(Long.toString(cents));
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,387 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.SettledPeriodFile;
+import com.flowey258.simplebank.data.TransactionHistory;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Bounds how many accounts {@link BankManager} keeps in memory.
+ *
+ * Accounts are loaded from storage the first time they are used, and evicted again with the
+ * CLOCK algorithm (an approximation of least recently used) once more than the configured
+ * number are held. Online players and accounts with unsaved changes are never evicted. The
+ * leaderboard and the statistics keep covering every account, with a small entry each; the
+ * transaction history of an evicted account is unloaded to disk along with it.
+ *
+ * The interest period an evicted account was settled for is written to interest-periods.bin,
+ * so the account is paid the periods it missed once it is loaded again. Periods count from
+ * when the plugin was enabled, so the file only holds accounts evicted since then.
+ *
+ * Account operations run between {@link #acquire} and {@link #release}, which hold one of the
+ * stripe locks shared, so an account cannot be evicted while it is in use. Loading and evicting
+ * hold the stripe lock exclusively. With no limit configured, both calls do nothing.
+ */
+public class AccountCache {
+
+    private static final int STRIPE_BITS = 6;
+
+    // Residency flags per account; an absent entry means the account is not in memory
+    private static final long RESIDENT = 1;
+    private static final long REFERENCED = 2;
+    private static final long ONLINE = 4;
+
+    private static final LongUnaryOperator MARK_REFERENCED = state -> state | REFERENCED;
+    private static final LongUnaryOperator MARK_ONLINE = state -> state | ONLINE | REFERENCED;
+    private static final LongUnaryOperator MARK_OFFLINE = state -> state & ~ONLINE;
+
+    // Settled periods of evicted accounts are kept in memory until this many are waiting to be written
+    private static final int SPILL_BATCH = 4096;
+
+    private final UuidLongMap balances;
+    private final InterestAccrual interest;
+    private final DataManager dataManager;
+    // Null if the history is disabled
+    private final TransactionHistory history;
+    private final int maxAccounts;
+    private final StampedLock[] stripes;
+    private final UuidLongMap flags = new UuidLongMap(1024);
+    private final Logger logger;
+    // Settled periods of evicted accounts; null without a limit
+    private final SettledPeriodFile settledPeriods;
+    // Settled periods of evicted accounts not written to the file yet; only the evictor adds to it
+    private final UuidLongMap unwrittenPeriods = new UuidLongMap(SPILL_BATCH);
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Only touched by the evictor
+    private int hand;
+    private long[] candidates = new long[256];
+    private int candidateCount;
+
+    /**
+     * @param maxAccounts The number of accounts to keep in memory, or 0 or less to keep them all
+     * @param periodFile Where the settled interest periods of evicted accounts go; replaced on startup.
+     * If it cannot be created, every account is kept in memory.
+     */
+    AccountCache(UuidLongMap balances, InterestAccrual interest, DataManager dataManager, TransactionHistory history,
+                 int maxAccounts, File periodFile, Logger logger) {
+        this.balances = balances;
+        this.interest = interest;
+        this.dataManager = dataManager;
+        this.history = history;
+        this.logger = logger;
+
+        SettledPeriodFile periods = null;
+        if (maxAccounts > 0) {
+            try {
+                periods = new SettledPeriodFile(periodFile);
+                periods.open();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not create " + periodFile.getName()
+                        + ", every account is kept in memory!", e);
+                maxAccounts = 0;
+            }
+        }
+        this.maxAccounts = maxAccounts;
+        this.settledPeriods = periods;
+        if (maxAccounts > 0) {
+            stripes = new StampedLock[1 << STRIPE_BITS];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new StampedLock();
+            }
+        } else {
+            stripes = null;
+        }
+    }
+
+    public boolean isBounded() {
+        return stripes != null;
+    }
+
+    /**
+     * Decides whether an account read at startup is kept in memory; the first ones read fill the cache
+     * @return True if the balance should be stored in the balance map
+     */
+    boolean keepOnStartup(long msb, long lsb) {
+        if (stripes == null) {
+            return true;
+        }
+        if (flags.size() >= maxAccounts) {
+            return false;
+        }
+        flags.put(msb, lsb, RESIDENT, 0);
+        return true;
+    }
+
+    /**
+     * Makes sure the account is in memory and keeps it there until {@link #release}.
+     * Must not be called again by the same thread before releasing.
+     * @return The stamp to pass to {@link #release}
+     */
+    long acquire(long msb, long lsb) {
+        if (stripes == null) {
+            return 0;
+        }
+        StampedLock lock = stripeFor(msb, lsb);
+        long stamp = lock.readLock();
+        long state = flags.get(msb, lsb);
+        if (state != 0) {
+            if ((state & REFERENCED) == 0) {
+                flags.update(msb, lsb, MARK_REFERENCED, 0);
+            }
+            return stamp;
+        }
+
+        lock.unlockRead(stamp);
+        stamp = lock.writeLock();
+        if (flags.get(msb, lsb) == 0) {
+            load(msb, lsb);
+        }
+        return lock.tryConvertToReadLock(stamp);
+    }
+
+    void release(long msb, long lsb, long stamp) {
+        if (stripes != null) {
+            stripeFor(msb, lsb).unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Like {@link #acquire}, for several accounts at once. Stripes are locked in index order,
+     * so concurrent calls cannot deadlock, and each stripe is locked only once.
+     * @param keys The most and least significant bits of each account, one after the other
+     * @param keyCount The number of accounts in the array
+     * @return The stamps to pass to {@link #releaseAll}
+     */
+    long[] acquireAll(long[] keys, int keyCount) {
+        if (stripes == null) {
+            return null;
+        }
+        int[] stripeOf = new int[keyCount];
+        boolean[] used = new boolean[stripes.length];
+        for (int i = 0; i < keyCount; i++) {
+            stripeOf[i] = stripeIndex(keys[i * 2], keys[i * 2 + 1]);
+            used[stripeOf[i]] = true;
+        }
+
+        long[] stamps = new long[stripes.length];
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            if (!used[stripe]) {
+                continue;
+            }
+            StampedLock lock = stripes[stripe];
+            long stamp = lock.readLock();
+            boolean missing = false;
+            for (int i = 0; i < keyCount; i++) {
+                if (stripeOf[i] == stripe && flags.get(keys[i * 2], keys[i * 2 + 1]) == 0) {
+                    missing = true;
+                }
+            }
+
+            if (missing) {
+                long writeStamp = lock.tryConvertToWriteLock(stamp);
+                if (writeStamp == 0) {
+                    lock.unlockRead(stamp);
+                    writeStamp = lock.writeLock();
+                }
+                for (int i = 0; i < keyCount; i++) {
+                    if (stripeOf[i] == stripe && flags.get(keys[i * 2], keys[i * 2 + 1]) == 0) {
+                        load(keys[i * 2], keys[i * 2 + 1]);
+                    }
+                }
+                stamp = lock.tryConvertToReadLock(writeStamp);
+            }
+            for (int i = 0; i < keyCount; i++) {
+                if (stripeOf[i] == stripe) {
+                    flags.update(keys[i * 2], keys[i * 2 + 1], MARK_REFERENCED, 0);
+                }
+            }
+            stamps[stripe] = stamp;
+        }
+        return stamps;
+    }
+
+    void releaseAll(long[] stamps) {
+        if (stamps == null) {
+            return;
+        }
+        for (int stripe = stamps.length - 1; stripe >= 0; stripe--) {
+            if (stamps[stripe] != 0) {
+                stripes[stripe].unlockRead(stamps[stripe]);
+            }
+        }
+    }
+
+    /**
+     * Check whether an account is in memory, without loading it
+     * @return True if the account is in memory; always true with no limit configured
+     */
+    boolean isResident(long msb, long lsb) {
+        return stripes == null || flags.get(msb, lsb) != 0;
+    }
+
+    /**
+     * Pins an account while its player is online; call between acquire and release
+     */
+    void setOnline(long msb, long lsb, boolean online) {
+        if (stripes != null) {
+            flags.update(msb, lsb, online ? MARK_ONLINE : MARK_OFFLINE, 0);
+        }
+    }
+
+    /**
+     * Loads an account from storage; caller holds the stripe lock exclusively
+     */
+    private void load(long msb, long lsb) {
+        UUID uuid = new UUID(msb, lsb);
+        long balance = MoneyUtils.toMinorClamped(dataManager.loadBankData(uuid));
+        // Loading is not a change, the leaderboard and statistics already count this account
+        if (balance > 0 && balances.putIfAbsent(msb, lsb, balance)) {
+            long period = unwrittenPeriods.get(msb, lsb);
+            interest.onLoad(msb, lsb, period != 0 ? period : settledPeriods.get(msb, lsb));
+        }
+        flags.put(msb, lsb, RESIDENT | REFERENCED, 0);
+        loads.increment();
+    }
+
+    /**
+     * Evicts accounts until the limit is met again, visiting at most every account twice.
+     * Must run on the IO thread outside of saves, see {@link DataManager#scheduleMaintenance}.
+     */
+    void evict() {
+        int excess = flags.size() - maxAccounts;
+        int segments = flags.getSegmentCount();
+        for (int visited = 0; visited < segments * 2 && excess > 0; visited++) {
+            int segment = hand;
+            hand = (hand + 1) % segments;
+
+            // Second chance: referenced accounts lose the flag, the others become candidates
+            candidateCount = 0;
+            flags.updateSegment(segment, (msb, lsb, state) -> {
+                if ((state & ONLINE) != 0) {
+                    return state;
+                }
+                if ((state & REFERENCED) != 0) {
+                    return state & ~REFERENCED;
+                }
+                addCandidate(msb, lsb);
+                return state;
+            }, 0);
+
+            for (int i = 0; i < candidateCount && excess > 0; i++) {
+                if (tryEvict(candidates[i * 2], candidates[i * 2 + 1])) {
+                    excess--;
+                }
+            }
+        }
+        if (unwrittenPeriods.size() >= SPILL_BATCH) {
+            writePeriods();
+        }
+    }
+
+    /**
+     * Moves the settled periods of evicted accounts from memory to the period file
+     */
+    private void writePeriods() {
+        try {
+            settledPeriods.putAll(unwrittenPeriods);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not write the interest periods of evicted accounts!", e);
+            return;
+        }
+        // Loads check the file once an account is gone from here
+        unwrittenPeriods.drain((msb, lsb, period) -> {
+        });
+    }
+
+    private boolean tryEvict(long msb, long lsb) {
+        StampedLock lock = stripeFor(msb, lsb);
+        long stamp = lock.writeLock();
+        try {
+            long state = flags.get(msb, lsb);
+            if (state == 0 || (state & (REFERENCED | ONLINE)) != 0) {
+                return false;
+            }
+            // Under the balance lock, so the interest sweeper cannot settle the account in between
+            boolean[] evicted = new boolean[1];
+            balances.updateLocked(new long[]{msb, lsb}, 1, locked -> {
+                // Unsaved changes would be lost
+                if (dataManager.isPendingSave(msb, lsb)) {
+                    return;
+                }
+                long period = interest.getSettledPeriod(msb, lsb);
+                // Emptied accounts start over at the current period when money arrives
+                if (locked.remove(msb, lsb) != 0) {
+                    unwrittenPeriods.put(msb, lsb, period, 0);
+                }
+                interest.onEvict(msb, lsb);
+                evicted[0] = true;
+            });
+            if (!evicted[0]) {
+                return false;
+            }
+            flags.remove(msb, lsb);
+            evictions.increment();
+            if (history != null) {
+                try {
+                    history.unload(msb, lsb);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Could not unload the transaction history of " + new UUID(msb, lsb) + "!", e);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void addCandidate(long msb, long lsb) {
+        if ((candidateCount + 1) * 2 > candidates.length) {
+            candidates = Arrays.copyOf(candidates, candidates.length * 2);
+        }
+        candidates[candidateCount * 2] = msb;
+        candidates[candidateCount * 2 + 1] = lsb;
+        candidateCount++;
+    }
+
+    private StampedLock stripeFor(long msb, long lsb) {
+        return stripes[stripeIndex(msb, lsb)];
+    }
+
+    private static int stripeIndex(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> (64 - STRIPE_BITS));
+    }
+
+    public int getMaxAccounts() {
+        return maxAccounts;
+    }
+
+    /**
+     * @return The number of accounts in memory, including ones with no balance
+     */
+    public int getResidentCount() {
+        return isBounded() ? flags.size() : balances.size();
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
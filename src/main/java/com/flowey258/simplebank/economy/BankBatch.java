@@ -0,0 +1,119 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Deposits, withdrawals and transfers applied together by {@link BankManager#applyBatch}.
+ *
+ * The whole batch is applied as one atomic step: other threads see either none or all of its
+ * changes, and they are saved in one write. Entries are checked in the order they were added,
+ * against the balances the earlier entries left behind.
+ */
+public class BankBatch {
+
+    /**
+     * The result of one entry
+     */
+    public enum Outcome {
+        SUCCESS,
+        // A withdrawal or the sending side of a transfer did not have enough money
+        INSUFFICIENT_FUNDS,
+        // The amount was not positive, or a transfer went to the same account
+        INVALID,
+        // Valid on its own, but left out because another entry of an all-or-nothing batch failed
+        NOT_APPLIED,
+        // The receiver would go over the maximum balance; only single transfers check this
+        LIMIT_REACHED
+    }
+
+    enum Kind {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER
+    }
+
+    static final class Entry {
+        final Kind kind;
+        final UUID from;
+        final UUID to;
+        final long amount;
+
+        private Entry(Kind kind, UUID from, UUID to, long amount) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean allOrNothing;
+
+    /**
+     * Add money to an account
+     * @param uuid The account
+     * @param amount The amount to add
+     * @return This batch
+     */
+    public BankBatch deposit(UUID uuid, double amount) {
+        entries.add(new Entry(Kind.DEPOSIT, null, Objects.requireNonNull(uuid), toMinor(amount)));
+        return this;
+    }
+
+    /**
+     * Remove money from an account, only if it holds enough
+     * @param uuid The account
+     * @param amount The amount to remove
+     * @return This batch
+     */
+    public BankBatch withdraw(UUID uuid, double amount) {
+        entries.add(new Entry(Kind.WITHDRAW, Objects.requireNonNull(uuid), null, toMinor(amount)));
+        return this;
+    }
+
+    /**
+     * Move money from one account to another, only if the sender holds enough
+     * @param from The account to take the money from
+     * @param to The account to give it to
+     * @param amount The amount to move
+     * @return This batch
+     */
+    public BankBatch transfer(UUID from, UUID to, double amount) {
+        entries.add(new Entry(Kind.TRANSFER, Objects.requireNonNull(from), Objects.requireNonNull(to),
+                toMinor(amount)));
+        return this;
+    }
+
+    /**
+     * Apply nothing at all if any entry fails
+     * @return This batch
+     */
+    public BankBatch allOrNothing() {
+        this.allOrNothing = true;
+        return this;
+    }
+
+    public boolean isAllOrNothing() {
+        return allOrNothing;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * NaN, infinite, oversized and non-positive amounts become 0, which every entry rejects as invalid
+     */
+    private static long toMinor(double amount) {
+        return amount > 0 && MoneyUtils.isValidAmount(amount) ? MoneyUtils.toMinor(amount) : 0;
+    }
+}
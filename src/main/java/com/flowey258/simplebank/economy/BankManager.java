@@ -1,111 +1,739 @@
 package com.flowey258.simplebank.economy;
 
 import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.BankStorage;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.TransactionHistory;
+import com.flowey258.simplebank.data.TransactionType;
+import com.flowey258.simplebank.metrics.BankMetrics;
+import com.flowey258.simplebank.utils.BankSettings;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.logging.Level;
 
+/**
+ * Holds every bank balance in memory.
+ *
+ * Balances are kept as fixed-point minor units in a primitive {@link UuidLongMap}; the
+ * double-based methods convert at the boundary. All methods are safe to call from any thread.
+ * Each account is updated atomically under its segment lock, so concurrent changes to the
+ * same account never get lost while other accounts proceed in parallel. Reads and the
+ * simple add/remove paths allocate nothing.
+ *
+ * Interest is settled lazily by {@link InterestAccrual}: every account method first pays
+ * the periods the account has missed, so balances always read as if interest ran on time.
+ *
+ * With {@code storage.cache.max-accounts} set, only recently used accounts stay in the map;
+ * {@link AccountCache} loads the others from storage when they are needed.
+ *
+ * With storage shared by several servers, changes that can take money out run through
+ * {@link DataManager#spend}, so their checks hold against every server's balances.
+ */
 public class BankManager {
 
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+
     private final SimpleBank plugin;
-    private final Map<UUID, Double> bankBalances;
+    private final UuidLongMap bankBalances;
+    private final LeaderboardIndex leaderboard;
+    private final BankStatistics statistics;
+    private final InterestAccrual interest;
+    private final AccountCache cache;
+    private final BankMetrics metrics;
+    private final TransactionHistory history;
+    private final boolean sharedStorage;
+    // Applies changes other servers made to shared storage, with the account already acquired
+    private final BankStorage.RemoteChange remoteChange;
 
     public BankManager(SimpleBank plugin) {
         this.plugin = plugin;
-        this.bankBalances = new HashMap<>();
+        this.sharedStorage = plugin.getDataManager().isShared();
+        this.metrics = plugin.getMetrics();
+        this.bankBalances = new UuidLongMap(1024, this::onBalanceChange);
+        this.remoteChange = (msb, lsb, delta) -> bankBalances.addClamped(msb, lsb, delta, TransactionType.SYNC.ordinal());
+        this.leaderboard = new LeaderboardIndex();
+        this.statistics = new BankStatistics();
+        this.interest = new InterestAccrual(plugin, bankBalances);
+        this.history = openHistory();
+        this.cache = createCache();
         loadBankData();
+        if (cache.isBounded()) {
+            plugin.getDataManager().scheduleMaintenance(cache::evict, 1000);
+        }
+    }
+
+    /**
+     * Called under the account's lock for every change, so saves, the leaderboard
+     * and the statistics see the changes to one account in the order they happened
+     */
+    private void onBalanceChange(long msb, long lsb, long oldBalance, long newBalance, int type) {
+        interest.onBalanceChange(msb, lsb, oldBalance, newBalance);
+        leaderboard.update(msb, lsb, oldBalance, newBalance);
+        statistics.update(oldBalance, newBalance);
+        metrics.recordTransaction(type == TransactionType.INTEREST.ordinal());
+        if (history != null) {
+            history.record(msb, lsb, newBalance - oldBalance, newBalance, TRANSACTION_TYPES[type]);
+        }
+        plugin.getDataManager().saveBankData(msb, lsb, newBalance, newBalance - oldBalance, TRANSACTION_TYPES[type]);
     }
 
     public double getBankBalance(UUID uuid) {
-        return bankBalances.getOrDefault(uuid, 0.0);
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            return MoneyUtils.toMajor(bankBalances.get(msb, lsb));
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
     }
 
     public void setBankBalance(UUID uuid, double amount) {
-        if (amount <= 0) {
-            bankBalances.remove(uuid);
-        } else {
-            bankBalances.put(uuid, amount);
+        setBankBalance(uuid, amount, TransactionType.SET);
+    }
+
+    public void setBankBalance(UUID uuid, double amount, TransactionType type) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            long balance = Math.max(0, MoneyUtils.toMinor(amount));
+            if (sharedStorage) {
+                spend(new long[]{msb, lsb}, 1, () -> bankBalances.put(msb, lsb, balance, type.ordinal()));
+            } else {
+                bankBalances.put(msb, lsb, balance, type.ordinal());
+            }
+        } finally {
+            cache.release(msb, lsb, stamp);
         }
-        plugin.getDataManager().saveBankData(uuid, amount);
     }
 
     public void addToBankBalance(UUID uuid, double amount) {
-        double currentBalance = getBankBalance(uuid);
-        setBankBalance(uuid, currentBalance + amount);
+        addClamped(uuid, MoneyUtils.toMinor(amount), TransactionType.DEPOSIT);
     }
 
     public void removeFromBankBalance(UUID uuid, double amount) {
-        double currentBalance = getBankBalance(uuid);
-        setBankBalance(uuid, Math.max(0, currentBalance - amount));
+        addClamped(uuid, -MoneyUtils.toMinor(amount), TransactionType.WITHDRAW);
     }
 
-    public boolean hasBankBalance(UUID uuid, double amount) {
-        return getBankBalance(uuid) >= amount;
+    private void addClamped(UUID uuid, long delta, TransactionType type) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            if (delta < 0 && sharedStorage) {
+                spend(new long[]{msb, lsb}, 1, () -> bankBalances.addClamped(msb, lsb, delta, type.ordinal()));
+            } else if (delta > 0) {
+                bankBalances.update(msb, lsb, current -> MoneyUtils.addCapped(current, delta), type.ordinal());
+            } else {
+                bankBalances.addClamped(msb, lsb, delta, type.ordinal());
+            }
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
     }
 
-    public Set<UUID> getAllBankAccounts() {
-        return new HashSet<>(bankBalances.keySet());
+    /**
+     * Withdraws only if the account holds at least the given amount, as one atomic step
+     * @param uuid The account
+     * @param amount The amount to withdraw
+     * @return True if the money was withdrawn
+     */
+    public boolean withdrawIfSufficient(UUID uuid, double amount) {
+        return addWithin(uuid, -MoneyUtils.toMinor(amount), Long.MAX_VALUE, TransactionType.WITHDRAW);
     }
 
-    public List<BankEntry> getTopBalances(int limit) {
-        return bankBalances.entrySet().stream()
-                .map(entry -> new BankEntry(entry.getKey(), entry.getValue()))
-                .sorted((a, b) -> Double.compare(b.getBalance(), a.getBalance()))
-                .limit(limit)
-                .collect(Collectors.toList());
+    /**
+     * Deposits only if the new balance stays within the limit, as one atomic step
+     * @param uuid The account
+     * @param amount The amount to deposit
+     * @param maxBalance The maximum balance, or 0 or less for no limit
+     * @return True if the money was deposited
+     */
+    public boolean depositIfWithinLimit(UUID uuid, double amount, double maxBalance) {
+        long limit = limitOf(maxBalance);
+        return addWithin(uuid, MoneyUtils.toMinor(amount), limit, TransactionType.DEPOSIT);
     }
 
-    public double getTotalBankMoney() {
-        return bankBalances.values().stream().mapToDouble(Double::doubleValue).sum();
+    private boolean addWithin(UUID uuid, long delta, long limit, TransactionType type) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            if (delta < 0 && sharedStorage) {
+                boolean[] applied = new boolean[1];
+                spend(new long[]{msb, lsb}, 1, () ->
+                        applied[0] = bankBalances.addWithin(msb, lsb, delta, 0, limit, type.ordinal()));
+                return applied[0];
+            }
+            return bankBalances.addWithin(msb, lsb, delta, 0, limit, type.ordinal());
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
     }
 
-    private void loadBankData() {
-        Map<UUID, Double> data = plugin.getDataManager().loadAllBankData();
-        bankBalances.putAll(data);
+    /**
+     * Like {@link #withdrawIfSufficient(UUID, double)}, running {@code record} in the same atomic
+     * step as the withdrawal, so a flush never writes one without the other
+     * @param record Logs the withdrawal; only runs if the money was withdrawn
+     * @return True if the money was withdrawn
+     */
+    public boolean withdrawIfSufficient(UUID uuid, double amount, Runnable record) {
+        return addWithin(uuid, -MoneyUtils.toMinor(amount), Long.MAX_VALUE, TransactionType.WITHDRAW, record);
     }
 
-    public void applyInterest() {
-        if (!plugin.getConfig().getBoolean("interest.enabled", false)) {
-            return;
+    /**
+     * Like {@link #depositIfWithinLimit(UUID, double, double)}, running {@code record} in the
+     * same atomic step as the deposit, so a flush never writes one without the other
+     * @param record Logs the deposit; only runs if the money was deposited
+     * @return True if the money was deposited
+     */
+    public boolean depositIfWithinLimit(UUID uuid, double amount, double maxBalance, Runnable record) {
+        long limit = limitOf(maxBalance);
+        return addWithin(uuid, MoneyUtils.toMinor(amount), limit, TransactionType.DEPOSIT, record);
+    }
+
+    private boolean addWithin(UUID uuid, long delta, long limit, TransactionType type, Runnable record) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long[] keys = {msb, lsb};
+        boolean[] applied = new boolean[1];
+
+        Runnable change = () -> bankBalances.updateLocked(keys, 1, locked -> {
+            long current = locked.get(msb, lsb);
+            long updated = delta > 0 ? MoneyUtils.addCapped(current, delta) : current + delta;
+            if (updated >= 0 && updated <= limit) {
+                plugin.getDataManager().runAtomically(() -> {
+                    locked.put(msb, lsb, updated, type.ordinal());
+                    record.run();
+                });
+                applied[0] = true;
+            }
+        });
+
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            if (delta < 0) {
+                spend(keys, 1, change);
+            } else {
+                change.run();
+            }
+        } finally {
+            cache.release(msb, lsb, stamp);
         }
+        return applied[0];
+    }
 
-        double interestRate = plugin.getConfig().getDouble("interest.rate", 0.01);
-        double minBalance = plugin.getConfig().getDouble("interest.minimum-balance", 1000);
-        double maxInterest = plugin.getConfig().getDouble("interest.maximum-interest", 10000);
+    /**
+     * Applies deposits, withdrawals and transfers as one atomic step, saved in one write.
+     * The accounts involved are locked in a fixed order, so concurrent batches cannot deadlock.
+     * @param batch The entries to apply
+     * @return The outcome of each entry, in the order they were added
+     */
+    public List<BankBatch.Outcome> applyBatch(BankBatch batch) {
+        List<BankBatch.Entry> entries = batch.getEntries();
+        BankBatch.Outcome[] outcomes = new BankBatch.Outcome[entries.size()];
 
-        for (Map.Entry<UUID, Double> entry : bankBalances.entrySet()) {
-            UUID uuid = entry.getKey();
-            double currentBalance = entry.getValue();
+        Set<UUID> accounts = new LinkedHashSet<>();
+        for (BankBatch.Entry entry : entries) {
+            if (entry.from != null) {
+                accounts.add(entry.from);
+            }
+            if (entry.to != null) {
+                accounts.add(entry.to);
+            }
+        }
+        long[] keys = new long[accounts.size() * 2];
+        int count = 0;
+        for (UUID uuid : accounts) {
+            keys[count * 2] = uuid.getMostSignificantBits();
+            keys[count * 2 + 1] = uuid.getLeastSignificantBits();
+            count++;
+        }
+        int keyCount = count;
+
+        plugin.getDataManager().runBatch(() -> {
+            long[] stamps = cache.acquireAll(keys, keyCount);
+            try {
+                for (int i = 0; i < keyCount; i++) {
+                    interest.settle(keys[i * 2], keys[i * 2 + 1]);
+                }
+                boolean ran = spend(keys, keyCount, () -> bankBalances.updateLocked(keys, keyCount, locked ->
+                        plugin.getDataManager().runAtomically(() -> {
+                            if (batch.isAllOrNothing() && !validate(entries, outcomes, locked)) {
+                                return;
+                            }
+                            for (int i = 0; i < outcomes.length; i++) {
+                                outcomes[i] = apply(entries.get(i), locked);
+                            }
+                        })));
+                if (!ran) {
+                    Arrays.fill(outcomes, BankBatch.Outcome.NOT_APPLIED);
+                }
+            } finally {
+                cache.releaseAll(stamps);
+            }
+        });
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Moves money from one account to another as one atomic step. Both accounts are locked in a
+     * fixed order, so concurrent transfers cannot deadlock, and both sides are saved together.
+     * @param from The account to take the money from
+     * @param to The account to give it to
+     * @param amount The amount to move
+     * @param maxBalance The receiver's maximum balance, or 0 or less for no limit
+     * @return SUCCESS, INSUFFICIENT_FUNDS, LIMIT_REACHED, INVALID, or NOT_APPLIED if shared storage could not be reached
+     */
+    public BankBatch.Outcome transfer(UUID from, UUID to, double amount, double maxBalance) {
+        long cents = amount > 0 && MoneyUtils.isValidAmount(amount) ? MoneyUtils.toMinor(amount) : 0;
+        if (cents <= 0 || from.equals(to)) {
+            return BankBatch.Outcome.INVALID;
+        }
+        long limit = limitOf(maxBalance);
+        long fromMsb = from.getMostSignificantBits();
+        long fromLsb = from.getLeastSignificantBits();
+        long toMsb = to.getMostSignificantBits();
+        long toLsb = to.getLeastSignificantBits();
+        long[] keys = {fromMsb, fromLsb, toMsb, toLsb};
+        BankBatch.Outcome[] outcome = new BankBatch.Outcome[1];
 
-            // Skip if balance is below minimum
-            if (currentBalance < minBalance) {
+        long[] stamps = cache.acquireAll(keys, 2);
+        try {
+            interest.settle(fromMsb, fromLsb);
+            interest.settle(toMsb, toLsb);
+            boolean ran = spend(keys, 2, () -> bankBalances.updateLocked(keys, 2, locked -> {
+                long fromBalance = locked.get(fromMsb, fromLsb);
+                long toBalance = locked.get(toMsb, toLsb);
+                if (fromBalance < cents) {
+                    outcome[0] = BankBatch.Outcome.INSUFFICIENT_FUNDS;
+                } else if (toBalance > limit - cents) {
+                    outcome[0] = BankBatch.Outcome.LIMIT_REACHED;
+                } else {
+                    plugin.getDataManager().runAtomically(() -> {
+                        locked.put(fromMsb, fromLsb, fromBalance - cents, TransactionType.TRANSFER.ordinal());
+                        locked.put(toMsb, toLsb, toBalance + cents, TransactionType.TRANSFER.ordinal());
+                    });
+                    outcome[0] = BankBatch.Outcome.SUCCESS;
+                }
+            }));
+            if (!ran) {
+                outcome[0] = BankBatch.Outcome.NOT_APPLIED;
+            }
+        } finally {
+            cache.releaseAll(stamps);
+        }
+        return outcome[0];
+    }
+
+    /**
+     * Checks every entry against the balances the earlier ones would leave, without changing anything
+     * @return True if every entry would succeed; otherwise the outcomes are final
+     */
+    private static boolean validate(List<BankBatch.Entry> entries, BankBatch.Outcome[] outcomes,
+                                    UuidLongMap.LockedEntries locked) {
+        Map<UUID, Long> working = new HashMap<>();
+        boolean failed = false;
+        for (int i = 0; i < outcomes.length; i++) {
+            BankBatch.Entry entry = entries.get(i);
+            long fromBalance = entry.from != null ? balanceOf(working, locked, entry.from) : 0;
+            outcomes[i] = check(entry, fromBalance);
+            if (outcomes[i] != BankBatch.Outcome.SUCCESS) {
+                failed = true;
                 continue;
             }
+            if (entry.from != null) {
+                working.put(entry.from, fromBalance - entry.amount);
+            }
+            if (entry.to != null) {
+                working.put(entry.to, MoneyUtils.addCapped(balanceOf(working, locked, entry.to), entry.amount));
+            }
+        }
+        if (!failed) {
+            return true;
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == BankBatch.Outcome.SUCCESS) {
+                outcomes[i] = BankBatch.Outcome.NOT_APPLIED;
+            }
+        }
+        return false;
+    }
+
+    private static BankBatch.Outcome apply(BankBatch.Entry entry, UuidLongMap.LockedEntries locked) {
+        long fromBalance = entry.from != null
+                ? locked.get(entry.from.getMostSignificantBits(), entry.from.getLeastSignificantBits())
+                : 0;
+        BankBatch.Outcome outcome = check(entry, fromBalance);
+        if (outcome != BankBatch.Outcome.SUCCESS) {
+            return outcome;
+        }
+
+        TransactionType type = entry.kind == BankBatch.Kind.DEPOSIT ? TransactionType.DEPOSIT
+                : entry.kind == BankBatch.Kind.WITHDRAW ? TransactionType.WITHDRAW
+                : TransactionType.TRANSFER;
+        if (entry.from != null) {
+            locked.put(entry.from.getMostSignificantBits(), entry.from.getLeastSignificantBits(),
+                    fromBalance - entry.amount, type.ordinal());
+        }
+        if (entry.to != null) {
+            long msb = entry.to.getMostSignificantBits();
+            long lsb = entry.to.getLeastSignificantBits();
+            locked.put(msb, lsb, MoneyUtils.addCapped(locked.get(msb, lsb), entry.amount), type.ordinal());
+        }
+        return BankBatch.Outcome.SUCCESS;
+    }
+
+    private static BankBatch.Outcome check(BankBatch.Entry entry, long fromBalance) {
+        if (entry.amount <= 0 || entry.kind == BankBatch.Kind.TRANSFER && entry.from.equals(entry.to)) {
+            return BankBatch.Outcome.INVALID;
+        }
+        if (entry.from != null && fromBalance < entry.amount) {
+            return BankBatch.Outcome.INSUFFICIENT_FUNDS;
+        }
+        return BankBatch.Outcome.SUCCESS;
+    }
+
+    private static long balanceOf(Map<UUID, Long> working, UuidLongMap.LockedEntries locked, UUID uuid) {
+        Long balance = working.get(uuid);
+        return balance != null ? balance : locked.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return The balance limit in minor units; without a configured limit, the largest balance there is
+     */
+    private static long limitOf(double maxBalance) {
+        return maxBalance > 0 && maxBalance < MoneyUtils.MAX_AMOUNT
+                ? MoneyUtils.toMinor(maxBalance)
+                : MoneyUtils.MAX_MINOR;
+    }
+
+    /**
+     * Runs a change that can take money out of the given accounts, which the caller has acquired.
+     * With shared storage the change runs with the stored accounts locked and up to date.
+     * @return False if the shared accounts could not be locked; the change did not run
+     */
+    private boolean spend(long[] keys, int keyCount, Runnable change) {
+        if (!sharedStorage) {
+            change.run();
+            return true;
+        }
+        return plugin.getDataManager().spend(keys, keyCount, remoteChange, change);
+    }
+
+    /**
+     * Applies the changes another server made to an account, if it is in memory;
+     * an account loaded later reads the stored balance anyway
+     * @param uuid The account
+     */
+    public void syncAccount(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (!cache.isResident(msb, lsb)) {
+            return;
+        }
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            plugin.getDataManager().refresh(msb, lsb, remoteChange);
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    public boolean hasBankBalance(UUID uuid, double amount) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            return MoneyUtils.isValidAmount(amount) && bankBalances.get(msb, lsb) >= MoneyUtils.toMinor(amount);
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    public Set<UUID> getAllBankAccounts() {
+        Set<UUID> accounts = new HashSet<>();
+        if (cache.isBounded()) {
+            // Not every account is in memory, but every one with a balance is ranked
+            leaderboard.visitRange(0, Integer.MAX_VALUE, (rank, msb, lsb, balance) -> accounts.add(new UUID(msb, lsb)));
+        } else {
+            bankBalances.forEach((msb, lsb, balance) -> accounts.add(new UUID(msb, lsb)));
+        }
+        return accounts;
+    }
 
-            // Skip if player has interest exemption
-            if (plugin.getServer().getOfflinePlayer(uuid).isOnline()) {
-                if (plugin.getServer().getPlayer(uuid).hasPermission("bank.interest.exempt")) {
-                    continue;
+    public List<BankEntry> getTopBalances(int limit) {
+        return getTopBalances(0, limit);
+    }
+
+    /**
+     * Get a page of the ranking, highest balance first
+     * @param offset Number of entries to skip
+     * @param limit Maximum number of entries to return
+     * @return The entries, in rank order
+     */
+    public List<BankEntry> getTopBalances(int offset, int limit) {
+        List<BankEntry> entries = new ArrayList<>(Math.max(0, Math.min(limit, 100)));
+        leaderboard.visitRange(offset, limit, (rank, msb, lsb, balance) ->
+                entries.add(new BankEntry(new UUID(msb, lsb), MoneyUtils.toMajor(balance))));
+        return entries;
+    }
+
+    /**
+     * Get an account's position in the ranking
+     * @param uuid The account
+     * @return The 1-based rank, or 0 if the account has no balance
+     */
+    public int getRank(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.settle(msb, lsb);
+            // The balance can change between the two lookups; retry until both agree
+            for (int attempt = 0; attempt < 3; attempt++) {
+                long balance = bankBalances.get(msb, lsb);
+                if (balance <= 0) {
+                    return 0;
+                }
+                int rank = leaderboard.rankOf(msb, lsb, balance);
+                if (rank > 0) {
+                    return rank;
                 }
             }
+            return 0;
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    /**
+     * Get the number of accounts with a positive balance
+     * @return The account count
+     */
+    public int getAccountCount() {
+        return leaderboard.size();
+    }
+
+    public double getTotalBankMoney() {
+        return MoneyUtils.toMajor(statistics.getTotal());
+    }
 
-            double interest = currentBalance * interestRate;
+    /**
+     * Get the running aggregates over all balances
+     * @return The statistics, updated on every change
+     */
+    public BankStatistics getStatistics() {
+        return statistics;
+    }
 
-            // Cap interest at maximum
-            if (interest > maxInterest) {
-                interest = maxInterest;
+    private AccountCache createCache() {
+        int maxAccounts = plugin.getConfig().getInt("storage.cache.max-accounts", 0);
+        String storage = plugin.getDataManager().getStorage().getName();
+        if (maxAccounts > 0 && plugin.getDataManager().getStorage().holdsEveryAccount()) {
+            plugin.getLogger().warning("storage.cache.max-accounts is ignored, " + storage
+                    + " storage keeps every account in memory anyway.");
+            maxAccounts = 0;
+        }
+        return new AccountCache(bankBalances, interest, plugin.getDataManager(), history, maxAccounts,
+                new File(plugin.getDataFolder(), "interest-periods.bin"), plugin.getLogger());
+    }
+
+    private TransactionHistory openHistory() {
+        if (!plugin.getConfig().getBoolean("history.enabled", true)) {
+            return null;
+        }
+        TransactionHistory opened = new TransactionHistory(new File(plugin.getDataFolder(), "history"),
+                plugin.getLogger(), plugin.getConfig().getInt("history.memory-entries", 8),
+                plugin.getConfig().getInt("history.max-entries", 1000));
+        try {
+            opened.open();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not open the transaction history, it is disabled until restart!", e);
+            return null;
+        }
+        plugin.getDataManager().scheduleMaintenance(() -> {
+            try {
+                opened.flush();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write the transaction history!", e);
             }
+        }, 1000);
+        return opened;
+    }
 
-            // Apply interest
-            setBankBalance(uuid, currentBalance + interest);
+    private void loadBankData() {
+        long start = System.nanoTime();
+        plugin.getDataManager().loadAllBankData((msb, lsb, amount) -> {
+            long balance = MoneyUtils.toMinorClamped(amount);
+            if (balance <= 0) {
+                return;
+            }
+            // Straight into the map, loading is not a change that needs saving
+            if (!cache.keepOnStartup(msb, lsb) || bankBalances.putIfAbsent(msb, lsb, balance)) {
+                leaderboard.update(msb, lsb, 0, balance);
+                statistics.update(0, balance);
+            }
+        });
+        plugin.getLogger().info("Loaded " + leaderboard.size() + " bank accounts in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms"
+                + (cache.isBounded() ? ", " + bankBalances.size() + " kept in memory." : "."));
+    }
 
-            // Notify player if online
-            if (plugin.getServer().getOfflinePlayer(uuid).isOnline()) {
-                String message = plugin.getConfig().getString("messages.interest-earned")
-                        .replace("{amount}", String.format("%.2f", interest))
-                        .replace("{balance}", String.format("%.2f", currentBalance + interest));
-                plugin.getServer().getPlayer(uuid).sendMessage(message);
+    /**
+     * Loads a player's account ahead of time, and with shared storage applies what other servers
+     * changed since it was loaded; safe to call from the async pre-login event
+     */
+    public void warmAccount(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            if (sharedStorage) {
+                plugin.getDataManager().refresh(msb, lsb, remoteChange);
             }
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    /**
+     * Called on the main thread when a player joins; keeps their account in memory while they are online
+     */
+    public void onJoin(UUID uuid, boolean exempt) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.onJoin(uuid, exempt);
+            cache.setOnline(msb, lsb, true);
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    /**
+     * Called on the main thread when a player leaves; their account can be evicted once it is saved
+     */
+    public void onQuit(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            interest.onQuit(uuid);
+            cache.setOnline(msb, lsb, false);
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    /**
+     * Pays all interest that is due to every account, as one batch
+     */
+    public void settleAllInterest() {
+        plugin.getDataManager().runBatch(interest::settleAll);
+    }
+
+    /**
+     * Switches interest to reloaded settings, after paying what is due under the old ones
+     * @param settings The new settings
+     */
+    public void applySettings(BankSettings settings) {
+        settleAllInterest();
+        interest.reschedule(settings);
+    }
+
+    /**
+     * Get a page of an account's balance changes
+     * @param uuid The account
+     * @param offset Number of newest changes to skip
+     * @param limit Maximum number of changes to return
+     * @return The changes, newest first; empty if the history is disabled or could not be read
+     */
+    public List<TransactionHistory.Entry> getHistory(UUID uuid, long offset, int limit) {
+        if (history == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return history.getEntries(uuid, offset, limit);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read the transaction history of " + uuid + "!", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return The number of balance changes recorded for an account
+     */
+    public long getHistorySize(UUID uuid) {
+        if (history == null) {
+            return 0;
+        }
+        try {
+            return history.getEntryCount(uuid);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read the transaction history of " + uuid + "!", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the history still in memory; called once when the plugin disables, after the last change
+     */
+    public void closeHistory() {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save the transaction history!", e);
+        }
+    }
+
+    public InterestAccrual getInterestAccrual() {
+        return interest;
+    }
+
+    public AccountCache getAccountCache() {
+        return cache;
+    }
+
+    /**
+     * An interest payment waiting to be announced to an online player
+     */
+    public static class InterestCredit {
+        private final UUID uuid;
+        private final double interest;
+        private final double balance;
+
+        public InterestCredit(UUID uuid, double interest, double balance) {
+            this.uuid = uuid;
+            this.interest = interest;
+            this.balance = balance;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public double getInterest() {
+            return interest;
+        }
+
+        public double getBalance() {
+            return balance;
         }
     }
 
@@ -126,4 +754,4 @@ public class BankManager {
             return balance;
         }
     }
-}
\ No newline at end of file
+}
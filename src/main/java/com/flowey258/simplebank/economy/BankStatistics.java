@@ -0,0 +1,123 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.utils.MoneyUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals over every bank balance, updated on each change so reading them is O(1).
+ *
+ * Sums are kept in minor units as longs, so they never drift the way repeated double
+ * additions do. The distribution is tracked in power-of-two buckets of minor units,
+ * which bounds any percentile estimate to within a factor of two of the true value.
+ */
+public class BankStatistics {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder accounts = new LongAdder();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a balance moving from one value to another. A balance of 0 means no account.
+     */
+    public void update(long oldBalance, long newBalance) {
+        if (oldBalance == newBalance) {
+            return;
+        }
+        total.add(newBalance - oldBalance);
+        if (oldBalance > 0) {
+            buckets.decrementAndGet(bucketOf(oldBalance));
+            if (newBalance <= 0) {
+                accounts.decrement();
+            }
+        }
+        if (newBalance > 0) {
+            buckets.incrementAndGet(bucketOf(newBalance));
+            if (oldBalance <= 0) {
+                accounts.increment();
+            }
+        }
+    }
+
+    /**
+     * Get the sum of every balance
+     * @return The total in minor units
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Get the number of accounts with a positive balance
+     * @return The account count
+     */
+    public long getAccountCount() {
+        return accounts.sum();
+    }
+
+    /**
+     * Get the mean balance of all accounts with a positive balance
+     * @return The mean in currency units, or 0 if there are no accounts
+     */
+    public double getMean() {
+        long count = accounts.sum();
+        return count > 0 ? MoneyUtils.toMajor(total.sum()) / count : 0.0;
+    }
+
+    /**
+     * Estimates a percentile of the balance distribution, interpolating inside its bucket
+     * @param percentile The percentile, from 0 to 100
+     * @return The estimated balance in currency units, or 0 if there are no accounts
+     */
+    public double getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = Math.max(0, buckets.get(i));
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+
+        double p = Math.max(0, Math.min(100, percentile));
+        long target = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (seen + counts[i] >= target) {
+                double lower = bucketLower(i);
+                double upper = i == BUCKETS - 1 ? Long.MAX_VALUE : bucketLower(i + 1);
+                double fraction = (target - seen) / (double) counts[i];
+                return (lower + (upper - lower) * fraction) / MoneyUtils.SCALE;
+            }
+            seen += counts[i];
+        }
+        return 0.0;
+    }
+
+    /**
+     * Get how many accounts fall into each power-of-two bucket
+     * @return Bucket counts; bucket i holds balances from 2^i up to 2^(i+1) minor units
+     */
+    public long[] getDistribution() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = Math.max(0, buckets.get(i));
+        }
+        return counts;
+    }
+
+    private static int bucketOf(long balance) {
+        return 63 - Long.numberOfLeadingZeros(balance);
+    }
+
+    private static double bucketLower(int bucket) {
+        return Math.scalb(1.0, bucket);
+    }
+}
@@ -0,0 +1,274 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.TransactionType;
+import com.flowey258.simplebank.utils.BankSettings;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Settles interest lazily instead of scanning every account each interval.
+ *
+ * Time is split into interest periods counted from when the plugin was enabled, the same
+ * points the old interval timer fired at. Each account remembers the last period it was
+ * settled for; whenever it is touched, the periods it missed are paid in one step with
+ * exactly the per-period rounding, minimum balance and maximum interest of a timer run.
+ * Accounts nobody touches are settled by the background sweeper in {@link com.flowey258.simplebank.tasks.InterestTask}.
+ * Accounts {@link AccountCache} evicted are settled when they are loaded again.
+ */
+public class InterestAccrual {
+
+    /**
+     * Marks an online player that should be told about their interest
+     */
+    public static final long NOTIFY = 1;
+
+    /**
+     * Marks an online player with the interest exemption permission
+     */
+    public static final long EXEMPT = 2;
+
+    private final UuidLongMap balances;
+    // Last settled period per account; absent means period 0
+    private final UuidLongMap settledPeriods = new UuidLongMap(1024);
+    // Online players, NOTIFY or EXEMPT; kept up to date on join and quit
+    private final UuidLongMap onlinePlayers = new UuidLongMap(128);
+    private final Queue<BankManager.InterestCredit> notifications = new ConcurrentLinkedQueue<>();
+
+    private volatile Schedule schedule;
+
+    public InterestAccrual(SimpleBank plugin, UuidLongMap balances) {
+        this(plugin, balances, System.currentTimeMillis());
+    }
+
+    /**
+     * @param plugin The plugin, for the interest settings
+     * @param balances The balances to pay interest on, in minor units
+     * @param epochMillis When period 0 started
+     */
+    public InterestAccrual(SimpleBank plugin, UuidLongMap balances, long epochMillis) {
+        this.balances = balances;
+        this.schedule = new Schedule(plugin.getSettings(), epochMillis, 0);
+    }
+
+    /**
+     * Switches to new interest settings. Periods keep counting from where they are, the new
+     * interval starts now and the new rate applies from the next period on.
+     * Settle every account first to pay the periods so far at the old rate.
+     * @param settings The new settings
+     */
+    public void reschedule(BankSettings settings) {
+        long now = System.currentTimeMillis();
+        schedule = new Schedule(settings, now, schedule.periodAt(now));
+    }
+
+    /**
+     * Get the number of interest periods that have fully elapsed
+     * @return The current period, 0 until the first interval has passed
+     */
+    public long currentPeriod() {
+        return schedule.periodAt(System.currentTimeMillis());
+    }
+
+    /**
+     * Pays any interest an account has missed. Cheap when there is nothing to settle.
+     */
+    public void settle(long msb, long lsb) {
+        Schedule current = schedule;
+        long period = current.periodAt(System.currentTimeMillis());
+        if (!current.enabled || period == 0 || settledPeriods.get(msb, lsb) >= period || balances.get(msb, lsb) == 0) {
+            return;
+        }
+        // Re-checked under the lock, another thread may have settled it in the meantime
+        balances.update(msb, lsb, balance -> settle(msb, lsb, balance, current, period),
+                TransactionType.INTEREST.ordinal());
+    }
+
+    /**
+     * Settles every account up to the current period as one batch
+     */
+    public void settleAll() {
+        Schedule current = schedule;
+        long period = current.periodAt(System.currentTimeMillis());
+        if (!current.enabled || period == 0) {
+            return;
+        }
+        balances.updateAll((msb, lsb, balance) -> settle(msb, lsb, balance, current, period),
+                TransactionType.INTEREST.ordinal());
+    }
+
+    /**
+     * Settles every account in one segment of the balance map, for the background sweeper
+     * @param segment The segment to settle
+     * @return The number of accounts in the segment
+     */
+    public int settleSegment(int segment) {
+        Schedule current = schedule;
+        long period = current.periodAt(System.currentTimeMillis());
+        if (!current.enabled || period == 0) {
+            return 0;
+        }
+        return balances.updateSegment(segment, (msb, lsb, balance) -> settle(msb, lsb, balance, current, period),
+                TransactionType.INTEREST.ordinal());
+    }
+
+    public int getSegmentCount() {
+        return balances.getSegmentCount();
+    }
+
+    /**
+     * Keeps the settled period in step with the balance; called under the account's lock for every change.
+     * A new account starts out settled, an emptied one is forgotten.
+     */
+    public void onBalanceChange(long msb, long lsb, long oldBalance, long newBalance) {
+        if (oldBalance <= 0 && newBalance > 0) {
+            settledPeriods.put(msb, lsb, currentPeriod(), 0);
+        } else if (newBalance <= 0) {
+            settledPeriods.put(msb, lsb, 0, 0);
+        }
+    }
+
+    /**
+     * Get the last period an account was settled for
+     * @return The period, 0 if it was never settled
+     */
+    public long getSettledPeriod(long msb, long lsb) {
+        return settledPeriods.get(msb, lsb);
+    }
+
+    /**
+     * Restores the period an account loaded back from storage was settled for when it was evicted,
+     * so the periods it missed in the meantime are paid the next time it is settled
+     * @param settledPeriod The period, or 0 for an account that was not in memory yet, like every
+     * account read at startup
+     */
+    public void onLoad(long msb, long lsb, long settledPeriod) {
+        settledPeriods.put(msb, lsb, settledPeriod, 0);
+    }
+
+    /**
+     * Forgets an account that was evicted from memory
+     */
+    public void onEvict(long msb, long lsb) {
+        settledPeriods.put(msb, lsb, 0, 0);
+    }
+
+    /**
+     * Computes the settled balance; called under the account's lock
+     */
+    private long settle(long msb, long lsb, long balance, Schedule current, long period) {
+        long periods = period - settledPeriods.get(msb, lsb);
+        if (periods <= 0) {
+            return balance;
+        }
+        settledPeriods.put(msb, lsb, period, 0);
+
+        long player = onlinePlayers.get(msb, lsb);
+        // Exempt players are only ever settled for periods they spent online
+        if (player == EXEMPT) {
+            return balance;
+        }
+
+        long settled = current.accrue(balance, periods);
+        if (player == NOTIFY && settled != balance) {
+            notifications.add(new BankManager.InterestCredit(new UUID(msb, lsb),
+                    MoneyUtils.toMajor(settled - balance), MoneyUtils.toMajor(settled)));
+        }
+        return settled;
+    }
+
+    /**
+     * Called on the main thread when a player joins, after their permissions are known
+     */
+    public void onJoin(UUID uuid, boolean exempt) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        // Settle the offline periods first, they are paid as non-exempt
+        settle(msb, lsb);
+        onlinePlayers.put(msb, lsb, exempt ? EXEMPT : NOTIFY, 0);
+    }
+
+    /**
+     * Called on the main thread when a player leaves
+     */
+    public void onQuit(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        settle(msb, lsb);
+        onlinePlayers.put(msb, lsb, 0, 0);
+    }
+
+    /**
+     * Get the next interest payment waiting to be announced
+     * @return The payment, or null if there is none
+     */
+    public BankManager.InterestCredit pollNotification() {
+        return notifications.poll();
+    }
+
+    private static long multiplyExactOrMax(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        return high == 0 && low >= 0 ? low : Long.MAX_VALUE;
+    }
+
+    /**
+     * The interest settings and where the periods start; replaced as a whole on reload
+     */
+    private static final class Schedule {
+        private final boolean enabled;
+        private final long epochMillis;
+        private final long intervalMillis;
+        private final long firstPeriod;
+        private final double rate;
+        private final long minBalance;
+        private final long maxInterest;
+
+        private Schedule(BankSettings settings, long epochMillis, long firstPeriod) {
+            this.enabled = settings.isInterestEnabled();
+            this.epochMillis = epochMillis;
+            this.intervalMillis = settings.getInterestIntervalMinutes() * 60_000L;
+            this.firstPeriod = firstPeriod;
+            this.rate = settings.getInterestRate();
+            this.minBalance = settings.getInterestMinimumBalance();
+            this.maxInterest = settings.getInterestMaximum();
+        }
+
+        /**
+         * Periods stand still while interest is disabled
+         */
+        private long periodAt(long millis) {
+            return enabled ? firstPeriod + Math.max(0, millis - epochMillis) / intervalMillis : firstPeriod;
+        }
+
+        /**
+         * Applies a number of interest periods, identical to running the old per-interval payment that many times
+         * @param balance The balance in minor units
+         * @param periods The number of periods
+         * @return The new balance in minor units
+         */
+        private long accrue(long balance, long periods) {
+            while (periods > 0) {
+                // Skip if balance is below minimum; it cannot grow on its own
+                if (balance < minBalance) {
+                    return balance;
+                }
+                long interest = Math.round(balance * rate);
+                if (interest >= maxInterest) {
+                    // Capped now means capped in every later period too, since the balance only grows
+                    return MoneyUtils.addCapped(balance, multiplyExactOrMax(maxInterest, periods));
+                }
+                if (interest == 0) {
+                    return balance;
+                }
+                balance = MoneyUtils.addCapped(balance, interest);
+                periods--;
+            }
+            return balance;
+        }
+    }
+}
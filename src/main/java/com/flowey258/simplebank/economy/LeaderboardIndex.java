@@ -0,0 +1,228 @@
+package com.flowey258.simplebank.economy;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Accounts ordered by balance (highest first), kept up to date on every change.
+ *
+ * An indexable skip list: every forward link also stores how many entries it skips,
+ * which gives O(log n) updates and rank lookups, and O(log n + k) for any page of k entries.
+ * Ties are broken by UUID so every account has a stable position.
+ */
+public class LeaderboardIndex {
+
+    private static final int MAX_LEVEL = 32;
+    private static final int LEVEL_PROBABILITY = 4; // 1 in 4 nodes is promoted a level
+
+    public interface EntryVisitor {
+        void visit(int rank, long mostSigBits, long leastSigBits, long balance);
+    }
+
+    private static final class Node {
+        private long balance;
+        private long msb;
+        private long lsb;
+        private final Node[] next;
+        private final int[] span;
+
+        private Node(int level) {
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node head = new Node(MAX_LEVEL);
+    private final Node[] update = new Node[MAX_LEVEL];
+    private final int[] rankAt = new int[MAX_LEVEL];
+    private int level = 1;
+    private int size;
+
+    /**
+     * Moves an account from its old balance to its new one. A balance of 0 means not ranked.
+     * Runs in O(log n); the node is reused, so moving an existing account allocates nothing.
+     */
+    public void update(long msb, long lsb, long oldBalance, long newBalance) {
+        if (oldBalance == newBalance) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Node node = oldBalance > 0 ? unlink(oldBalance, msb, lsb) : null;
+            if (newBalance <= 0) {
+                return;
+            }
+            if (node == null) {
+                node = new Node(randomLevel());
+                node.msb = msb;
+                node.lsb = lsb;
+            }
+            node.balance = newBalance;
+            link(node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits a page of the ranking in order
+     * @param offset Number of entries to skip (0 starts at the top)
+     * @param limit Maximum number of entries to visit
+     */
+    public void visitRange(int offset, int limit, EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            if (offset >= size || limit <= 0) {
+                return;
+            }
+            Node node = nodeAt(offset + 1);
+            for (int i = 0; i < limit && node != null; i++) {
+                visitor.visit(offset + i + 1, node.msb, node.lsb, node.balance);
+                node = node.next[0];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the 1-based rank of an account with the given balance
+     * @return The rank, or 0 if the account is not in the index with that balance
+     */
+    public int rankOf(long msb, long lsb, long balance) {
+        if (balance <= 0) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            Node node = head;
+            int rank = 0;
+            for (int i = level - 1; i >= 0; i--) {
+                while (node.next[i] != null && compare(node.next[i], balance, msb, lsb) <= 0) {
+                    rank += node.span[i];
+                    node = node.next[i];
+                }
+                if (node != head && node.msb == msb && node.lsb == lsb && node.balance == balance) {
+                    return rank;
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Orders by balance descending, then by UUID
+     */
+    private static int compare(Node node, long balance, long msb, long lsb) {
+        if (node.balance != balance) {
+            return node.balance > balance ? -1 : 1;
+        }
+        if (node.msb != msb) {
+            return Long.compare(node.msb, msb);
+        }
+        return Long.compare(node.lsb, lsb);
+    }
+
+    private Node nodeAt(int rank) {
+        Node node = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && traversed + node.span[i] <= rank) {
+                traversed += node.span[i];
+                node = node.next[i];
+            }
+            if (traversed == rank) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void link(Node node) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rankAt[i] = i == level - 1 ? 0 : rankAt[i + 1];
+            while (x.next[i] != null && compare(x.next[i], node.balance, node.msb, node.lsb) < 0) {
+                rankAt[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int nodeLevel = node.next.length;
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rankAt[i] = 0;
+                update[i] = head;
+                update[i].span[i] = size;
+            }
+            level = nodeLevel;
+        }
+
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rankAt[0] - rankAt[i]);
+            update[i].span[i] = (rankAt[0] - rankAt[i]) + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+    }
+
+    private Node unlink(long balance, long msb, long lsb) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], balance, msb, lsb) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        Node node = x.next[0];
+        if (node == null || node.balance != balance || node.msb != msb || node.lsb != lsb) {
+            return null;
+        }
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+
+        for (int i = 0; i < node.next.length; i++) {
+            node.next[i] = null;
+            node.span[i] = 0;
+        }
+        return node;
+    }
+
+    private static int randomLevel() {
+        int nodeLevel = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (nodeLevel < MAX_LEVEL && random.nextInt(LEVEL_PROBABILITY) == 0) {
+            nodeLevel++;
+        }
+        return nodeLevel;
+    }
+}
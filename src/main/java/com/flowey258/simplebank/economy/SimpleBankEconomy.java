@@ -0,0 +1,339 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import net.milkbowl.vault.economy.EconomyResponse.ResponseType;
+import org.bukkit.OfflinePlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The Vault economy SimpleBank registers when {@code economy.provider} is enabled.
+ *
+ * Wallets are kept by {@link WalletManager}. Vault's bank accounts map onto SimpleBank's
+ * bank accounts: every player has exactly one, named after the player. There are no worlds,
+ * so the per-world methods use the same wallet. Names are resolved through SimpleBank's player
+ * name index, never the server, so only players who have joined can be found by name.
+ * Safe to call from any thread.
+ */
+public class SimpleBankEconomy implements Economy {
+
+    private final SimpleBank plugin;
+    private final WalletManager wallets;
+    private final BankManager bankManager;
+
+    public SimpleBankEconomy(SimpleBank plugin, WalletManager wallets, BankManager bankManager) {
+        this.plugin = plugin;
+        this.wallets = wallets;
+        this.bankManager = bankManager;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return plugin.isEnabled();
+    }
+
+    @Override
+    public String getName() {
+        return "SimpleBank";
+    }
+
+    @Override
+    public boolean hasBankSupport() {
+        return true;
+    }
+
+    @Override
+    public int fractionalDigits() {
+        return Long.toString(MoneyUtils.SCALE).length() - 1;
+    }
+
+    @Override
+    public String format(double amount) {
+        return String.format("$%.2f", amount);
+    }
+
+    @Override
+    public String currencyNamePlural() {
+        return plugin.getSettings().getCurrencyPlural();
+    }
+
+    @Override
+    public String currencyNameSingular() {
+        return plugin.getSettings().getCurrencySingular();
+    }
+
+    // Wallets
+
+    @Override
+    public boolean hasAccount(String playerName) {
+        return true;
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player) {
+        return true;
+    }
+
+    @Override
+    public boolean hasAccount(String playerName, String worldName) {
+        return true;
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player, String worldName) {
+        return true;
+    }
+
+    @Override
+    public double getBalance(String playerName) {
+        UUID uuid = uuidOf(playerName);
+        return uuid != null ? wallets.getBalance(uuid) : 0;
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player) {
+        return wallets.getBalance(player.getUniqueId());
+    }
+
+    @Override
+    public double getBalance(String playerName, String world) {
+        return getBalance(playerName);
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player, String world) {
+        return getBalance(player);
+    }
+
+    @Override
+    public boolean has(String playerName, double amount) {
+        UUID uuid = uuidOf(playerName);
+        return uuid != null && wallets.has(uuid, amount);
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, double amount) {
+        return wallets.has(player.getUniqueId(), amount);
+    }
+
+    @Override
+    public boolean has(String playerName, String worldName, double amount) {
+        return has(playerName, amount);
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, String worldName, double amount) {
+        return has(player, amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(String playerName, double amount) {
+        UUID uuid = uuidOf(playerName);
+        return uuid != null ? withdraw(uuid, amount) : unknownPlayer();
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
+        return withdraw(player.getUniqueId(), amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
+        return withdrawPlayer(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
+        return withdrawPlayer(player, amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(String playerName, double amount) {
+        UUID uuid = uuidOf(playerName);
+        return uuid != null ? deposit(uuid, amount) : unknownPlayer();
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
+        return deposit(player.getUniqueId(), amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
+        return depositPlayer(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
+        return depositPlayer(player, amount);
+    }
+
+    @Override
+    public boolean createPlayerAccount(String playerName) {
+        return true;
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player) {
+        return true;
+    }
+
+    @Override
+    public boolean createPlayerAccount(String playerName, String worldName) {
+        return true;
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player, String worldName) {
+        return true;
+    }
+
+    private EconomyResponse withdraw(UUID uuid, double amount) {
+        if (amount < 0) {
+            return new EconomyResponse(0, wallets.getBalance(uuid), ResponseType.FAILURE, "Cannot withdraw negative funds");
+        }
+        if (!MoneyUtils.isValidAmount(amount)) {
+            return new EconomyResponse(0, wallets.getBalance(uuid), ResponseType.FAILURE, "Invalid amount");
+        }
+        if (!wallets.withdraw(uuid, amount)) {
+            return new EconomyResponse(0, wallets.getBalance(uuid), ResponseType.FAILURE, "Insufficient funds");
+        }
+        return new EconomyResponse(amount, wallets.getBalance(uuid), ResponseType.SUCCESS, null);
+    }
+
+    private EconomyResponse deposit(UUID uuid, double amount) {
+        if (amount < 0) {
+            return new EconomyResponse(0, wallets.getBalance(uuid), ResponseType.FAILURE, "Cannot deposit negative funds");
+        }
+        if (!MoneyUtils.isValidAmount(amount)) {
+            return new EconomyResponse(0, wallets.getBalance(uuid), ResponseType.FAILURE, "Invalid amount");
+        }
+        return new EconomyResponse(amount, wallets.deposit(uuid, amount), ResponseType.SUCCESS, null);
+    }
+
+    // Banks: one per player, named after the player
+
+    @Override
+    public EconomyResponse createBank(String name, String player) {
+        return isBankOwner(name, player);
+    }
+
+    @Override
+    public EconomyResponse createBank(String name, OfflinePlayer player) {
+        return isBankOwner(name, player);
+    }
+
+    @Override
+    public EconomyResponse deleteBank(String name) {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, "Bank accounts cannot be deleted");
+    }
+
+    @Override
+    public EconomyResponse bankBalance(String name) {
+        UUID owner = uuidOf(name);
+        if (owner == null) {
+            return unknownBank();
+        }
+        return new EconomyResponse(0, bankManager.getBankBalance(owner), ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse bankHas(String name, double amount) {
+        UUID owner = uuidOf(name);
+        if (owner == null) {
+            return unknownBank();
+        }
+        double balance = bankManager.getBankBalance(owner);
+        return balance >= amount
+                ? new EconomyResponse(0, balance, ResponseType.SUCCESS, null)
+                : new EconomyResponse(0, balance, ResponseType.FAILURE, "Insufficient funds");
+    }
+
+    @Override
+    public EconomyResponse bankWithdraw(String name, double amount) {
+        UUID uuid = uuidOf(name);
+        if (uuid == null) {
+            return unknownBank();
+        }
+        if (amount < 0 || !MoneyUtils.isValidAmount(amount)) {
+            return new EconomyResponse(0, bankManager.getBankBalance(uuid), ResponseType.FAILURE,
+                    amount < 0 ? "Cannot withdraw negative funds" : "Invalid amount");
+        }
+        if (!bankManager.withdrawIfSufficient(uuid, amount)) {
+            return new EconomyResponse(0, bankManager.getBankBalance(uuid), ResponseType.FAILURE, "Insufficient funds");
+        }
+        return new EconomyResponse(amount, bankManager.getBankBalance(uuid), ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse bankDeposit(String name, double amount) {
+        UUID uuid = uuidOf(name);
+        if (uuid == null) {
+            return unknownBank();
+        }
+        double maxBalance = plugin.getSettings().getMaxBalance();
+        if (amount < 0 || !MoneyUtils.isValidAmount(amount)) {
+            return new EconomyResponse(0, bankManager.getBankBalance(uuid), ResponseType.FAILURE,
+                    amount < 0 ? "Cannot deposit negative funds" : "Invalid amount");
+        }
+        if (!bankManager.depositIfWithinLimit(uuid, amount, maxBalance)) {
+            return new EconomyResponse(0, bankManager.getBankBalance(uuid), ResponseType.FAILURE,
+                    "Bank balance limit reached");
+        }
+        return new EconomyResponse(amount, bankManager.getBankBalance(uuid), ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, String playerName) {
+        return name != null && name.equalsIgnoreCase(playerName) && uuidOf(name) != null
+                ? new EconomyResponse(0, 0, ResponseType.SUCCESS, null)
+                : new EconomyResponse(0, 0, ResponseType.FAILURE, "Each player only owns the bank account named after them");
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, OfflinePlayer player) {
+        return isBankOwner(name, player.getName());
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, String playerName) {
+        return isBankOwner(name, playerName);
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, OfflinePlayer player) {
+        return isBankOwner(name, player);
+    }
+
+    @Override
+    public List<String> getBanks() {
+        List<String> banks = new ArrayList<>();
+        for (UUID uuid : bankManager.getAllBankAccounts()) {
+            String name = plugin.getPlayerNames().getName(uuid);
+            if (name != null) {
+                banks.add(name);
+            }
+        }
+        return banks;
+    }
+
+    /**
+     * @return The UUID of the player last seen with that name, or null if they never joined
+     */
+    private UUID uuidOf(String playerName) {
+        return playerName != null ? plugin.getPlayerNames().getUuid(playerName) : null;
+    }
+
+    private static EconomyResponse unknownPlayer() {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "No player with that name has joined the server");
+    }
+
+    private static EconomyResponse unknownBank() {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "No player with that name has a bank account");
+    }
+}
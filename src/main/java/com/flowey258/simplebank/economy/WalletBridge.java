@@ -0,0 +1,151 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.IntentLog;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves money between a player's Vault wallet and their bank account.
+ *
+ * The two sides live in different plugins and are saved at different times, so every move is
+ * logged in the {@link IntentLog} as it goes. If the server stops half way,
+ * {@link #recoverUnfinished()} brings the bank side in line with the last step that was logged.
+ * The log is group-committed in the background, so a move never waits for the disk.
+ */
+public class WalletBridge {
+
+    /**
+     * The result of a move
+     */
+    public enum Outcome {
+        SUCCESS,
+        // The bank account did not hold enough money
+        INSUFFICIENT_FUNDS,
+        // The bank account would go over the maximum balance
+        LIMIT_REACHED,
+        // The economy plugin refused to change the wallet
+        WALLET_FAILED
+    }
+
+    private final SimpleBank plugin;
+    private final BankManager bankManager;
+    private final IntentLog log;
+
+    public WalletBridge(SimpleBank plugin) {
+        this.plugin = plugin;
+        this.bankManager = plugin.getBankManager();
+        this.log = plugin.getDataManager().getIntentLog();
+    }
+
+    /**
+     * Moves money from the player's wallet into their bank account
+     * @param player The player
+     * @param amount The amount to move
+     * @param maxBalance The maximum bank balance, or 0 or less for no limit
+     * @return SUCCESS, LIMIT_REACHED or WALLET_FAILED
+     */
+    public Outcome deposit(OfflinePlayer player, double amount, double maxBalance) {
+        Economy economy = plugin.getEconomy();
+        UUID uuid = player.getUniqueId();
+        long cents = MoneyUtils.toMinor(amount);
+        IntentLog.Intent intent = log.begin(IntentLog.Kind.DEPOSIT, uuid, cents);
+
+        EconomyResponse taken = economy.withdrawPlayer(player, amount);
+        if (!taken.transactionSuccess()) {
+            intent.record(IntentLog.State.ABORT, 0);
+            logRefused("withdraw from", player, amount, taken);
+            return Outcome.WALLET_FAILED;
+        }
+        intent.record(IntentLog.State.WALLET_DONE, 0);
+
+        if (bankManager.depositIfWithinLimit(uuid, amount, maxBalance,
+                () -> intent.record(IntentLog.State.BANK_DONE, cents))) {
+            intent.record(IntentLog.State.COMMIT, 0);
+            return Outcome.SUCCESS;
+        }
+
+        // Another change raced us past the limit; give the money back
+        EconomyResponse refund = economy.depositPlayer(player, amount);
+        if (!refund.transactionSuccess()) {
+            plugin.getLogger().severe("Could not refund " + String.format("%.2f", amount) + " to the wallet of "
+                    + player.getName() + " (" + uuid + "): " + refund.errorMessage);
+        }
+        intent.record(IntentLog.State.ABORT, 0);
+        return Outcome.LIMIT_REACHED;
+    }
+
+    /**
+     * Moves money from the player's bank account into their wallet
+     * @param player The player
+     * @param amount The amount to move
+     * @return SUCCESS, INSUFFICIENT_FUNDS or WALLET_FAILED
+     */
+    public Outcome withdraw(OfflinePlayer player, double amount) {
+        UUID uuid = player.getUniqueId();
+        long cents = MoneyUtils.toMinor(amount);
+        IntentLog.Intent intent = log.begin(IntentLog.Kind.WITHDRAW, uuid, cents);
+
+        if (!bankManager.withdrawIfSufficient(uuid, amount,
+                () -> intent.record(IntentLog.State.BANK_DONE, -cents))) {
+            intent.record(IntentLog.State.ABORT, 0);
+            return Outcome.INSUFFICIENT_FUNDS;
+        }
+
+        EconomyResponse given = plugin.getEconomy().depositPlayer(player, amount);
+        if (!given.transactionSuccess()) {
+            // Put the money back, logged in the same step as the refund
+            bankManager.depositIfWithinLimit(uuid, amount, 0, () -> intent.record(IntentLog.State.ABORT, cents));
+            logRefused("deposit to", player, amount, given);
+            return Outcome.WALLET_FAILED;
+        }
+        intent.record(IntentLog.State.COMMIT, 0);
+        return Outcome.SUCCESS;
+    }
+
+    /**
+     * Applies the bank side of every move the last run left unfinished, and saves the result.
+     * Call it once at startup, before anything else changes bank balances.
+     */
+    public void recoverUnfinished() {
+        List<IntentLog.Unfinished> unfinished = plugin.getDataManager().takeUnfinishedIntents();
+        if (unfinished.isEmpty()) {
+            return;
+        }
+
+        int corrected = 0;
+        for (IntentLog.Unfinished intent : unfinished) {
+            UUID uuid = intent.getUuid();
+            long missing = intent.getMissingBankChange();
+            if (missing > 0) {
+                bankManager.addToBankBalance(uuid, MoneyUtils.toMajor(missing));
+            } else if (missing < 0) {
+                bankManager.removeFromBankBalance(uuid, MoneyUtils.toMajor(-missing));
+            }
+            if (missing != 0) {
+                corrected++;
+                plugin.getLogger().info("Recovered a " + intent.getKind().name().toLowerCase() + " of " + uuid
+                        + ": bank balance changed by " + String.format("%.2f", MoneyUtils.toMajor(missing)));
+            }
+            if (intent.isInFlight() && !intent.isCompleted()) {
+                plugin.getLogger().warning("Rolled back a " + intent.getKind().name().toLowerCase() + " of " + uuid
+                        + " that stopped before its wallet step was confirmed; their wallet may need checking.");
+            }
+        }
+
+        // Makes the corrections durable and discards the old log
+        plugin.getDataManager().saveData();
+        plugin.getLogger().info("Checked " + unfinished.size() + " wallet transactions left in the intent log, corrected "
+                + corrected + " bank balances.");
+    }
+
+    private void logRefused(String action, OfflinePlayer player, double amount, EconomyResponse response) {
+        plugin.getLogger().warning("The economy plugin refused to " + action + " the wallet of " + player.getName()
+                + " (" + String.format("%.2f", amount) + "): " + response.errorMessage);
+    }
+}
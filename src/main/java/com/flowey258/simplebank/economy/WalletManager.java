@@ -0,0 +1,103 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.TransactionType;
+import com.flowey258.simplebank.utils.MoneyUtils;
+import com.flowey258.simplebank.utils.UuidLongMap;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds every wallet balance in memory when SimpleBank is the server's economy provider.
+ *
+ * Wallets use the same fixed-point {@link UuidLongMap} as {@link BankManager} and their own
+ * {@link DataManager}, so changes are batched to disk in the background. All methods are
+ * safe to call from any thread.
+ */
+public class WalletManager {
+
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+
+    private final UuidLongMap wallets;
+    private final DataManager dataManager;
+    private final SimpleBank plugin;
+    private final LongAdder total = new LongAdder();
+
+    public WalletManager(SimpleBank plugin, DataManager dataManager) {
+        this.dataManager = dataManager;
+        this.wallets = new UuidLongMap(1024, this::onBalanceChange);
+        this.plugin = plugin;
+
+        long start = System.nanoTime();
+        dataManager.loadAllBankData((msb, lsb, balance) -> {
+            long minor = MoneyUtils.toMinorClamped(balance);
+            // Loading is not a change, so it is neither saved nor seen by the listener
+            if (minor > 0 && wallets.putIfAbsent(msb, lsb, minor)) {
+                total.add(minor);
+            }
+        });
+        plugin.getLogger().info("Loaded " + wallets.size() + " wallets in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+
+    private void onBalanceChange(long msb, long lsb, long oldBalance, long newBalance, int type) {
+        total.add(newBalance - oldBalance);
+        dataManager.saveBankData(msb, lsb, newBalance, newBalance - oldBalance, TRANSACTION_TYPES[type]);
+    }
+
+    public double getBalance(UUID uuid) {
+        return MoneyUtils.toMajor(wallets.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+    }
+
+    public boolean has(UUID uuid, double amount) {
+        return MoneyUtils.isValidAmount(amount)
+                && wallets.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= MoneyUtils.toMinor(amount);
+    }
+
+    /**
+     * @return The balance after the deposit
+     */
+    public double deposit(UUID uuid, double amount) {
+        long minor = MoneyUtils.toMinor(amount);
+        return MoneyUtils.toMajor(wallets.update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                current -> Math.max(0, minor > 0 ? MoneyUtils.addCapped(current, minor) : current + minor),
+                TransactionType.DEPOSIT.ordinal()));
+    }
+
+    /**
+     * Withdraws only if the wallet holds at least the given amount, as one atomic step
+     * @return True if the money was withdrawn
+     */
+    public boolean withdraw(UUID uuid, double amount) {
+        return wallets.addWithin(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                -MoneyUtils.toMinor(amount), 0, Long.MAX_VALUE, TransactionType.WITHDRAW.ordinal());
+    }
+
+    /**
+     * Gives a new player the configured starting balance, unless their wallet already holds money
+     */
+    public void grantStartingBalance(UUID uuid) {
+        long startingBalance = plugin.getSettings().getWalletStartingBalance();
+        if (startingBalance > 0) {
+            wallets.update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                    balance -> balance == 0 ? startingBalance : balance, TransactionType.SET.ordinal());
+        }
+    }
+
+    /**
+     * @return The number of wallets holding money
+     */
+    public int getWalletCount() {
+        return wallets.size();
+    }
+
+    public double getTotalMoney() {
+        return MoneyUtils.toMajor(total.sum());
+    }
+
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+}
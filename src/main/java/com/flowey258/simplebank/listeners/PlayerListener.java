@@ -1,9 +1,11 @@
 package com.flowey258.simplebank.listeners;
 
 import com.flowey258.simplebank.SimpleBank;
-import com.flowey258.simplebank.utils.MessageUtils;
+import com.flowey258.simplebank.utils.MessageTemplate.Placeholder;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
@@ -15,25 +17,48 @@ public class PlayerListener implements Listener {
         this.plugin = plugin;
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        // Load the account off the main thread, so joining never waits for storage
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            plugin.getBankManager().warmAccount(event.getUniqueId());
+        }
+    }
+
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        plugin.getPlayerNames().record(event.getPlayer().getUniqueId(), event.getPlayer().getName());
+        plugin.getBankManager().onJoin(event.getPlayer().getUniqueId(),
+                event.getPlayer().hasPermission("bank.interest.exempt"));
+        if (plugin.getWalletManager() != null && !event.getPlayer().hasPlayedBefore()) {
+            plugin.getWalletManager().grantStartingBalance(event.getPlayer().getUniqueId());
+        }
+
         // Check if player has any bank balance and notify them
         double bankBalance = plugin.getBankManager().getBankBalance(event.getPlayer().getUniqueId());
 
-        if (bankBalance > 0 && plugin.getConfig().getBoolean("notifications.login-balance", true)) {
+        if (bankBalance > 0 && plugin.getSettings().isLoginNotification()) {
             // Delay the message slightly so it doesn't get lost in join messages
             plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                String message = plugin.getConfig().getString("messages.login-notification")
-                        .replace("{balance}", String.format("%.2f", bankBalance));
-                event.getPlayer().sendMessage(MessageUtils.colorize(message));
+                String message = plugin.getMessages().get("login-notification")
+                        .with(Placeholder.BALANCE, bankBalance)
+                        .render();
+                event.getPlayer().sendMessage(message);
             }, 40L); // 2 seconds delay
         }
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        // Save player data when they leave (optional, data is already saved on changes)
-        // This is just an extra safety measure
-        plugin.getDataManager().saveData();
+        plugin.getBankManager().onQuit(event.getPlayer().getUniqueId());
+        plugin.getCommandPipeline().onQuit(event.getPlayer().getUniqueId());
+
+        // Push any pending changes to disk in the background when they leave
+        // This is just an extra safety measure, the auto-save flushes them anyway
+        // With a bounded account cache, the account can only be evicted once it has been written
+        plugin.getDataManager().requestFlush();
+        if (plugin.getWalletManager() != null) {
+            plugin.getWalletManager().getDataManager().requestFlush();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+package com.flowey258.simplebank.metrics;
+
+import com.flowey258.simplebank.SimpleBank;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Runtime metrics for saves, interest, commands and transactions.
+ *
+ * Recording only touches counters and histograms, so it is always on. The numbers are
+ * readable over JMX, with {@code /bank stats}, and optionally as a Prometheus text file.
+ */
+public class BankMetrics implements BankMetricsMXBean {
+
+    private static final String OBJECT_NAME = "com.flowey258.simplebank:type=Metrics";
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final SimpleBank plugin;
+
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final LongAdder flushedAccounts = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    private final LatencyHistogram interestLatency = new LatencyHistogram();
+    private final LongAdder interestAccounts = new LongAdder();
+    private final LongAdder interestCredits = new LongAdder();
+    private final AtomicLong interestLastRunNanos = new AtomicLong();
+
+    private final RateMeter transactions = new RateMeter();
+    private final Map<String, LatencyHistogram> commandLatency = new ConcurrentHashMap<>();
+
+    private ObjectName registeredName;
+
+    public BankMetrics(SimpleBank plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Records one write of pending changes to storage
+     * @param nanos How long the write took
+     * @param accounts The number of accounts written
+     * @param success False if the storage failed
+     */
+    public void recordFlush(long nanos, int accounts, boolean success) {
+        flushLatency.record(nanos);
+        if (success) {
+            flushedAccounts.add(accounts);
+        } else {
+            flushFailures.increment();
+        }
+    }
+
+    /**
+     * Records one full interest pass over all accounts
+     * @param nanos The time spent settling accounts
+     * @param accounts The number of accounts processed
+     */
+    public void recordInterestRun(long nanos, long accounts) {
+        interestLatency.record(nanos);
+        interestAccounts.add(accounts);
+        interestLastRunNanos.set(nanos);
+    }
+
+    /**
+     * Records a balance change; called on the balance hot path
+     * @param interest True if the change paid interest
+     */
+    public void recordTransaction(boolean interest) {
+        transactions.mark();
+        if (interest) {
+            interestCredits.increment();
+        }
+    }
+
+    /**
+     * Records how long a subcommand took
+     * @param subCommand The subcommand name, not its alias
+     * @param nanos The time taken
+     */
+    public void recordCommand(String subCommand, long nanos) {
+        commandLatency.computeIfAbsent(subCommand, name -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Updates the moving averages; runs every {@link RateMeter#TICK_SECONDS} seconds
+     */
+    public void tick() {
+        transactions.tick();
+    }
+
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    public LatencyHistogram getInterestLatency() {
+        return interestLatency;
+    }
+
+    /**
+     * @return Latency per subcommand, sorted by name
+     */
+    public Map<String, LatencyHistogram> getCommandLatency() {
+        return new TreeMap<>(commandLatency);
+    }
+
+    @Override
+    public int getPendingSaves() {
+        return plugin.getDataManager() != null ? plugin.getDataManager().getPendingSaveCount() : 0;
+    }
+
+    @Override
+    public long getTransactionCount() {
+        return transactions.getCount();
+    }
+
+    @Override
+    public double getTransactionsPerSecond() {
+        return transactions.getRatePerSecond();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushLatency.getCount();
+    }
+
+    @Override
+    public long getFlushFailures() {
+        return flushFailures.sum();
+    }
+
+    @Override
+    public long getFlushedAccounts() {
+        return flushedAccounts.sum();
+    }
+
+    @Override
+    public double getFlushMeanMillis() {
+        return flushLatency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getFlushP99Millis() {
+        return flushLatency.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getFlushMaxMillis() {
+        return flushLatency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getInterestRuns() {
+        return interestLatency.getCount();
+    }
+
+    @Override
+    public long getInterestAccountsProcessed() {
+        return interestAccounts.sum();
+    }
+
+    @Override
+    public long getInterestCredits() {
+        return interestCredits.sum();
+    }
+
+    @Override
+    public double getInterestLastRunMillis() {
+        return interestLastRunNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Double> getCommandP99Millis() {
+        Map<String, Double> result = new TreeMap<>();
+        commandLatency.forEach((name, histogram) -> result.put(name, histogram.getPercentile(99) / NANOS_PER_MILLI));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        commandLatency.forEach((name, histogram) -> result.put(name, histogram.getCount()));
+        return result;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                // Left behind by a previous load of the plugin
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            registeredName = name;
+        } catch (JMException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not register metrics MBean", e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not unregister metrics MBean", e);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format, for the node exporter's textfile collector
+     * @param target The .prom file; replaced atomically so a scrape never sees half a file
+     */
+    public void writePrometheusFile(File target) {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "simplebank_pending_saves", "Changed accounts waiting to be written", getPendingSaves());
+        counter(out, "simplebank_transactions_total", "Balance changes", getTransactionCount());
+        gauge(out, "simplebank_transactions_per_second", "Balance changes per second, one-minute average",
+                getTransactionsPerSecond());
+        summary(out, "simplebank_flush_duration_seconds", "Time taken to write pending changes", null, flushLatency);
+        counter(out, "simplebank_flushed_accounts_total", "Accounts written by flushes", getFlushedAccounts());
+        counter(out, "simplebank_flush_failures_total", "Flushes that failed", getFlushFailures());
+        summary(out, "simplebank_interest_run_duration_seconds", "Time taken by a full interest pass",
+                null, interestLatency);
+        counter(out, "simplebank_interest_accounts_total", "Accounts processed by interest passes",
+                getInterestAccountsProcessed());
+        counter(out, "simplebank_interest_credits_total", "Interest payments made", getInterestCredits());
+
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : getCommandLatency().entrySet()) {
+            summary(out, "simplebank_command_duration_seconds", first ? "Time taken by /bank subcommands" : null,
+                    entry.getKey(), entry.getValue());
+            first = false;
+        }
+
+        File tempFile = new File(target.getParentFile(), target.getName() + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not write metrics to " + target.getName(), e);
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * @param help The help text, or null if the header was already written for another label
+     * @param command The command label value, or null for an unlabelled metric
+     */
+    private static void summary(StringBuilder out, String name, String help, String command, LatencyHistogram histogram) {
+        if (help != null) {
+            header(out, name, help, "summary");
+        }
+        String labels = command != null ? "command=\"" + command + "\"," : "";
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            out.append(name).append("{").append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(format(histogram.getPercentile(quantile * 100) / NANOS_PER_SECOND)).append('\n');
+        }
+        String suffixLabels = command != null ? "{command=\"" + command + "\"}" : "";
+        out.append(name).append("_sum").append(suffixLabels).append(' ')
+                .append(format(histogram.getSum() / NANOS_PER_SECOND)).append('\n');
+        out.append(name).append("_count").append(suffixLabels).append(' ')
+                .append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
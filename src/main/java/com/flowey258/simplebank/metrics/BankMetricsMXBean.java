@@ -0,0 +1,46 @@
+package com.flowey258.simplebank.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link BankMetrics}, registered as {@code com.flowey258.simplebank:type=Metrics}.
+ * Durations are in milliseconds.
+ */
+public interface BankMetricsMXBean {
+
+    int getPendingSaves();
+
+    long getTransactionCount();
+
+    double getTransactionsPerSecond();
+
+    long getFlushCount();
+
+    long getFlushFailures();
+
+    long getFlushedAccounts();
+
+    double getFlushMeanMillis();
+
+    double getFlushP99Millis();
+
+    double getFlushMaxMillis();
+
+    long getInterestRuns();
+
+    long getInterestAccountsProcessed();
+
+    long getInterestCredits();
+
+    double getInterestLastRunMillis();
+
+    /**
+     * @return The 99th percentile latency of each subcommand
+     */
+    Map<String, Double> getCommandP99Millis();
+
+    /**
+     * @return How often each subcommand was run
+     */
+    Map<String, Long> getCommandCounts();
+}
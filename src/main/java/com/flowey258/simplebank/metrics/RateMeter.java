@@ -0,0 +1,47 @@
+package com.flowey258.simplebank.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and keeps a one-minute moving average of their rate,
+ * the same way load averages are computed. {@link #tick()} must run every
+ * {@link #TICK_SECONDS} seconds; marking is a single counter increment.
+ */
+public class RateMeter {
+
+    public static final int TICK_SECONDS = 5;
+
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private long lastCount;
+    private volatile double rate;
+    private boolean initialized;
+
+    public void mark() {
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Events per second, averaged over about a minute
+     */
+    public double getRatePerSecond() {
+        return rate;
+    }
+
+    public synchronized void tick() {
+        long current = count.sum();
+        double instant = (current - lastCount) / (double) TICK_SECONDS;
+        lastCount = current;
+        if (initialized) {
+            rate += ALPHA * (instant - rate);
+        } else {
+            rate = instant;
+            initialized = true;
+        }
+    }
+}
@@ -1,58 +1,82 @@
 package com.flowey258.simplebank.tasks;
 
 import com.flowey258.simplebank.SimpleBank;
+import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.InterestAccrual;
+import com.flowey258.simplebank.utils.MessageTemplate;
+import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
 
+/**
+ * Background side of the lazy interest system.
+ *
+ * Accounts settle their own interest whenever they are used, so nothing has to run at the
+ * interval boundary. This task only sweeps idle accounts, one map segment per tick off the
+ * main thread, after each new period starts, and announces payments a few per tick on the main thread.
+ */
 public class InterestTask {
 
+    private static final int MESSAGES_PER_TICK = 20;
+
     private final SimpleBank plugin;
-    private BukkitTask task;
+    private BukkitTask sweeper;
+    private BukkitTask notifier;
+
+    // Only touched by the sweeper task
+    private long sweptPeriod;
+    private int nextSegment = -1;
+    private long sweepNanos;
+    private long sweepAccounts;
 
     public InterestTask(SimpleBank plugin) {
         this.plugin = plugin;
     }
 
     public void start() {
-        if (task != null && !task.isCancelled()) {
-            task.cancel();
-        }
+        stopTasks();
 
-        // Get interval from config (in minutes, convert to ticks)
-        long intervalMinutes = plugin.getConfig().getLong("interest.interval-minutes", 1440); // Default 24 hours
-        long intervalTicks = intervalMinutes * 60 * 20; // Convert to ticks
-
-        task = new BukkitRunnable() {
+        long intervalMinutes = plugin.getSettings().getInterestIntervalMinutes();
+        sweeper = new BukkitRunnable() {
             @Override
             public void run() {
                 try {
-                    plugin.getBankManager().applyInterest();
-                    plugin.getLogger().info("Interest applied to all eligible bank accounts.");
+                    sweep();
                 } catch (Exception e) {
                     plugin.getLogger().severe("Error applying interest: " + e.getMessage());
                     e.printStackTrace();
                 }
             }
-        }.runTaskTimer(plugin, intervalTicks, intervalTicks);
+        }.runTaskTimerAsynchronously(plugin, 20, 1);
+
+        notifier = new BukkitRunnable() {
+            @Override
+            public void run() {
+                announcePayments();
+            }
+        }.runTaskTimer(plugin, 20, 1);
 
         plugin.getLogger().info("Interest task started. Interval: " + intervalMinutes + " minutes");
     }
 
     public void stop() {
-        if (task != null && !task.isCancelled()) {
-            task.cancel();
+        if (isRunning()) {
+            stopTasks();
             plugin.getLogger().info("Interest task stopped.");
         }
     }
 
     public boolean isRunning() {
-        return task != null && !task.isCancelled();
+        return sweeper != null && !sweeper.isCancelled();
     }
 
+    /**
+     * Settles every account that has interest due right away, instead of waiting for the sweeper
+     */
     public void runNow() {
         plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
             try {
-                plugin.getBankManager().applyInterest();
+                plugin.getBankManager().settleAllInterest();
                 plugin.getLogger().info("Manual interest application completed.");
             } catch (Exception e) {
                 plugin.getLogger().severe("Error during manual interest application: " + e.getMessage());
@@ -60,4 +84,61 @@ public class InterestTask {
             }
         });
     }
-}
\ No newline at end of file
+
+    private void stopTasks() {
+        if (sweeper != null && !sweeper.isCancelled()) {
+            sweeper.cancel();
+        }
+        if (notifier != null && !notifier.isCancelled()) {
+            notifier.cancel();
+        }
+    }
+
+    /**
+     * Settles one segment of the accounts per call once a new period has started
+     */
+    private void sweep() {
+        InterestAccrual accrual = plugin.getBankManager().getInterestAccrual();
+        if (nextSegment < 0) {
+            long period = accrual.currentPeriod();
+            if (period <= sweptPeriod) {
+                return;
+            }
+            sweptPeriod = period;
+            nextSegment = 0;
+            sweepNanos = 0;
+            sweepAccounts = 0;
+        }
+
+        long start = System.nanoTime();
+        sweepAccounts += accrual.settleSegment(nextSegment++);
+        sweepNanos += System.nanoTime() - start;
+        if (nextSegment == accrual.getSegmentCount()) {
+            nextSegment = -1;
+            plugin.getMetrics().recordInterestRun(sweepNanos, sweepAccounts);
+            plugin.getLogger().info("Interest applied to all eligible bank accounts.");
+        }
+    }
+
+    private void announcePayments() {
+        InterestAccrual accrual = plugin.getBankManager().getInterestAccrual();
+        MessageTemplate template = null;
+        for (int sent = 0; sent < MESSAGES_PER_TICK; sent++) {
+            BankManager.InterestCredit credit = accrual.pollNotification();
+            if (credit == null) {
+                return;
+            }
+            Player online = plugin.getServer().getPlayer(credit.getUuid());
+            if (online == null) {
+                continue;
+            }
+            if (template == null) {
+                template = plugin.getMessages().get("interest-earned");
+            }
+            online.sendMessage(template
+                    .with(MessageTemplate.Placeholder.AMOUNT, credit.getInterest())
+                    .with(MessageTemplate.Placeholder.BALANCE, credit.getBalance())
+                    .render());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.flowey258.simplebank.utils;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * The settings of config.yml that can change while the server runs, read once into plain fields.
+ *
+ * Instances never change; a reload builds a new one and publishes it as a whole, so a thread
+ * that got one sees every setting from the same version of the file. Storage settings are not
+ * in here, those only take effect after a restart.
+ */
+public final class BankSettings {
+
+    private final double maxBalance;
+    private final long walletStartingBalance;
+    private final String currencySingular;
+    private final String currencyPlural;
+    private final boolean interestEnabled;
+    private final double interestRate;
+    private final long interestMinimumBalance;
+    private final long interestMaximum;
+    private final long interestIntervalMinutes;
+    private final boolean loginNotification;
+    private final double commandsPerSecond;
+    private final int commandBurst;
+    private final int maxQueuedPerPlayer;
+    private final int maxQueuedCommands;
+
+    private BankSettings(FileConfiguration config) {
+        this.maxBalance = config.getDouble("bank.max-balance", -1);
+        this.walletStartingBalance = Math.max(0, MoneyUtils.toMinorClamped(config.getDouble("economy.starting-balance", 0)));
+        this.currencySingular = config.getString("economy.currency-singular", "Dollar");
+        this.currencyPlural = config.getString("economy.currency-plural", "Dollars");
+        this.interestEnabled = config.getBoolean("interest.enabled", false);
+        this.interestRate = config.getDouble("interest.rate", 0.01);
+        this.interestMinimumBalance = MoneyUtils.toMinorClamped(config.getDouble("interest.minimum-balance", 1000));
+        this.interestMaximum = MoneyUtils.toMinorClamped(config.getDouble("interest.maximum-interest", 10000));
+        this.interestIntervalMinutes = Math.max(1, config.getLong("interest.interval-minutes", 1440)); // Default 24 hours
+        this.loginNotification = config.getBoolean("notifications.login-balance", true);
+        this.commandsPerSecond = Math.max(0, config.getDouble("commands.rate-limit.per-second", 4));
+        this.commandBurst = Math.max(1, config.getInt("commands.rate-limit.burst", 8));
+        this.maxQueuedPerPlayer = Math.max(1, config.getInt("commands.max-queued-per-player", 4));
+        this.maxQueuedCommands = Math.max(1, config.getInt("commands.max-queued", 1000));
+    }
+
+    /**
+     * Reads the settings from a loaded config
+     * @param config The config, usually the plugin's
+     * @return The settings
+     */
+    public static BankSettings from(FileConfiguration config) {
+        return new BankSettings(config);
+    }
+
+    /**
+     * @return The maximum bank balance, 0 or less for unlimited
+     */
+    public double getMaxBalance() {
+        return maxBalance;
+    }
+
+    /**
+     * @return The wallet balance new players get when SimpleBank is the economy, in minor units
+     */
+    public long getWalletStartingBalance() {
+        return walletStartingBalance;
+    }
+
+    public String getCurrencySingular() {
+        return currencySingular;
+    }
+
+    public String getCurrencyPlural() {
+        return currencyPlural;
+    }
+
+    public boolean isInterestEnabled() {
+        return interestEnabled;
+    }
+
+    /**
+     * @return The interest per period, 0.01 is 1%
+     */
+    public double getInterestRate() {
+        return interestRate;
+    }
+
+    /**
+     * @return The balance needed to earn interest, in minor units
+     */
+    public long getInterestMinimumBalance() {
+        return interestMinimumBalance;
+    }
+
+    /**
+     * @return The most interest paid per period, in minor units
+     */
+    public long getInterestMaximum() {
+        return interestMaximum;
+    }
+
+    /**
+     * @return The length of an interest period in minutes, at least 1
+     */
+    public long getInterestIntervalMinutes() {
+        return interestIntervalMinutes;
+    }
+
+    public boolean isLoginNotification() {
+        return loginNotification;
+    }
+
+    /**
+     * @return The bank commands a player may send per second in the long run, 0 for no limit
+     */
+    public double getCommandsPerSecond() {
+        return commandsPerSecond;
+    }
+
+    /**
+     * @return The bank commands a player may send at once before the rate limit applies
+     */
+    public int getCommandBurst() {
+        return commandBurst;
+    }
+
+    /**
+     * @return The most bank commands of one player waiting to run
+     */
+    public int getMaxQueuedPerPlayer() {
+        return maxQueuedPerPlayer;
+    }
+
+    /**
+     * @return The most bank commands of all players waiting to run
+     */
+    public int getMaxQueuedCommands() {
+        return maxQueuedCommands;
+    }
+}
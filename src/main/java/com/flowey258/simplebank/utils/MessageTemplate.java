@@ -0,0 +1,184 @@
+package com.flowey258.simplebank.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message from config.yml, colorized and split at its placeholders once, when it is loaded.
+ *
+ * Rendering only appends the pieces into a per-thread buffer; amounts are written straight
+ * from minor units instead of going through {@link String#format}. Finish one message before
+ * starting the next on the same thread, since the {@link Filler} is reused.
+ */
+public final class MessageTemplate {
+
+    /**
+     * The placeholders messages can contain, such as {@code {balance}}
+     */
+    public enum Placeholder {
+        PLAYER,
+        AMOUNT,
+        BALANCE,
+        LIMIT,
+        // Pages of /bank top and /bank history
+        PAGE,
+        PAGES,
+        RANK,
+        TIME,
+        TYPE,
+        // Lines of /bank stats
+        COUNT,
+        TOTAL,
+        AVERAGE,
+        RATE,
+        PENDING,
+        STORAGE,
+        QUEUED,
+        MAX,
+        LOADS,
+        EVICTIONS,
+        FAILED,
+        MEAN,
+        P50,
+        P99,
+        LAST,
+        ACCOUNTS,
+        PAYMENTS,
+        COMMAND;
+
+        private final String token = "{" + name().toLowerCase() + "}";
+    }
+
+    private static final Placeholder[] PLACEHOLDERS = Placeholder.values();
+    private static final ThreadLocal<Filler> FILLERS = ThreadLocal.withInitial(Filler::new);
+
+    public static final MessageTemplate EMPTY = new MessageTemplate(new String[]{""}, new Placeholder[0]);
+
+    // literals[i] comes before placeholders[i]; the last literal ends the message
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+
+    private MessageTemplate(String[] literals, Placeholder[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Parses a message. Unknown placeholders are kept as written.
+     * @param raw The message as written in the config, or null for an empty message
+     * @param prefix Replaces {@code {prefix}}
+     * @return The compiled message
+     */
+    public static MessageTemplate compile(String raw, String prefix) {
+        if (raw == null) {
+            return EMPTY;
+        }
+        String message = MessageUtils.colorize(raw.replace("{prefix}", prefix));
+
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        int literalStart = 0;
+        int open = message.indexOf('{');
+        while (open >= 0) {
+            Placeholder found = null;
+            for (Placeholder placeholder : PLACEHOLDERS) {
+                if (message.startsWith(placeholder.token, open)) {
+                    found = placeholder;
+                    break;
+                }
+            }
+            if (found != null) {
+                literals.add(message.substring(literalStart, open));
+                placeholders.add(found);
+                literalStart = open + found.token.length();
+            }
+            open = message.indexOf('{', found != null ? literalStart : open + 1);
+        }
+        literals.add(message.substring(literalStart));
+        return new MessageTemplate(literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]));
+    }
+
+    /**
+     * @return The message, with any placeholders left as written
+     */
+    public String render() {
+        return placeholders.length == 0 ? literals[0] : fill().render();
+    }
+
+    /**
+     * Starts filling in the placeholders
+     * @param placeholder The placeholder
+     * @param value Its text
+     * @return The filler for this message; call {@link Filler#render()} once every value is set
+     */
+    public Filler with(Placeholder placeholder, String value) {
+        return fill().with(placeholder, value);
+    }
+
+    /**
+     * Starts filling in the placeholders
+     * @param placeholder The placeholder
+     * @param amount An amount of money, or another decimal such as a time in milliseconds, shown with two decimals
+     * @return The filler for this message; call {@link Filler#render()} once every value is set
+     */
+    public Filler with(Placeholder placeholder, double amount) {
+        return fill().with(placeholder, amount);
+    }
+
+    private Filler fill() {
+        Filler filler = FILLERS.get();
+        filler.reset(this);
+        return filler;
+    }
+
+    /**
+     * Collects placeholder values for one message; reused by every message on its thread
+     */
+    public static final class Filler {
+        private final String[] text = new String[PLACEHOLDERS.length];
+        private final long[] money = new long[PLACEHOLDERS.length];
+        private final boolean[] isMoney = new boolean[PLACEHOLDERS.length];
+        private final StringBuilder builder = new StringBuilder(128);
+        private MessageTemplate template;
+
+        private void reset(MessageTemplate template) {
+            this.template = template;
+            for (int i = 0; i < text.length; i++) {
+                text[i] = null;
+                isMoney[i] = false;
+            }
+        }
+
+        public Filler with(Placeholder placeholder, String value) {
+            text[placeholder.ordinal()] = value;
+            isMoney[placeholder.ordinal()] = false;
+            return this;
+        }
+
+        public Filler with(Placeholder placeholder, double amount) {
+            money[placeholder.ordinal()] = MoneyUtils.toMinorClamped(amount);
+            isMoney[placeholder.ordinal()] = true;
+            return this;
+        }
+
+        /**
+         * @return The message with the values filled in; placeholders without a value stay as written
+         */
+        public String render() {
+            builder.setLength(0);
+            String[] literals = template.literals;
+            Placeholder[] placeholders = template.placeholders;
+            for (int i = 0; i < placeholders.length; i++) {
+                builder.append(literals[i]);
+                int slot = placeholders[i].ordinal();
+                if (isMoney[slot]) {
+                    MoneyUtils.appendMajor(builder, money[slot]);
+                } else {
+                    builder.append(text[slot] != null ? text[slot] : placeholders[i].token);
+                }
+            }
+            builder.append(literals[placeholders.length]);
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.flowey258.simplebank.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The compiled messages of the {@code messages} section of config.yml.
+ *
+ * Messages are compiled once and cached; {@link #reload()} throws the cache away and compiles
+ * again from the current config. Messages missing from the file fall back to the defaults
+ * shipped in the jar. Safe to use from any thread.
+ */
+public class Messages {
+
+    private final Supplier<FileConfiguration> config;
+    private volatile Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+    private volatile String prefix = "";
+
+    /**
+     * @param config Supplies the current config; read again on every reload
+     */
+    public Messages(Supplier<FileConfiguration> config) {
+        this.config = config;
+    }
+
+    /**
+     * Compiles every message of the current config, replacing the cached ones
+     */
+    public void reload() {
+        FileConfiguration current = config.get();
+        String newPrefix = current.getString("messages.prefix", "");
+        Map<String, MessageTemplate> compiled = new ConcurrentHashMap<>();
+        ConfigurationSection section = current.getConfigurationSection("messages");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                if (section.isString(key)) {
+                    compiled.put(key, MessageTemplate.compile(section.getString(key), newPrefix));
+                }
+            }
+        }
+        prefix = newPrefix;
+        templates = compiled;
+    }
+
+    /**
+     * @param key The key under {@code messages}, such as {@code deposit-success}
+     * @return The compiled message, or an empty one if the key does not exist
+     */
+    public MessageTemplate get(String key) {
+        MessageTemplate template = templates.get(key);
+        if (template != null) {
+            return template;
+        }
+        // Only in the jar's defaults, e.g. a message added after the config file was written
+        return templates.computeIfAbsent(key,
+                missing -> MessageTemplate.compile(config.get().getString("messages." + missing), prefix));
+    }
+}
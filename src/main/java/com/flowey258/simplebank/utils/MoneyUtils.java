@@ -0,0 +1,96 @@
+package com.flowey258.simplebank.utils;
+
+/**
+ * Conversions between currency amounts and the fixed-point minor units (cents)
+ * balances are kept in internally
+ */
+public class MoneyUtils {
+
+    /**
+     * Minor units per currency unit
+     */
+    public static final long SCALE = 100;
+
+    /**
+     * The largest amount, and the largest balance, one account can hold: a trillion.
+     * At this size even the sum of every balance on a big server stays far inside a long.
+     */
+    public static final double MAX_AMOUNT = 1_000_000_000_000.0;
+
+    /**
+     * {@link #MAX_AMOUNT} in minor units
+     */
+    public static final long MAX_MINOR = (long) MAX_AMOUNT * SCALE;
+
+    /**
+     * Check that an amount is a finite number no larger than {@link #MAX_AMOUNT} either way
+     * @param amount The amount in currency units
+     * @return True if {@link #toMinor} accepts it
+     */
+    public static boolean isValidAmount(double amount) {
+        return Double.isFinite(amount) && Math.abs(amount) <= MAX_AMOUNT;
+    }
+
+    /**
+     * Converts an amount to minor units, rounding to the nearest cent
+     * @param amount The amount in currency units
+     * @return The amount in minor units
+     * @throws IllegalArgumentException If the amount is not finite or larger than {@link #MAX_AMOUNT}
+     */
+    public static long toMinor(double amount) {
+        if (!isValidAmount(amount)) {
+            throw new IllegalArgumentException("Amount out of range: " + amount);
+        }
+        return Math.round(amount * SCALE);
+    }
+
+    /**
+     * Converts an amount that was read from storage or the config rather than entered, limiting it
+     * to {@link #MAX_AMOUNT} either way instead of rejecting it; NaN becomes 0
+     * @param amount The amount in currency units
+     * @return The amount in minor units
+     */
+    public static long toMinorClamped(double amount) {
+        if (Double.isNaN(amount)) {
+            return 0;
+        }
+        return Math.round(Math.max(-MAX_AMOUNT, Math.min(MAX_AMOUNT, amount)) * SCALE);
+    }
+
+    /**
+     * Adds to a balance, stopping at {@link #MAX_MINOR}
+     * @param balance The balance in minor units, at most {@link #MAX_MINOR}
+     * @param amount The amount to add in minor units, not negative
+     * @return The new balance in minor units
+     */
+    public static long addCapped(long balance, long amount) {
+        return amount >= MAX_MINOR - balance ? MAX_MINOR : balance + amount;
+    }
+
+    /**
+     * Converts minor units back to a currency amount
+     * @param minor The amount in minor units
+     * @return The amount in currency units
+     */
+    public static double toMajor(long minor) {
+        return minor / (double) SCALE;
+    }
+
+    /**
+     * Appends minor units as a currency amount with every decimal, like {@code %.2f} but without allocating
+     * @param builder Receives the amount
+     * @param minor The amount in minor units
+     */
+    public static void appendMajor(StringBuilder builder, long minor) {
+        if (minor < 0) {
+            builder.append('-');
+            minor = -minor;
+        }
+        builder.append(minor / SCALE).append('.');
+        long fraction = minor % SCALE;
+        for (long digit = SCALE / 10; digit > 1 && fraction < digit; digit /= 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+}
@@ -0,0 +1,574 @@
+package com.flowey258.simplebank.utils;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Concurrent map from a UUID (as its two longs) to a primitive long.
+ *
+ * Storage is split into lock-striped segments, each an open-addressing table with
+ * linear probing and parallel primitive arrays, so an entry costs 24 bytes plus
+ * load-factor slack and no objects. Reads use optimistic locking and never block
+ * writers; writes lock one segment. A value of 0 means "absent": storing 0 removes the entry.
+ *
+ * Every change can be reported to a {@link ChangeListener} while the segment is still locked,
+ * so listeners observe changes to one key in the order they happened.
+ */
+public final class UuidLongMap {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int MIN_CAPACITY = 16;
+    private static final float MAX_LOAD = 0.75f;
+
+    /**
+     * Receives every change, called while the changed key is locked
+     */
+    public interface ChangeListener {
+        void onChange(long mostSigBits, long leastSigBits, long oldValue, long newValue, int tag);
+    }
+
+    public interface EntryVisitor {
+        void visit(long mostSigBits, long leastSigBits, long value);
+    }
+
+    public interface EntryFunction {
+        long apply(long mostSigBits, long leastSigBits, long value);
+    }
+
+    /**
+     * Reads and writes the keys locked by {@link #updateLocked}
+     */
+    public interface LockedEntries {
+        long get(long mostSigBits, long leastSigBits);
+
+        void put(long mostSigBits, long leastSigBits, long value, int tag);
+
+        /**
+         * Removes an entry without notifying the listener
+         * @return The removed value, or 0 if absent
+         */
+        long remove(long mostSigBits, long leastSigBits);
+    }
+
+    public interface LockedUpdate {
+        void apply(LockedEntries entries);
+    }
+
+    private static final ChangeListener NO_LISTENER = (msb, lsb, oldValue, newValue, tag) -> {
+    };
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final ChangeListener listener;
+
+    public UuidLongMap(int expectedSize) {
+        this(expectedSize, NO_LISTENER);
+    }
+
+    public UuidLongMap(int expectedSize, ChangeListener listener) {
+        int perSegment = Math.max(MIN_CAPACITY, tableSizeFor((int) (expectedSize / SEGMENT_COUNT / MAX_LOAD) + 1));
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * @return The value, or 0 if absent
+     */
+    public long get(long msb, long lsb) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        long value = segment.table.find(msb, lsb, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = segment.table.find(msb, lsb, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Stores a value; 0 removes the entry
+     * @return The previous value
+     */
+    public long put(long msb, long lsb, long value, int tag) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long previous = segment.table.find(msb, lsb, hash);
+            segment.store(msb, lsb, hash, previous, value);
+            if (previous != value) {
+                listener.onChange(msb, lsb, previous, value, tag);
+            }
+            return previous;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Stores a value only if the key is absent, without notifying the listener
+     * @return True if the value was stored
+     */
+    public boolean putIfAbsent(long msb, long lsb, long value) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (segment.table.find(msb, lsb, hash) != 0) {
+                return false;
+            }
+            segment.store(msb, lsb, hash, 0, value);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes an entry without notifying the listener
+     * @return The removed value, or 0 if absent
+     */
+    public long remove(long msb, long lsb) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long previous = segment.table.find(msb, lsb, hash);
+            segment.store(msb, lsb, hash, previous, 0);
+            return previous;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds to a value, never going below 0
+     * @return The new value
+     */
+    public long addClamped(long msb, long lsb, long delta, int tag) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long current = segment.table.find(msb, lsb, hash);
+            long updated = Math.max(0, saturatedAdd(current, delta));
+            segment.store(msb, lsb, hash, current, updated);
+            if (updated != current) {
+                listener.onChange(msb, lsb, current, updated, tag);
+            }
+            return updated;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds to a value, which may go below 0; a result of 0 removes the entry
+     * @return The new value
+     */
+    public long add(long msb, long lsb, long delta, int tag) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long current = segment.table.find(msb, lsb, hash);
+            long updated = current + delta;
+            segment.store(msb, lsb, hash, current, updated);
+            if (updated != current) {
+                listener.onChange(msb, lsb, current, updated, tag);
+            }
+            return updated;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds to a value only if the result stays within the given bounds (inclusive)
+     * @return True if the value was changed
+     */
+    public boolean addWithin(long msb, long lsb, long delta, long lowerBound, long upperBound, int tag) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long current = segment.table.find(msb, lsb, hash);
+            long updated = saturatedAdd(current, delta);
+            if (updated < lowerBound || updated > upperBound) {
+                return false;
+            }
+            segment.store(msb, lsb, hash, current, updated);
+            if (updated != current) {
+                listener.onChange(msb, lsb, current, updated, tag);
+            }
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces a value with the result of a function, atomically
+     * @return The new value
+     */
+    public long update(long msb, long lsb, LongUnaryOperator function, int tag) {
+        int hash = hash(msb, lsb);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long current = segment.table.find(msb, lsb, hash);
+            long updated = function.applyAsLong(current);
+            segment.store(msb, lsb, hash, current, updated);
+            if (updated != current) {
+                listener.onChange(msb, lsb, current, updated, tag);
+            }
+            return updated;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces every value with the result of a function as one atomic step.
+     * All segments are locked in order first, so no reader sees a partly applied batch,
+     * then the segments are processed in parallel. The function and the listener run on
+     * pool threads and must not touch this map. Returning 0 removes the entry.
+     */
+    public void updateAll(EntryFunction function, int tag) {
+        long[] stamps = new long[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            stamps[i] = segments[i].lock.writeLock();
+        }
+        try {
+            IntStream.range(0, SEGMENT_COUNT).parallel().forEach(i -> segments[i].updateAll(function, listener, tag));
+        } finally {
+            for (int i = SEGMENT_COUNT - 1; i >= 0; i--) {
+                segments[i].lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Locks the segments of a set of keys and runs an update with all of them held, so no
+     * reader sees some of its changes without the others. Segments are locked in index order,
+     * the same order {@link #updateAll} uses, so concurrent calls cannot deadlock.
+     * The update runs on the calling thread and may only touch the given keys.
+     * @param keys The most and least significant bits of each key, one after the other
+     * @param keyCount The number of keys in the array
+     */
+    public void updateLocked(long[] keys, int keyCount, LockedUpdate update) {
+        boolean[] locked = new boolean[SEGMENT_COUNT];
+        for (int i = 0; i < keyCount; i++) {
+            locked[hash(keys[i * 2], keys[i * 2 + 1]) >>> (32 - SEGMENT_BITS)] = true;
+        }
+
+        long[] stamps = new long[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            if (locked[i]) {
+                stamps[i] = segments[i].lock.writeLock();
+            }
+        }
+        try {
+            update.apply(new LockedEntries() {
+                @Override
+                public long get(long msb, long lsb) {
+                    int hash = hash(msb, lsb);
+                    return lockedSegment(hash).table.find(msb, lsb, hash);
+                }
+
+                @Override
+                public void put(long msb, long lsb, long value, int tag) {
+                    int hash = hash(msb, lsb);
+                    Segment segment = lockedSegment(hash);
+                    long previous = segment.table.find(msb, lsb, hash);
+                    segment.store(msb, lsb, hash, previous, value);
+                    if (previous != value) {
+                        listener.onChange(msb, lsb, previous, value, tag);
+                    }
+                }
+
+                @Override
+                public long remove(long msb, long lsb) {
+                    int hash = hash(msb, lsb);
+                    Segment segment = lockedSegment(hash);
+                    long previous = segment.table.find(msb, lsb, hash);
+                    segment.store(msb, lsb, hash, previous, 0);
+                    return previous;
+                }
+
+                private Segment lockedSegment(int hash) {
+                    int index = hash >>> (32 - SEGMENT_BITS);
+                    if (!locked[index]) {
+                        throw new IllegalStateException("Key was not locked for this update");
+                    }
+                    return segments[index];
+                }
+            });
+        } finally {
+            for (int i = SEGMENT_COUNT - 1; i >= 0; i--) {
+                if (locked[i]) {
+                    segments[i].lock.unlockWrite(stamps[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces every value in one segment with the result of a function, so a full pass
+     * can be spread out over time without locking the whole map at once
+     * @param segment The segment, from 0 to {@link #getSegmentCount()} - 1
+     * @return The number of entries the function was applied to
+     */
+    public int updateSegment(int segment, EntryFunction function, int tag) {
+        long stamp = segments[segment].lock.writeLock();
+        try {
+            int entries = segments[segment].size;
+            segments[segment].updateAll(function, listener, tag);
+            return entries;
+        } finally {
+            segments[segment].lock.unlockWrite(stamp);
+        }
+    }
+
+    public int getSegmentCount() {
+        return SEGMENT_COUNT;
+    }
+
+    /**
+     * Visits every entry. Each segment is read under its lock, the map as a whole is not frozen.
+     * The visitor must not modify this map.
+     */
+    public void forEach(EntryVisitor visitor) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                segment.table.forEach(visitor);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry, handing each one to the visitor. Changes made after a
+     * segment has been drained stay in the map.
+     */
+    public void drain(EntryVisitor visitor) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                if (segment.size == 0) {
+                    continue;
+                }
+                segment.table.forEach(visitor);
+                segment.table = new Table(segment.table.values.length);
+                segment.size = 0;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.size != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    static int hash(long msb, long lsb) {
+        long h = msb ^ (lsb * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        // Overflow only happens when both operands share a sign that the result lacks
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        return n <= 0 ? 1 << 30 : n;
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table;
+        private int size;
+
+        private Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        /**
+         * Writes the new value for a key whose current value is known; caller holds the write lock
+         */
+        private void store(long msb, long lsb, int hash, long current, long value) {
+            if (current == value) {
+                return;
+            }
+            if (value == 0) {
+                table.remove(msb, lsb, hash);
+                size--;
+            } else if (current != 0) {
+                table.replace(msb, lsb, hash, value);
+            } else {
+                if (size + 1 > table.values.length * MAX_LOAD) {
+                    table = table.resize(table.values.length << 1);
+                }
+                table.insert(msb, lsb, hash, value);
+                size++;
+            }
+        }
+
+        /**
+         * Applies a function to every entry; caller holds the write lock
+         */
+        private void updateAll(EntryFunction function, ChangeListener listener, int tag) {
+            if (size == 0) {
+                return;
+            }
+            // Iterate a copy, removals shift entries around in the live table
+            long[] keys = table.keys.clone();
+            long[] values = table.values.clone();
+            for (int i = 0; i < values.length; i++) {
+                long current = values[i];
+                if (current == 0) {
+                    continue;
+                }
+                long msb = keys[i << 1];
+                long lsb = keys[(i << 1) + 1];
+                long updated = function.apply(msb, lsb, current);
+                if (updated != current) {
+                    store(msb, lsb, hash(msb, lsb), current, updated);
+                    listener.onChange(msb, lsb, current, updated, tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * One open-addressing table. Keys are interleaved (msb, lsb) pairs; a 0 value marks an empty slot.
+     * Replaced as a whole on resize so optimistic readers always see matching arrays.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final long[] values;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity * 2];
+            this.values = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private long find(long msb, long lsb, int hash) {
+            for (int probes = 0, i = hash & mask; probes <= mask; probes++, i = (i + 1) & mask) {
+                long value = values[i];
+                if (value == 0) {
+                    return 0;
+                }
+                if (keys[i << 1] == msb && keys[(i << 1) + 1] == lsb) {
+                    return value;
+                }
+            }
+            return 0;
+        }
+
+        private int slotOf(long msb, long lsb, int hash) {
+            int i = hash & mask;
+            while (values[i] != 0 && (keys[i << 1] != msb || keys[(i << 1) + 1] != lsb)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void insert(long msb, long lsb, int hash, long value) {
+            int i = slotOf(msb, lsb, hash);
+            keys[i << 1] = msb;
+            keys[(i << 1) + 1] = lsb;
+            values[i] = value;
+        }
+
+        private void replace(long msb, long lsb, int hash, long value) {
+            values[slotOf(msb, lsb, hash)] = value;
+        }
+
+        /**
+         * Backward-shift deletion: moves later entries of the probe chain into the gap
+         * so lookups never need tombstones.
+         */
+        private void remove(long msb, long lsb, int hash) {
+            int gap = slotOf(msb, lsb, hash);
+            int next = gap;
+            while (true) {
+                next = (next + 1) & mask;
+                if (values[next] == 0) {
+                    break;
+                }
+                int home = hash(keys[next << 1], keys[(next << 1) + 1]) & mask;
+                boolean movable = gap <= next
+                        ? home <= gap || home > next
+                        : home <= gap && home > next;
+                if (movable) {
+                    keys[gap << 1] = keys[next << 1];
+                    keys[(gap << 1) + 1] = keys[(next << 1) + 1];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap << 1] = 0;
+            keys[(gap << 1) + 1] = 0;
+            values[gap] = 0;
+        }
+
+        private Table resize(int capacity) {
+            Table resized = new Table(capacity);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != 0) {
+                    long msb = keys[i << 1];
+                    long lsb = keys[(i << 1) + 1];
+                    resized.insert(msb, lsb, hash(msb, lsb), values[i]);
+                }
+            }
+            return resized;
+        }
+
+        private void forEach(EntryVisitor visitor) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != 0) {
+                    visitor.visit(keys[i << 1], keys[(i << 1) + 1], values[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.flowey258.simplebank.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for work that may block on storage, such as loading accounts that are not in memory.
+ *
+ * On Java 21 and later every task gets its own virtual thread, so blocked tasks cost almost nothing.
+ * The plugin is built for Java 17, so virtual threads are looked up reflectively; older runtimes
+ * get a fixed pool of daemon threads instead.
+ */
+public final class WorkerExecutors {
+
+    private WorkerExecutors() {
+    }
+
+    /**
+     * @param name The thread name prefix
+     * @param platformThreads The pool size to use when virtual threads are not available
+     * @return The executor; shut it down when the plugin disables
+     */
+    public static ExecutorService create(String name, int platformThreads) {
+        ExecutorService virtual = createVirtual(name);
+        if (virtual != null) {
+            return virtual;
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return True if the running Java version supports virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService createVirtual(String name) {
+        if (!isVirtualThreadsAvailable()) {
+            return null;
+        }
+        try {
+            // Thread.ofVirtual().name(name + "-", 1).factory()
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
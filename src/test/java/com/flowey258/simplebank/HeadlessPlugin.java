@@ -0,0 +1,121 @@
+package com.flowey258.simplebank;
+
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.PlayerNameIndex;
+import com.flowey258.simplebank.economy.BankManager;
+import com.flowey258.simplebank.economy.WalletBridge;
+import com.flowey258.simplebank.economy.WalletManager;
+import com.flowey258.simplebank.utils.BankSettings;
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * SimpleBank without a running server, for the tests and the benchmarks. It lives in this package
+ * because the constructor it needs is package-private; the managers are filled in by whoever uses it.
+ * The Bukkit server is a stub that returns defaults, so only code that does not need a live server works.
+ * It knows the players put in {@link #onlinePlayers}, and its scheduler never runs anything.
+ */
+public final class HeadlessPlugin extends SimpleBank {
+
+    public DataManager dataManager;
+    public BankManager bankManager;
+    public WalletManager walletManager;
+    public Economy economy;
+    public WalletBridge walletBridge;
+    public BankSettings settings;
+    public PlayerNameIndex playerNames;
+    public final Map<UUID, Player> onlinePlayers;
+
+    private HeadlessPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file,
+                           Map<UUID, Player> onlinePlayers) {
+        super(loader, description, dataFolder, file);
+        this.onlinePlayers = onlinePlayers;
+    }
+
+    /**
+     * @param dataFolder The plugin folder, config.yml is read from there if it exists
+     * @param logger Returned as the server's logger
+     * @return A plugin on a stub server, with no managers yet
+     */
+    public static HeadlessPlugin create(File dataFolder, Logger logger) {
+        Map<UUID, Player> onlinePlayers = new ConcurrentHashMap<>();
+        Server server = stub(Server.class, logger, onlinePlayers);
+        return new HeadlessPlugin(new JavaPluginLoader(server),
+                new PluginDescriptionFile("SimpleBank", "headless", SimpleBank.class.getName()),
+                dataFolder, new File(dataFolder, "SimpleBank.jar"), onlinePlayers);
+    }
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    @Override
+    public BankManager getBankManager() {
+        return bankManager;
+    }
+
+    @Override
+    public WalletManager getWalletManager() {
+        return walletManager;
+    }
+
+    @Override
+    public Economy getEconomy() {
+        return economy;
+    }
+
+    @Override
+    public WalletBridge getWalletBridge() {
+        return walletBridge;
+    }
+
+    @Override
+    public BankSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public PlayerNameIndex getPlayerNames() {
+        return playerNames;
+    }
+
+    /**
+     * Implements an interface with methods that return defaults
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Logger logger, Map<UUID, Player> onlinePlayers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returns = method.getReturnType();
+            if (returns == Logger.class) {
+                return logger;
+            }
+            if (returns == BukkitScheduler.class) {
+                return stub(BukkitScheduler.class, logger, onlinePlayers);
+            }
+            if (returns == Player.class && args != null && args.length == 1 && args[0] instanceof UUID) {
+                return onlinePlayers.get(args[0]);
+            }
+            if (returns == String.class) {
+                return method.getName();
+            }
+            if (returns.isPrimitive() && returns != void.class) {
+                // Zero of the right wrapper type, e.g. 0L for long
+                return Array.get(Array.newInstance(returns, 1), 0);
+            }
+            return null;
+        });
+    }
+}
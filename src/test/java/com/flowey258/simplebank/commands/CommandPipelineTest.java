@@ -0,0 +1,98 @@
+package com.flowey258.simplebank.commands;
+
+import com.flowey258.simplebank.HeadlessPlugin;
+import com.flowey258.simplebank.utils.BankSettings;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The stub server's scheduler runs nothing, like Bukkit's while the plugin disables
+ */
+class CommandPipelineTest {
+
+    private static final Logger LOGGER = Logger.getLogger("CommandPipelineTest");
+
+    @TempDir
+    File folder;
+
+    private final UUID alex = UUID.randomUUID();
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private HeadlessPlugin plugin;
+    private Player player;
+
+    @BeforeEach
+    void start() {
+        plugin = HeadlessPlugin.create(folder, LOGGER);
+        plugin.settings = BankSettings.from(plugin.getConfig());
+        player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getUniqueId")) {
+                        return alex;
+                    }
+                    if (method.getName().equals("sendMessage") && args.length == 1 && args[0] instanceof String) {
+                        received.add((String) args[0]);
+                    }
+                    return null;
+                });
+        plugin.onlinePlayers.put(alex, player);
+    }
+
+    @Test
+    void queuedCommandsRunAndAnswerDuringShutdown() throws InterruptedException {
+        CommandPipeline pipeline = new CommandPipeline(plugin);
+        CountDownLatch slow = new CountDownLatch(1);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        Thread mainThread = Thread.currentThread();
+        Thread[] mainWorkThread = new Thread[1];
+
+        pipeline.submit(player, "slow", false, reply -> {
+            try {
+                slow.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.add("slow");
+            reply.send("first");
+        });
+        pipeline.submit(player, "next", false, reply -> {
+            ran.add("next");
+            reply.send("second");
+        });
+        pipeline.submit(player, "main", true, reply -> {
+            mainWorkThread[0] = Thread.currentThread();
+            ran.add("main");
+            reply.send("third");
+        });
+
+        // The rest of the lane is still waiting behind the first command when shutdown starts
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slow.countDown();
+        });
+        releaser.start();
+        pipeline.shutdown();
+        releaser.join();
+
+        assertEquals(List.of("slow", "next", "main"), ran);
+        assertEquals(mainThread, mainWorkThread[0]);
+        assertEquals(List.of("first", "second", "third"), received);
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+}
@@ -0,0 +1,76 @@
+package com.flowey258.simplebank.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Each test stops the log the way a crash would: after the balances and their checkpoint were
+ * written, before the generation was discarded
+ */
+class IntentLogTest {
+
+    private static final Logger LOGGER = Logger.getLogger("IntentLogTest");
+
+    @TempDir
+    File folder;
+
+    private final UUID alex = UUID.randomUUID();
+
+    @Test
+    void generationsUpToTheCheckpointAreNotAppliedAgain() throws IOException {
+        IntentLog log = new IntentLog(folder, LOGGER);
+        log.open(0);
+        IntentLog.Intent intent = log.begin(IntentLog.Kind.DEPOSIT, alex, 1000);
+        intent.record(IntentLog.State.WALLET_DONE, 0);
+        intent.record(IntentLog.State.BANK_DONE, 1000);
+        intent.record(IntentLog.State.COMMIT, 0);
+        long checkpoint = log.cut();
+        log.sync();
+
+        // Without the checkpoint the deposit looks like it never reached the bank
+        List<IntentLog.Unfinished> unchecked = new IntentLog(folder, LOGGER).open(0);
+        assertEquals(1, unchecked.size());
+        assertEquals(1000, unchecked.get(0).getMissingBankChange());
+
+        assertTrue(new IntentLog(folder, LOGGER).open(checkpoint).isEmpty());
+    }
+
+    @Test
+    void intentOpenAtTheCheckpointKeepsItsAppliedBankChange() throws IOException {
+        IntentLog log = new IntentLog(folder, LOGGER);
+        log.open(0);
+        IntentLog.Intent intent = log.begin(IntentLog.Kind.WITHDRAW, alex, 500);
+        intent.record(IntentLog.State.BANK_DONE, -500);
+        long checkpoint = log.cut();
+        log.sync();
+
+        // The wallet was never paid, so only the refund is missing
+        List<IntentLog.Unfinished> unfinished = new IntentLog(folder, LOGGER).open(checkpoint);
+        assertEquals(1, unfinished.size());
+        assertTrue(unfinished.get(0).isInFlight());
+        assertEquals(500, unfinished.get(0).getMissingBankChange());
+    }
+
+    @Test
+    void newGenerationsComeAfterTheCheckpoint() throws IOException {
+        // Every generation was discarded, but the storage still holds checkpoint 5
+        IntentLog log = new IntentLog(folder, LOGGER);
+        log.open(5);
+        IntentLog.Intent intent = log.begin(IntentLog.Kind.DEPOSIT, alex, 250);
+        intent.record(IntentLog.State.WALLET_DONE, 0);
+        log.sync();
+
+        List<IntentLog.Unfinished> unfinished = new IntentLog(folder, LOGGER).open(5);
+        assertEquals(1, unfinished.size());
+        assertEquals(250, unfinished.get(0).getMissingBankChange());
+    }
+}
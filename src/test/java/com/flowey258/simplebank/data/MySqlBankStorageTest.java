@@ -0,0 +1,180 @@
+package com.flowey258.simplebank.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against H2 in MySQL mode, with two storages on one database standing in for two servers
+ */
+class MySqlBankStorageTest {
+
+    private static final Logger LOGGER = Logger.getLogger("MySqlBankStorageTest");
+
+    private final UUID alex = UUID.randomUUID();
+    private String url;
+    private Server first;
+    private Server second;
+
+    /**
+     * One server's copy of a single account, changed the way BankManager changes it
+     */
+    private final class Server {
+        private final List<UUID> changedElsewhere = new ArrayList<>();
+        private final MySqlBankStorage storage =
+                new MySqlBankStorage(url, new Properties(), "bank_", 2, LOGGER, changedElsewhere::add);
+        private long balance;
+
+        private final BankStorage.RemoteChange remote = (msb, lsb, delta) -> balance += delta;
+
+        private void deposit(long amount) {
+            balance += amount;
+            record(amount);
+        }
+
+        private boolean withdraw(long amount) {
+            boolean[] applied = new boolean[1];
+            long[] keys = {alex.getMostSignificantBits(), alex.getLeastSignificantBits()};
+            storage.spend(keys, 1, remote, () -> {
+                if (balance >= amount) {
+                    balance -= amount;
+                    record(-amount);
+                    applied[0] = true;
+                }
+            });
+            return applied[0];
+        }
+
+        private void record(long amount) {
+            storage.recordTransaction(alex.getMostSignificantBits(), alex.getLeastSignificantBits(),
+                    amount / 100.0, balance / 100.0, TransactionType.DEPOSIT);
+        }
+
+        private void save() throws IOException {
+            storage.saveBatch(Map.of(alex, balance / 100.0));
+        }
+    }
+
+    @BeforeEach
+    void open() throws IOException {
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        first = new Server();
+        second = new Server();
+        first.storage.open();
+        second.storage.open();
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        first.storage.close();
+        second.storage.close();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    void changesFromBothServersAddUp() throws IOException {
+        first.deposit(10000);
+        first.save();
+        second.balance = Math.round(second.storage.load(alex) * 100);
+
+        first.deposit(2500);
+        second.deposit(500);
+        first.save();
+        second.save();
+
+        assertEquals(130.0, first.storage.load(alex));
+        // The second server's save found the first server's deposit and reports it
+        assertEquals(List.of(alex), second.changedElsewhere);
+        second.storage.refresh(alex.getMostSignificantBits(), alex.getLeastSignificantBits(), second.remote);
+        assertEquals(13000, second.balance);
+    }
+
+    @Test
+    void sameMoneyCannotBeSpentOnTwoServers() throws IOException {
+        first.deposit(10000);
+        first.save();
+        second.balance = Math.round(second.storage.load(alex) * 100);
+
+        assertTrue(first.withdraw(10000));
+        // The second server still thinks the account holds 100, but the stored row no longer does
+        assertFalse(second.withdraw(10000));
+        assertEquals(0, second.balance);
+
+        first.save();
+        second.save();
+        assertEquals(0.0, first.storage.load(alex));
+    }
+
+    @Test
+    void spendingStoresUnsavedDepositsWithTheWithdrawal() throws IOException {
+        first.deposit(4000);
+        assertTrue(first.withdraw(1500));
+        assertEquals(25.0, second.storage.load(alex));
+
+        // Nothing is left for a save to add
+        first.save();
+        assertEquals(25.0, second.storage.load(alex));
+    }
+
+    @Test
+    void failedChunkIsTheOnlyPartLeftUnsaved() throws Exception {
+        Map<UUID, Double> batch = new HashMap<>();
+        UUID rich = null;
+        for (int i = 0; i < 600; i++) {
+            UUID uuid = UUID.randomUUID();
+            long amount = i == 599 ? 200_000_000 : 1000;
+            first.storage.recordTransaction(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                    amount / 100.0, amount / 100.0, TransactionType.DEPOSIT);
+            batch.put(uuid, amount / 100.0);
+            if (i == 599) {
+                rich = uuid;
+            }
+        }
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE bank_accounts ADD CONSTRAINT sane CHECK (balance < 1000000)");
+        }
+
+        PartialSaveException failure = assertThrows(PartialSaveException.class, () -> first.storage.saveBatch(batch));
+        assertTrue(failure.getUnsaved().contains(rich));
+        assertTrue(failure.getUnsaved().size() < batch.size());
+        for (UUID uuid : batch.keySet()) {
+            double expected = failure.getUnsaved().contains(uuid) ? 0.0 : 10.0;
+            assertEquals(expected, second.storage.load(uuid));
+        }
+
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE bank_accounts DROP CONSTRAINT sane");
+        }
+        Map<UUID, Double> retry = new HashMap<>();
+        for (UUID uuid : failure.getUnsaved()) {
+            retry.put(uuid, batch.get(uuid));
+        }
+        first.storage.saveBatch(retry);
+        for (Map.Entry<UUID, Double> entry : batch.entrySet()) {
+            assertEquals(entry.getValue(), second.storage.load(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.flowey258.simplebank.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqliteBankStorageTest {
+
+    private static final Logger LOGGER = Logger.getLogger("SqliteBankStorageTest");
+
+    @TempDir
+    File folder;
+
+    private SqliteBankStorage storage;
+
+    @BeforeEach
+    void open() throws IOException {
+        storage = new SqliteBankStorage(new File(folder, "bankdata.db"), LOGGER);
+        storage.open();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        storage.close();
+    }
+
+    @Test
+    void savedBalancesLoadBack() throws IOException {
+        UUID alex = UUID.randomUUID();
+        UUID steve = UUID.randomUUID();
+        Map<UUID, Double> batch = new HashMap<>();
+        batch.put(alex, 125.5);
+        batch.put(steve, 0.01);
+        storage.saveBatch(batch);
+
+        assertEquals(125.5, storage.load(alex));
+        assertEquals(0.01, storage.load(steve));
+        assertEquals(0.0, storage.load(UUID.randomUUID()));
+        assertEquals(batch, storage.loadAll());
+    }
+
+    @Test
+    void zeroBalanceRemovesTheAccount() throws IOException {
+        UUID alex = UUID.randomUUID();
+        storage.saveBatch(Map.of(alex, 50.0));
+        storage.saveBatch(Map.of(alex, 0.0));
+
+        assertEquals(0.0, storage.load(alex));
+        assertTrue(storage.loadAll().isEmpty());
+    }
+
+    @Test
+    void balancesSurviveReopening() throws IOException {
+        UUID alex = UUID.randomUUID();
+        storage.saveBatch(Map.of(alex, 75.25));
+        storage.close();
+
+        storage = new SqliteBankStorage(new File(folder, "bankdata.db"), LOGGER);
+        storage.open();
+        assertEquals(75.25, storage.load(alex));
+    }
+
+    @Test
+    void checkpointIsStoredWithTheBalances() throws IOException {
+        UUID alex = UUID.randomUUID();
+        storage.setCheckpoint(7);
+        storage.saveBatch(Map.of(alex, 20.0));
+        // Not written until balances are
+        storage.setCheckpoint(8);
+        storage.close();
+
+        storage = new SqliteBankStorage(new File(folder, "bankdata.db"), LOGGER);
+        storage.open();
+        assertEquals(7, storage.getCheckpoint());
+    }
+
+    @Test
+    void readsDoNotWaitForAFlushInProgress() throws Exception {
+        UUID alex = UUID.randomUUID();
+        storage.saveBatch(Map.of(alex, 10.0));
+
+        // saveBatch holds the storage's monitor for the whole write transaction
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread flusher = new Thread(() -> {
+            synchronized (storage) {
+                flushing.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        flusher.start();
+        flushing.await();
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                assertEquals(10.0, storage.load(alex));
+                assertEquals(1, storage.loadAll().size());
+            });
+        } finally {
+            done.countDown();
+            flusher.join();
+        }
+    }
+
+    @Test
+    void openFailsInsteadOfFallingBack() {
+        // A directory where the database file should be cannot be opened as a database
+        File directory = new File(folder, "taken");
+        assertTrue(directory.mkdirs());
+
+        SqliteBankStorage broken = new SqliteBankStorage(directory, LOGGER);
+        assertThrows(IOException.class, broken::open);
+    }
+}
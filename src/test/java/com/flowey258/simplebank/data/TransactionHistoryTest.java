@@ -0,0 +1,110 @@
+package com.flowey258.simplebank.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Amounts are recorded as 1, 2, 3... so every entry says which change it was
+ */
+class TransactionHistoryTest {
+
+    private static final Logger LOGGER = Logger.getLogger("TransactionHistoryTest");
+
+    @TempDir
+    File folder;
+
+    private final UUID alex = UUID.randomUUID();
+
+    @Test
+    void oldestEntriesAreForgottenBeyondTheLimit() throws IOException {
+        // 8 in memory plus 2 blocks on disk
+        TransactionHistory history = open(8, 24);
+        record(history, 1, 200);
+        history.flush();
+
+        long kept = history.getEntryCount(alex);
+        assertTrue(kept >= 24 && kept < 40, "kept " + kept);
+        List<TransactionHistory.Entry> entries = history.getEntries(alex, 0, 100);
+        assertEquals(kept, entries.size());
+        assertEquals(200.0, entries.get(0).getAmount());
+        assertEquals(200 - kept + 1, entries.get(entries.size() - 1).getAmount());
+        assertTrue(history.getEntries(alex, kept, 10).isEmpty());
+        history.close();
+    }
+
+    @Test
+    void unloadedAccountsAreReadBack() throws IOException {
+        TransactionHistory history = open(8, 1000);
+        record(history, 1, 30);
+        history.unload(alex.getMostSignificantBits(), alex.getLeastSignificantBits());
+
+        assertEquals(30, history.getEntryCount(alex));
+        assertEquals(30.0, history.getEntries(alex, 0, 1).get(0).getAmount());
+        assertEquals(1.0, history.getEntries(alex, 29, 1).get(0).getAmount());
+
+        record(history, 31, 40);
+        assertEquals(40, history.getEntryCount(alex));
+        assertEquals(List.of(40.0, 39.0, 38.0), amounts(history.getEntries(alex, 0, 3)));
+        assertEquals(List.of(31.0, 30.0, 29.0), amounts(history.getEntries(alex, 9, 3)));
+        history.close();
+    }
+
+    @Test
+    void forgottenBlocksAreLeftOutWhenClosing() throws IOException {
+        TransactionHistory history = open(8, 24);
+        record(history, 1, 400);
+        history.close();
+        File[] dataFiles = folder.listFiles((dir, name) -> name.startsWith("history") && name.endsWith(".dat"));
+        assertEquals(1, dataFiles.length);
+        assertFalse(dataFiles[0].getName().equals("history.dat"));
+        assertTrue(dataFiles[0].length() <= 2 * TransactionHistory.BLOCK_SIZE);
+
+        history = open(8, 24);
+        List<TransactionHistory.Entry> entries = history.getEntries(alex, 0, 100);
+        assertEquals(history.getEntryCount(alex), entries.size());
+        assertEquals(400.0, entries.get(0).getAmount());
+        assertEquals(400 - entries.size() + 1, entries.get(entries.size() - 1).getAmount());
+        history.close();
+    }
+
+    @Test
+    void parkedAccountsSurviveACrash() throws IOException {
+        TransactionHistory crashed = open(8, 1000);
+        record(crashed, 1, 50);
+        crashed.unload(alex.getMostSignificantBits(), alex.getLeastSignificantBits());
+
+        // Never closed, so there is no index
+        TransactionHistory history = open(8, 1000);
+        assertEquals(50, history.getEntryCount(alex));
+        assertEquals(List.of(50.0, 49.0), amounts(history.getEntries(alex, 0, 2)));
+        assertEquals(List.of(1.0), amounts(history.getEntries(alex, 49, 2)));
+        history.close();
+    }
+
+    private TransactionHistory open(int memoryEntries, int maxEntries) throws IOException {
+        TransactionHistory history = new TransactionHistory(folder, LOGGER, memoryEntries, maxEntries);
+        history.open();
+        return history;
+    }
+
+    private void record(TransactionHistory history, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            history.record(alex.getMostSignificantBits(), alex.getLeastSignificantBits(), i * 100L, i * 100L,
+                    TransactionType.DEPOSIT);
+        }
+    }
+
+    private static List<Double> amounts(List<TransactionHistory.Entry> entries) {
+        return entries.stream().map(TransactionHistory.Entry::getAmount).toList();
+    }
+}
@@ -0,0 +1,269 @@
+package com.flowey258.simplebank.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TransactionJournalTest {
+
+    private static final Logger LOGGER = Logger.getLogger("TransactionJournalTest");
+    private static final int HEADER_SIZE = 8;
+
+    @TempDir
+    File folder;
+
+    private final UUID alex = UUID.randomUUID();
+
+    @Test
+    void recordsOfAFailedWriteAreWrittenByTheNextSync() throws IOException {
+        boolean[] failing = new boolean[1];
+        TransactionJournal journal = new TransactionJournal(folder, null, LOGGER) {
+            @Override
+            FileChannel openChannel(Path path) throws IOException {
+                return new FailingChannel(super.openChannel(path), failing);
+            }
+        };
+        journal.open((uuid, delta, balance, type, timestamp) -> {
+        });
+
+        append(journal, 1);
+        append(journal, 2);
+        failing[0] = true;
+        assertThrows(IOException.class, journal::sync);
+        assertEquals(2, journal.getBufferedRecords());
+
+        failing[0] = false;
+        append(journal, 3);
+        journal.sync();
+        assertEquals(0, journal.getBufferedRecords());
+        assertEquals(3, journal.getRecordCount());
+        journal.close();
+
+        assertEquals(List.of(1.0, 2.0, 3.0), replay());
+    }
+
+    @Test
+    void tornTrailingRecordIsIgnored() throws IOException {
+        TransactionJournal journal = open();
+        append(journal, 1);
+        append(journal, 2);
+        journal.close();
+        truncate(TransactionJournal.RECORD_SIZE / 2);
+
+        assertEquals(List.of(1.0), replay());
+    }
+
+    @Test
+    void corruptRecordEndsTheReplayOfItsFile() throws IOException {
+        TransactionJournal journal = open();
+        append(journal, 1);
+        append(journal, 2);
+        append(journal, 3);
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(generationFile(), "rw")) {
+            // The new balance of the second record
+            long position = HEADER_SIZE + TransactionJournal.RECORD_SIZE + 24;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+
+        assertEquals(List.of(1.0), replay());
+    }
+
+    @Test
+    void groupCutOffByACrashIsDropped() throws IOException {
+        TransactionJournal journal = open();
+        append(journal, 1);
+        journal.appendGroup(() -> {
+            append(journal, 2);
+            append(journal, 3);
+            append(journal, 4);
+        });
+        journal.close();
+        assertEquals(List.of(1.0, 2.0, 3.0, 4.0), replay());
+
+        // Remove the group's last record, and the empty generation the replay opened
+        new File(folder, String.format("%016d.journal", 2)).delete();
+        truncate(TransactionJournal.RECORD_SIZE);
+        assertEquals(List.of(1.0), replay());
+    }
+
+    @Test
+    void checkpointsAreNotReplayedAsChanges() throws IOException {
+        TransactionJournal journal = open();
+        append(journal, 1);
+        journal.appendCheckpoint(5);
+        append(journal, 2);
+        journal.appendCheckpoint(3);
+        journal.close();
+        assertEquals(2, journal.getRecordCount());
+
+        TransactionJournal replayed = new TransactionJournal(folder, null, LOGGER);
+        List<Double> balances = new ArrayList<>();
+        assertEquals(2, replayed.open((uuid, delta, balance, type, timestamp) -> balances.add(balance)));
+        replayed.close();
+        assertEquals(List.of(1.0, 2.0), balances);
+        assertEquals(5, replayed.getReplayedCheckpoint());
+    }
+
+    private TransactionJournal open() throws IOException {
+        TransactionJournal journal = new TransactionJournal(folder, null, LOGGER);
+        journal.open((uuid, delta, balance, type, timestamp) -> {
+        });
+        return journal;
+    }
+
+    /**
+     * @return The first generation, the one {@link #open()} writes to
+     */
+    private File generationFile() {
+        return new File(folder, String.format("%016d.journal", 1));
+    }
+
+    private void truncate(int bytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(generationFile(), "rw")) {
+            file.setLength(file.length() - bytes);
+        }
+    }
+
+    private void append(TransactionJournal journal, double balance) {
+        journal.append(alex.getMostSignificantBits(), alex.getLeastSignificantBits(), 1, balance,
+                TransactionType.DEPOSIT);
+    }
+
+    /**
+     * @return The balances of the records in the journal, in order
+     */
+    private List<Double> replay() throws IOException {
+        List<Double> balances = new ArrayList<>();
+        TransactionJournal journal = new TransactionJournal(folder, null, LOGGER);
+        journal.open((uuid, delta, balance, type, timestamp) -> balances.add(balance));
+        journal.close();
+        return balances;
+    }
+
+    /**
+     * Writes a few bytes and then fails while {@code failing} is set, like a disk that filled up
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel file;
+        private final boolean[] failing;
+
+        private FailingChannel(FileChannel file, boolean[] failing) {
+            this.file = file;
+            this.failing = failing;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (failing[0]) {
+                ByteBuffer part = source.slice();
+                part.limit(Math.min(part.limit(), 10));
+                file.write(part);
+                throw new IOException("No space left on device");
+            }
+            return file.write(source);
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            return file.read(target);
+        }
+
+        @Override
+        public long read(ByteBuffer[] targets, int offset, int length) throws IOException {
+            return file.read(targets, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long position) throws IOException {
+            file.position(position);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            file.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) throws IOException {
+            return file.read(target, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
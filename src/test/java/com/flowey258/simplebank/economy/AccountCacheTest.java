@@ -0,0 +1,190 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.HeadlessPlugin;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.utils.BankSettings;
+import com.flowey258.simplebank.utils.UuidLongMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The cache runs on its own here: balances live in a plain map and in BINARY storage, and interest
+ * started ten one-minute periods ago at 10% per period, so reloaded accounts have periods to catch up on.
+ */
+class AccountCacheTest {
+
+    private static final Logger LOGGER = Logger.getLogger("AccountCacheTest");
+    private static final long PERIODS_SO_FAR = 10;
+
+    @TempDir
+    File folder;
+
+    private HeadlessPlugin plugin;
+    private final UuidLongMap balances = new UuidLongMap(1024);
+    private InterestAccrual interest;
+
+    @BeforeEach
+    void start() throws IOException {
+        plugin = HeadlessPlugin.create(folder, LOGGER);
+        plugin.getConfig().set("storage.type", "BINARY");
+        plugin.getConfig().set("interest.enabled", true);
+        plugin.getConfig().set("interest.rate", 0.1);
+        plugin.getConfig().set("interest.minimum-balance", 0.0);
+        plugin.getConfig().set("interest.interval-minutes", 1L);
+        plugin.settings = BankSettings.from(plugin.getConfig());
+        plugin.dataManager = new DataManager(plugin);
+        // Halfway into the next period, so no boundary passes while the test runs
+        long epoch = System.currentTimeMillis() - PERIODS_SO_FAR * 60_000 - 30_000;
+        interest = new InterestAccrual(plugin, balances, epoch);
+    }
+
+    @AfterEach
+    void stop() {
+        plugin.dataManager.shutdown();
+    }
+
+    @Test
+    void evictedAccountsAreLoadedAgain() throws IOException {
+        List<UUID> accounts = store(20);
+        AccountCache cache = cache(4);
+        for (UUID uuid : accounts) {
+            use(cache, uuid);
+        }
+        assertEquals(20, cache.getResidentCount());
+
+        cache.evict();
+        assertEquals(4, cache.getResidentCount());
+        assertEquals(4, balances.size());
+        assertEquals(16, cache.getEvictionCount());
+
+        long loads = cache.getLoadCount();
+        for (int i = 0; i < accounts.size(); i++) {
+            UUID uuid = accounts.get(i);
+            boolean resident = cache.isResident(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            assertEquals(balanceOf(i), use(cache, uuid));
+            if (!resident) {
+                loads++;
+            }
+        }
+        assertEquals(loads, cache.getLoadCount());
+    }
+
+    @Test
+    void onlineAccountsStayInMemory() throws IOException {
+        List<UUID> accounts = store(10);
+        AccountCache cache = cache(1);
+        for (UUID uuid : accounts) {
+            use(cache, uuid);
+        }
+        UUID online = accounts.get(3);
+        long stamp = cache.acquire(online.getMostSignificantBits(), online.getLeastSignificantBits());
+        cache.setOnline(online.getMostSignificantBits(), online.getLeastSignificantBits(), true);
+        cache.release(online.getMostSignificantBits(), online.getLeastSignificantBits(), stamp);
+
+        cache.evict();
+        cache.evict();
+        assertEquals(1, cache.getResidentCount());
+        assertTrue(cache.isResident(online.getMostSignificantBits(), online.getLeastSignificantBits()));
+    }
+
+    @Test
+    void missedInterestIsPaidWhenAnAccountIsLoadedAgain() throws IOException {
+        // Enough evictions that the settled periods are written to the period file
+        List<UUID> accounts = store(5000);
+        AccountCache cache = cache(1);
+        long settledAt = 4;
+        for (UUID uuid : accounts) {
+            long msb = uuid.getMostSignificantBits();
+            long lsb = uuid.getLeastSignificantBits();
+            long stamp = cache.acquire(msb, lsb);
+            interest.onLoad(msb, lsb, settledAt);
+            cache.release(msb, lsb, stamp);
+        }
+        cache.evict();
+        assertEquals(1, cache.getResidentCount());
+        assertTrue(new File(folder, "interest-periods.bin").length() > 4000 * 24);
+
+        List<Integer> checked = new ArrayList<>();
+        for (int i = 0; i < accounts.size() && checked.size() < 3; i++) {
+            UUID uuid = accounts.get(i);
+            long msb = uuid.getMostSignificantBits();
+            long lsb = uuid.getLeastSignificantBits();
+            if (cache.isResident(msb, lsb)) {
+                continue;
+            }
+            long stamp = cache.acquire(msb, lsb);
+            try {
+                assertEquals(settledAt, interest.getSettledPeriod(msb, lsb));
+                interest.settle(msb, lsb);
+                assertEquals(withInterest(balanceOf(i), PERIODS_SO_FAR - settledAt), balances.get(msb, lsb));
+                assertEquals(PERIODS_SO_FAR, interest.getSettledPeriod(msb, lsb));
+            } finally {
+                cache.release(msb, lsb, stamp);
+            }
+            checked.add(i);
+        }
+        assertEquals(3, checked.size());
+    }
+
+    private AccountCache cache(int maxAccounts) {
+        return new AccountCache(balances, interest, plugin.dataManager, null, maxAccounts,
+                new File(folder, "interest-periods.bin"), LOGGER);
+    }
+
+    /**
+     * Writes accounts with balances of 1, 2, 3... currency units straight to storage
+     */
+    private List<UUID> store(int count) throws IOException {
+        List<UUID> accounts = new ArrayList<>();
+        Map<UUID, Double> batch = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            UUID uuid = UUID.randomUUID();
+            accounts.add(uuid);
+            batch.put(uuid, balanceOf(i) / 100.0);
+        }
+        plugin.dataManager.getStorage().saveBatch(batch);
+        return accounts;
+    }
+
+    private static long balanceOf(int index) {
+        return (index + 1) * 100L;
+    }
+
+    /**
+     * @return The balance in minor units, loading the account if it was evicted
+     */
+    private long use(AccountCache cache, UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = cache.acquire(msb, lsb);
+        try {
+            return balances.get(msb, lsb);
+        } finally {
+            cache.release(msb, lsb, stamp);
+        }
+    }
+
+    /**
+     * The old per-interval payment, run once per period
+     */
+    private static long withInterest(long balance, long periods) {
+        for (long i = 0; i < periods; i++) {
+            balance += Math.round(balance * 0.1);
+        }
+        return balance;
+    }
+}
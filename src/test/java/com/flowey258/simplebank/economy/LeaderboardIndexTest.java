@@ -0,0 +1,174 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.HeadlessPlugin;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.utils.BankSettings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the skip list against a plain sorted list after every change. Balances come from a
+ * small range and some accounts share their most significant bits, so ties are common.
+ */
+class LeaderboardIndexTest {
+
+    private static final Logger LOGGER = Logger.getLogger("LeaderboardIndexTest");
+
+    /**
+     * Highest balance first, then by UUID as signed longs, like the index
+     */
+    private static final Comparator<Map.Entry<UUID, Long>> RANKING =
+            Comparator.<Map.Entry<UUID, Long>>comparingLong(Map.Entry::getValue).reversed()
+                    .thenComparingLong(entry -> entry.getKey().getMostSignificantBits())
+                    .thenComparingLong(entry -> entry.getKey().getLeastSignificantBits());
+
+    @TempDir
+    File folder;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void randomChangesMatchASortedList() {
+        List<UUID> accounts = accounts(300);
+        Map<UUID, Long> balances = new HashMap<>();
+        LeaderboardIndex index = new LeaderboardIndex();
+
+        for (int step = 0; step < 5_000; step++) {
+            UUID uuid = accounts.get(random.nextInt(accounts.size()));
+            long oldBalance = balances.getOrDefault(uuid, 0L);
+            // Mostly inserts and updates in place, sometimes a removal
+            long newBalance = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(25);
+            index.update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), oldBalance, newBalance);
+            if (newBalance > 0) {
+                balances.put(uuid, newBalance);
+            } else {
+                balances.remove(uuid);
+            }
+
+            if (step % 50 == 0) {
+                assertMatches(index, balances, accounts);
+            }
+        }
+        assertMatches(index, balances, accounts);
+    }
+
+    @Test
+    void pagesMatchASortedList() {
+        List<UUID> accounts = accounts(120);
+        Map<UUID, Long> balances = new HashMap<>();
+        LeaderboardIndex index = new LeaderboardIndex();
+        for (UUID uuid : accounts) {
+            long balance = 1 + random.nextInt(10);
+            index.update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), 0, balance);
+            balances.put(uuid, balance);
+        }
+        List<UUID> expected = ranking(balances);
+
+        for (int offset : new int[]{0, 1, 37, 119, 120, 500}) {
+            for (int limit : new int[]{0, 1, 10, 200}) {
+                List<UUID> page = new ArrayList<>();
+                List<Integer> ranks = new ArrayList<>();
+                index.visitRange(offset, limit, (rank, msb, lsb, balance) -> {
+                    page.add(new UUID(msb, lsb));
+                    ranks.add(rank);
+                });
+                int from = Math.min(offset, expected.size());
+                int to = Math.min(offset + limit, expected.size());
+                assertEquals(expected.subList(from, to), page, "offset " + offset + ", limit " + limit);
+                for (int i = 0; i < ranks.size(); i++) {
+                    assertEquals(offset + i + 1, ranks.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void bankManagerPagesAndRanksFollowBalanceChanges() throws IOException {
+        HeadlessPlugin plugin = HeadlessPlugin.create(folder, LOGGER);
+        plugin.settings = BankSettings.from(plugin.getConfig());
+        plugin.dataManager = new DataManager(plugin);
+        plugin.bankManager = new BankManager(plugin);
+        BankManager bank = plugin.bankManager;
+        try {
+            List<UUID> accounts = accounts(40);
+            Map<UUID, Long> balances = new HashMap<>();
+            for (int step = 0; step < 400; step++) {
+                UUID uuid = accounts.get(random.nextInt(accounts.size()));
+                long cents = random.nextInt(8) == 0 ? 0 : 100 * (1 + random.nextInt(6));
+                bank.setBankBalance(uuid, cents / 100.0);
+                if (cents > 0) {
+                    balances.put(uuid, cents);
+                } else {
+                    balances.remove(uuid);
+                }
+            }
+
+            List<UUID> expected = ranking(balances);
+            List<UUID> listed = new ArrayList<>();
+            for (int offset = 0; offset < expected.size(); offset += 7) {
+                bank.getTopBalances(offset, 7).forEach(entry -> listed.add(entry.getUuid()));
+            }
+            assertEquals(expected, listed);
+            for (UUID uuid : accounts) {
+                assertEquals(expected.indexOf(uuid) + 1, bank.getRank(uuid));
+            }
+        } finally {
+            bank.closeHistory();
+            plugin.dataManager.shutdown();
+        }
+    }
+
+    private void assertMatches(LeaderboardIndex index, Map<UUID, Long> balances, List<UUID> accounts) {
+        List<UUID> expected = ranking(balances);
+        assertEquals(expected.size(), index.size());
+
+        List<UUID> listed = new ArrayList<>();
+        index.visitRange(0, Integer.MAX_VALUE, (rank, msb, lsb, balance) -> {
+            UUID uuid = new UUID(msb, lsb);
+            assertEquals(balances.get(uuid), balance);
+            listed.add(uuid);
+        });
+        assertEquals(expected, listed);
+
+        for (UUID uuid : accounts) {
+            long balance = balances.getOrDefault(uuid, 0L);
+            int rank = index.rankOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance);
+            assertEquals(expected.indexOf(uuid) + 1, rank);
+            if (balance > 0) {
+                // A stale balance does not find the account
+                assertEquals(0, index.rankOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                        balance + 1));
+            }
+        }
+    }
+
+    private static List<UUID> ranking(Map<UUID, Long> balances) {
+        return balances.entrySet().stream().sorted(RANKING).map(Map.Entry::getKey).toList();
+    }
+
+    /**
+     * @return Accounts in pairs that share their most significant bits, about half of them negative as signed longs
+     */
+    private List<UUID> accounts(int count) {
+        List<UUID> accounts = new ArrayList<>();
+        while (accounts.size() < count) {
+            long msb = random.nextLong();
+            accounts.add(new UUID(msb, random.nextLong()));
+            accounts.add(new UUID(msb, random.nextLong()));
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,101 @@
+package com.flowey258.simplebank.economy;
+
+import com.flowey258.simplebank.HeadlessPlugin;
+import com.flowey258.simplebank.data.BinaryBankStorage;
+import com.flowey258.simplebank.data.DataManager;
+import com.flowey258.simplebank.data.PlayerNameIndex;
+import com.flowey258.simplebank.utils.BankSettings;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Runs without a Bukkit server, so any name lookup that still went through Bukkit would fail here
+ */
+class SimpleBankEconomyTest {
+
+    private static final Logger LOGGER = Logger.getLogger("SimpleBankEconomyTest");
+
+    @TempDir
+    File folder;
+
+    private final UUID alex = UUID.randomUUID();
+    private HeadlessPlugin plugin;
+    private SimpleBankEconomy economy;
+
+    @BeforeEach
+    void start() throws IOException {
+        plugin = HeadlessPlugin.create(folder, LOGGER);
+        plugin.settings = BankSettings.from(plugin.getConfig());
+        plugin.playerNames = new PlayerNameIndex(new File(folder, "names.bin"), LOGGER, 100);
+        plugin.playerNames.record(alex, "Alex");
+
+        plugin.dataManager = new DataManager(plugin);
+        plugin.bankManager = new BankManager(plugin);
+        plugin.walletManager = new WalletManager(plugin, new DataManager(plugin,
+                new BinaryBankStorage(new File(folder, "wallets.bin"), LOGGER), "SimpleBankEconomyTest-Wallet-IO"));
+        economy = new SimpleBankEconomy(plugin, plugin.walletManager, plugin.bankManager);
+    }
+
+    @AfterEach
+    void stop() {
+        plugin.bankManager.closeHistory();
+        plugin.dataManager.shutdown();
+        plugin.walletManager.getDataManager().shutdown();
+    }
+
+    @Test
+    void namesResolveThroughTheNameIndex() {
+        assertEquals(EconomyResponse.ResponseType.SUCCESS, economy.depositPlayer("alex", 10).type);
+        assertEquals(10.0, economy.getBalance("ALEX"));
+        assertEquals(10.0, plugin.walletManager.getBalance(alex));
+
+        assertEquals(EconomyResponse.ResponseType.SUCCESS, economy.bankDeposit("Alex", 5).type);
+        assertEquals(5.0, economy.bankBalance("Alex").balance);
+        assertEquals(5.0, plugin.bankManager.getBankBalance(alex));
+        assertEquals(EconomyResponse.ResponseType.SUCCESS, economy.isBankOwner("Alex", "alex").type);
+    }
+
+    @Test
+    void unknownNamesAreRefused() {
+        assertEquals(0.0, economy.getBalance("Nobody"));
+        assertFalse(economy.has("Nobody", 0));
+        assertEquals(EconomyResponse.ResponseType.FAILURE, economy.depositPlayer("Nobody", 10).type);
+        assertEquals(EconomyResponse.ResponseType.FAILURE, economy.bankBalance("Nobody").type);
+        assertEquals(EconomyResponse.ResponseType.FAILURE, economy.isBankOwner("Nobody", "Nobody").type);
+    }
+
+    @Test
+    void nonFiniteAmountsAreRefused() {
+        economy.depositPlayer("Alex", 10);
+        economy.bankDeposit("Alex", 10);
+        for (double amount : new double[]{Double.NaN, Double.POSITIVE_INFINITY, 1e20}) {
+            assertEquals(EconomyResponse.ResponseType.FAILURE, economy.depositPlayer("Alex", amount).type);
+            assertEquals(EconomyResponse.ResponseType.FAILURE, economy.withdrawPlayer("Alex", amount).type);
+            assertEquals(EconomyResponse.ResponseType.FAILURE, economy.bankDeposit("Alex", amount).type);
+            assertEquals(EconomyResponse.ResponseType.FAILURE, economy.bankWithdraw("Alex", amount).type);
+        }
+        assertEquals(10.0, plugin.walletManager.getBalance(alex));
+        assertEquals(10.0, plugin.bankManager.getBankBalance(alex));
+    }
+
+    @Test
+    void banksAreListedByIndexedName() {
+        economy.bankDeposit("Alex", 5);
+        // An account whose owner is not in the index has no name to list
+        plugin.bankManager.addToBankBalance(UUID.randomUUID(), 5);
+
+        assertEquals(List.of("Alex"), economy.getBanks());
+    }
+}
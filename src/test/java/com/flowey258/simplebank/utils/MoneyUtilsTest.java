@@ -0,0 +1,39 @@
+package com.flowey258.simplebank.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoneyUtilsTest {
+
+    @Test
+    void amountsOutOfRangeAreRejected() {
+        assertEquals(1234, MoneyUtils.toMinor(12.34));
+        assertEquals(MoneyUtils.MAX_MINOR, MoneyUtils.toMinor(MoneyUtils.MAX_AMOUNT));
+        assertTrue(MoneyUtils.isValidAmount(-MoneyUtils.MAX_AMOUNT));
+
+        for (double amount : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e20,
+                MoneyUtils.MAX_AMOUNT + 1}) {
+            assertFalse(MoneyUtils.isValidAmount(amount), String.valueOf(amount));
+            assertThrows(IllegalArgumentException.class, () -> MoneyUtils.toMinor(amount));
+        }
+    }
+
+    @Test
+    void storedAmountsAreClampedToTheMaximum() {
+        assertEquals(0, MoneyUtils.toMinorClamped(Double.NaN));
+        assertEquals(MoneyUtils.MAX_MINOR, MoneyUtils.toMinorClamped(Long.MAX_VALUE / 100.0));
+        assertEquals(-MoneyUtils.MAX_MINOR, MoneyUtils.toMinorClamped(Double.NEGATIVE_INFINITY));
+        assertEquals(1234, MoneyUtils.toMinorClamped(12.34));
+    }
+
+    @Test
+    void balancesStopAtTheMaximum() {
+        assertEquals(300, MoneyUtils.addCapped(100, 200));
+        assertEquals(MoneyUtils.MAX_MINOR, MoneyUtils.addCapped(MoneyUtils.MAX_MINOR - 1, 2));
+        assertEquals(MoneyUtils.MAX_MINOR, MoneyUtils.addCapped(MoneyUtils.MAX_MINOR, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,272 @@
+package com.flowey258.simplebank.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keys are picked by their hash, so a test can choose which segment and which slot of it they land in.
+ * A new map starts every segment at 16 slots.
+ */
+class UuidLongMapTest {
+
+    private static final int SLOTS = 16;
+    private static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(new UuidLongMap(0).getSegmentCount());
+
+    private final Random random = new Random(42);
+
+    @Test
+    void probeChainsThatWrapAroundSurviveRemoval() {
+        // Homes at the end and the start of the table, so chains run past the last slot into the first
+        List<UUID> keys = new ArrayList<>();
+        for (int home : new int[]{14, 14, 14, 15, 15, 0, 0, 1, 13, 15, 14}) {
+            keys.add(keyIn(0, home, SLOTS));
+        }
+        UuidLongMap map = new UuidLongMap(0);
+        Map<UUID, Long> reference = new HashMap<>();
+
+        // Stays below the resize threshold, so every chain keeps its shape
+        for (int step = 0; step < 20_000; step++) {
+            UUID key = keys.get(random.nextInt(keys.size()));
+            if (reference.containsKey(key) && random.nextBoolean()) {
+                long removed = map.remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+                assertEquals(reference.remove(key), removed);
+            } else {
+                long value = 1 + random.nextInt(1000);
+                reference.put(key, value);
+                map.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), value, 0);
+            }
+            assertMatches(reference, keys, map);
+        }
+    }
+
+    @Test
+    void entriesSurviveResizing() {
+        List<UUID> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // One segment, so it has to grow several times
+            keys.add(keyIn(0, -1, SLOTS));
+        }
+        UuidLongMap map = new UuidLongMap(0);
+        Map<UUID, Long> reference = new HashMap<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            UUID key = keys.get(i);
+            map.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), i + 1, 0);
+            reference.put(key, i + 1L);
+            if (i % 3 == 2) {
+                UUID removed = keys.get(i / 2);
+                map.remove(removed.getMostSignificantBits(), removed.getLeastSignificantBits());
+                reference.remove(removed);
+            }
+        }
+        assertMatches(reference, keys, map);
+
+        Map<UUID, Long> visited = new HashMap<>();
+        map.forEach((msb, lsb, value) -> assertNull(visited.put(new UUID(msb, lsb), value)));
+        assertEquals(reference, visited);
+    }
+
+    @Test
+    void storingZeroRemovesTheEntry() {
+        List<long[]> changes = new ArrayList<>();
+        UuidLongMap map = new UuidLongMap(0, (msb, lsb, oldValue, newValue, tag) ->
+                changes.add(new long[]{oldValue, newValue, tag}));
+        UUID key = keyIn(3, 15, SLOTS);
+        UUID neighbour = keyIn(3, 15, SLOTS);
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        map.put(msb, lsb, 5, 1);
+        map.put(neighbour.getMostSignificantBits(), neighbour.getLeastSignificantBits(), 7, 1);
+
+        assertEquals(5, map.put(msb, lsb, 0, 2));
+        assertEquals(0, map.get(msb, lsb));
+        assertEquals(1, map.size());
+        // The neighbour was shifted back into the freed home slot
+        assertEquals(7, map.get(neighbour.getMostSignificantBits(), neighbour.getLeastSignificantBits()));
+
+        // Storing 0 over an absent key is not a change
+        map.put(msb, lsb, 0, 3);
+        assertEquals(1, map.size());
+
+        map.put(msb, lsb, 4, 4);
+        assertEquals(0, map.add(msb, lsb, -4, 5));
+        assertEquals(1, map.size());
+        assertEquals(0, map.update(msb, lsb, value -> 0, 6));
+        assertEquals(1, map.size());
+
+        List<String> expected = List.of("0>5#1", "0>7#1", "5>0#2", "0>4#4", "4>0#5");
+        assertEquals(expected, changes.stream().map(c -> c[0] + ">" + c[1] + "#" + c[2]).toList());
+    }
+
+    @Test
+    void readersNeverMissAnEntryThatStaysPut() throws InterruptedException {
+        List<UUID> stable = new ArrayList<>();
+        List<UUID> moving = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            stable.add(keyIn(1, 15 - i % 3, SLOTS));
+            moving.add(keyIn(1, 15 - i % 3, SLOTS));
+        }
+        UuidLongMap map = new UuidLongMap(0);
+        for (int i = 0; i < stable.size(); i++) {
+            map.put(stable.get(i).getMostSignificantBits(), stable.get(i).getLeastSignificantBits(), i + 1, 0);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            Thread reader = new Thread(() -> {
+                while (running.get() && failure.get() == null) {
+                    for (int i = 0; i < stable.size(); i++) {
+                        UUID key = stable.get(i);
+                        long value = map.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+                        if (value != i + 1) {
+                            failure.set("stable key " + i + " read as " + value);
+                        }
+                    }
+                    for (int i = 0; i < moving.size(); i++) {
+                        UUID key = moving.get(i);
+                        long value = map.get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+                        if (value != 0 && value != 100 + i) {
+                            failure.set("moving key " + i + " read as " + value);
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        // Inserting and removing the other keys keeps shifting the stable ones along their chains
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        while (System.nanoTime() < deadline && failure.get() == null) {
+            int i = random.nextInt(moving.size());
+            UUID key = moving.get(i);
+            if (random.nextBoolean()) {
+                map.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), 100 + i, 0);
+            } else {
+                map.remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            }
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    void lockedUpdatesAreAtomicAndSeenInOrder() throws InterruptedException {
+        // Keys in two segments, passed in opposite orders by the two threads
+        UUID first = keyIn(2, -1, SLOTS);
+        UUID second = keyIn(40, -1, SLOTS);
+        Map<UUID, Long> lastSeen = new HashMap<>();
+        AtomicReference<String> failure = new AtomicReference<>();
+        UuidLongMap map = new UuidLongMap(0, (msb, lsb, oldValue, newValue, tag) -> {
+            synchronized (lastSeen) {
+                Long last = lastSeen.put(new UUID(msb, lsb), newValue);
+                if (last != null && last != oldValue) {
+                    failure.compareAndSet(null, "change from " + oldValue + " after " + last);
+                }
+            }
+        });
+        map.put(first.getMostSignificantBits(), first.getLeastSignificantBits(), 1_000_000, 0);
+        map.put(second.getMostSignificantBits(), second.getLeastSignificantBits(), 1_000_000, 0);
+
+        Thread forward = new Thread(() -> move(map, first, second, 10_000));
+        Thread backward = new Thread(() -> move(map, second, first, 10_000));
+        Thread observer = new Thread(() -> {
+            for (int i = 0; i < 10_000 && failure.get() == null; i++) {
+                long[] keys = {first.getMostSignificantBits(), first.getLeastSignificantBits(),
+                        second.getMostSignificantBits(), second.getLeastSignificantBits()};
+                map.updateLocked(keys, 2, locked -> {
+                    long sum = locked.get(keys[0], keys[1]) + locked.get(keys[2], keys[3]);
+                    if (sum != 2_000_000) {
+                        failure.compareAndSet(null, "sum " + sum);
+                    }
+                });
+            }
+        });
+        forward.start();
+        backward.start();
+        observer.start();
+        forward.join(10_000);
+        backward.join(10_000);
+        observer.join(10_000);
+        assertFalse(forward.isAlive() || backward.isAlive() || observer.isAlive(), "deadlocked");
+
+        assertNull(failure.get());
+        assertEquals(1_000_000, map.get(first.getMostSignificantBits(), first.getLeastSignificantBits()));
+        assertEquals(1_000_000, map.get(second.getMostSignificantBits(), second.getLeastSignificantBits()));
+    }
+
+    @Test
+    void lockedUpdatesOnlyReachTheirOwnKeys() {
+        UuidLongMap map = new UuidLongMap(0);
+        UUID locked = keyIn(5, -1, SLOTS);
+        UUID other = keyIn(6, -1, SLOTS);
+        assertThrows(IllegalStateException.class, () -> map.updateLocked(
+                new long[]{locked.getMostSignificantBits(), locked.getLeastSignificantBits()}, 1,
+                entries -> entries.put(other.getMostSignificantBits(), other.getLeastSignificantBits(), 1, 0)));
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * Moves 1 from one key to the other, one locked update at a time
+     */
+    private static void move(UuidLongMap map, UUID from, UUID to, int times) {
+        long[] keys = {from.getMostSignificantBits(), from.getLeastSignificantBits(),
+                to.getMostSignificantBits(), to.getLeastSignificantBits()};
+        for (int i = 0; i < times; i++) {
+            map.updateLocked(keys, 2, locked -> {
+                locked.put(keys[0], keys[1], locked.get(keys[0], keys[1]) - 1, 0);
+                locked.put(keys[2], keys[3], locked.get(keys[2], keys[3]) + 1, 0);
+            });
+        }
+        // Give the moved amount back, so both threads end where they started
+        for (int i = 0; i < times; i++) {
+            map.updateLocked(keys, 2, locked -> {
+                locked.put(keys[2], keys[3], locked.get(keys[2], keys[3]) - 1, 0);
+                locked.put(keys[0], keys[1], locked.get(keys[0], keys[1]) + 1, 0);
+            });
+        }
+    }
+
+    private static void assertMatches(Map<UUID, Long> reference, List<UUID> keys, UuidLongMap map) {
+        for (UUID key : keys) {
+            assertEquals(reference.getOrDefault(key, 0L),
+                    map.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        }
+        assertEquals(reference.size(), map.size());
+    }
+
+    /**
+     * @param segment The segment the key must fall into
+     * @param home The slot the key must hash to in a table of the given size, or -1 for any slot
+     */
+    private UUID keyIn(int segment, int home, int slots) {
+        while (true) {
+            long msb = random.nextLong();
+            long lsb = random.nextLong();
+            int hash = UuidLongMap.hash(msb, lsb);
+            if (hash >>> SEGMENT_SHIFT == segment && (home < 0 || (hash & (slots - 1)) == home)) {
+                return new UUID(msb, lsb);
+            }
+        }
+    }
+}